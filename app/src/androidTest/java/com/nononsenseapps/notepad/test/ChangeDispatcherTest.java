@@ -0,0 +1,99 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.helpers.ChangeDispatcher;
+import com.nononsenseapps.notepad.database.Task;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChangeDispatcherTest extends TestCase {
+
+	// Well above the dispatch delay
+	private static final long WAIT_MS = 500;
+
+	private ContentResolver mResolver;
+	private ChangeDispatcher mDispatcher;
+
+	private static class CountingObserver extends ContentObserver {
+		final AtomicInteger count = new AtomicInteger();
+
+		CountingObserver() {
+			super(null);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			count.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		mResolver = context.getContentResolver();
+		mDispatcher = ChangeDispatcher.getInstance(context);
+		// Let earlier changes pass
+		SystemClock.sleep(WAIT_MS);
+	}
+
+	@MediumTest
+	public void testDelivery() {
+		final Uri uri = Uri.withAppendedPath(Task.URI, "987654");
+		final CountingObserver observer = new CountingObserver();
+		mResolver.registerContentObserver(uri, false, observer);
+		try {
+			mDispatcher.post(uri);
+			SystemClock.sleep(WAIT_MS);
+			assertEquals(1, observer.count.get());
+
+			mDispatcher.post(uri);
+			mDispatcher.flush();
+			SystemClock.sleep(WAIT_MS);
+			assertEquals(2, observer.count.get());
+		} finally {
+			mResolver.unregisterContentObserver(observer);
+		}
+	}
+
+	@MediumTest
+	public void testCoalescing() {
+		final Uri item = Uri.withAppendedPath(Task.URI, "987654");
+		final Uri other = Uri.withAppendedPath(Task.URI, "987655");
+		final CountingObserver parent = new CountingObserver();
+		final CountingObserver child = new CountingObserver();
+		mResolver.registerContentObserver(Task.URI, true, parent);
+		mResolver.registerContentObserver(item, false, child);
+		try {
+			// The same uri many times gives one notification
+			for (int i = 0; i < 10; i++) {
+				mDispatcher.post(item);
+			}
+			SystemClock.sleep(WAIT_MS);
+			assertEquals(1, parent.count.get());
+			assertEquals(1, child.count.get());
+
+			// The parent covers its descendants, so only it is notified.
+			// Its observers and those of the descendants hear of it once.
+			mDispatcher.post(item);
+			mDispatcher.post(other);
+			mDispatcher.post(Task.URI);
+			SystemClock.sleep(WAIT_MS);
+			assertEquals(2, parent.count.get());
+			assertEquals(2, child.count.get());
+		} finally {
+			mResolver.unregisterContentObserver(parent);
+			mResolver.unregisterContentObserver(child);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the retention of the archive of deleted tasks.
+ */
+public class DBArchivePurgeTest extends TestCase {
+
+	static final String PREFIX = "purge_test_";
+	static final int TASKS = 500;
+
+	private Context context;
+	private DatabaseHandler handler;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		final long listId = db.insert(TaskList.TABLE_NAME, null, values);
+		for (int i = 0; i < TASKS; i++) {
+			values.clear();
+			values.put(Task.Columns.TITLE, "deleted " + i);
+			values.put(Task.Columns.DBLIST, listId);
+			db.insert(Task.TABLE_NAME, null, values);
+		}
+		// Into the archive
+		db.delete(Task.TABLE_NAME, null, null);
+
+		// Half of them a long time ago
+		db.execSQL("UPDATE " + Task.DELETE_TABLE_NAME + " SET " + Task.Columns.TRIG_DELETED
+				+ " = datetime('now', '-2 years') WHERE " + Task.Columns._ID + " % 2 = 0");
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private long countSearchable() {
+		return DatabaseUtils.longForQuery(handler.getReadableDatabase(), "SELECT COUNT(*) FROM "
+				+ Task.FTS_DELETE_TABLE_NAME + " WHERE " + Task.FTS_DELETE_TABLE_NAME
+				+ " MATCH 'deleted'", null);
+	}
+
+	@MediumTest
+	public void testPurge() {
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		assertEquals(TASKS, DatabaseUtils.queryNumEntries(db, Task.DELETE_TABLE_NAME));
+
+		// Nothing to do without a policy
+		assertEquals(0, Task.purgeDeleted(db, 0, 0, null));
+
+		assertEquals(TASKS / 2, Task.purgeDeleted(db, 365, 0, null));
+		assertEquals(TASKS / 2, DatabaseUtils.queryNumEntries(db, Task.DELETE_TABLE_NAME,
+				Task.Columns._ID + " % 2 = 1"));
+
+		assertEquals(TASKS / 2 - 100, Task.purgeDeleted(db, 365, 100, null));
+		assertEquals(100, DatabaseUtils.queryNumEntries(db, Task.DELETE_TABLE_NAME));
+		// The search index goes along
+		assertEquals(100, countSearchable());
+	}
+}
@@ -0,0 +1,147 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs readers against a long write transaction, like the one of a sync, and
+ * checks that the readers are not blocked by it.
+ */
+public class DBConcurrencyTest extends TestCase {
+
+	static final String PREFIX = "concurrency_test_";
+	static final int READERS = 4;
+	// How long the writer keeps its transaction open
+	static final long WRITE_MS = 2000;
+
+	private Context context;
+	private DatabaseHandler handler;
+	private long listId;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		listId = db.insert(TaskList.TABLE_NAME, null, values);
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < 500; i++) {
+				insertTask(db, "task" + i);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private void insertTask(final SQLiteDatabase db, final String title) {
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.TITLE, title);
+		values.put(Task.Columns.DBLIST, listId);
+		db.insert(Task.TABLE_NAME, null, values);
+	}
+
+	@LargeTest
+	public void testReadersDuringWriteTransaction() throws Exception {
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final CountDownLatch writing = new CountDownLatch(1);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+		final Thread writer = new Thread(() -> {
+			db.beginTransaction();
+			try {
+				writing.countDown();
+				final long end = SystemClock.elapsedRealtime() + WRITE_MS;
+				int i = 0;
+				while (SystemClock.elapsedRealtime() < end) {
+					insertTask(db, "written" + i++);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+				done.set(true);
+			}
+		});
+
+		final List<Thread> readers = new ArrayList<>();
+		for (int r = 0; r < READERS; r++) {
+			readers.add(new Thread(() -> {
+				try {
+					writing.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				final SQLiteDatabase rdb = handler.getReadableDatabase();
+				while (!done.get()) {
+					final long start = System.nanoTime();
+					try (Cursor c = rdb.query(Task.TABLE_NAME, Task.Columns.FIELDS,
+							Task.Columns.DBLIST + " IS ?",
+							new String[] { Long.toString(listId) }, null, null,
+							Task.Columns.LEFT)) {
+						// Fill the whole window
+						c.moveToLast();
+					}
+					latencies.add(System.nanoTime() - start);
+				}
+			}));
+		}
+
+		writer.start();
+		for (Thread t : readers) {
+			t.start();
+		}
+		writer.join();
+		for (Thread t : readers) {
+			t.join();
+		}
+
+		assertFalse("No reads completed", latencies.isEmpty());
+		final List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		final long p50 = TimeUnit.NANOSECONDS.toMillis(sorted.get(sorted.size() / 2));
+		final long p99 = TimeUnit.NANOSECONDS.toMillis(sorted.get(sorted.size() * 99 / 100));
+		final long max = TimeUnit.NANOSECONDS.toMillis(sorted.get(sorted.size() - 1));
+		Log.i("nononsenseapps test", "reads: " + sorted.size() + ", p50: " + p50
+				+ " ms, p99: " + p99 + " ms, max: " + max + " ms");
+
+		// A reader waiting for the writer would take about as long as the
+		// whole transaction
+		assertTrue("Readers were blocked by the writer, max " + max + " ms",
+				max < WRITE_MS / 2);
+		assertTrue("More reads expected while writing, got " + sorted.size(),
+				sorted.size() > READERS);
+	}
+}
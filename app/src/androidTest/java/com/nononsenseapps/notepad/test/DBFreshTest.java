@@ -47,7 +47,8 @@ public class DBFreshTest extends TestCase {
 		tc.close();
 
 		db.close();
-		assertTrue("Could not delete database", context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME));
+		assertFalse("Legacy database should not be created",
+				context.getDatabasePath(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME).exists());
 		assertTrue("Could not delete database", context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME));
 	}
 }
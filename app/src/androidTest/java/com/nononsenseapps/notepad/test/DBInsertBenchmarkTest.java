@@ -0,0 +1,109 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares how fast tasks are written one by one, like sync and restore
+ * do, from ContentValues and through the cached statements. Both ways must
+ * write the same rows; the timings are only logged.
+ */
+public class DBInsertBenchmarkTest extends TestCase {
+
+	static final String PREFIX = "insertbench_test_";
+	static final int TASKS = 10000;
+
+	private Context context;
+	private DatabaseHandler handler;
+	private long listId;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		listId = handler.getWritableDatabase().insert(TaskList.TABLE_NAME, null, values);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private Task task(final int i) {
+		final Task t = new Task();
+		t.title = "task " + i;
+		t.note = "a note for task " + i;
+		t.dblist = listId;
+		t.updated = 1000L * i;
+		t.due = i % 2 == 0 ? null : 1000L * i;
+		return t;
+	}
+
+	/**
+	 * @return rows per second
+	 */
+	private long insertAll(final boolean cached) {
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final long start = System.nanoTime();
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < TASKS; i++) {
+				final Task t = task(i);
+				final long id = cached ? t.insertRow(db)
+						: db.insert(Task.TABLE_NAME, null, t.getContent());
+				assertTrue(id > 0);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return TASKS * 1000000000L / Math.max(1, System.nanoTime() - start);
+	}
+
+	@LargeTest
+	public void testInsert() {
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		// Warm up, and the same rows either way
+		insertAll(true);
+		insertAll(false);
+		db.delete(Task.TABLE_NAME, null, null);
+
+		final long before = insertAll(false);
+		final long after = insertAll(true);
+		Log.i("nononsenseapps test", TASKS + " task inserts, ContentValues: " + before
+				+ " rows/s, cached statement: " + after + " rows/s");
+		assertEquals(2 * TASKS, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME));
+		assertEquals(TASKS, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME,
+				Task.Columns.DUE + " IS NULL"));
+
+		// Every task of the first round has an equal twin in the second
+		final StringBuilder same = new StringBuilder();
+		for (String column : new String[] { Task.Columns.NOTE, Task.Columns.PREVIEW,
+				Task.Columns.COMPLETED, Task.Columns.DUE, Task.Columns.UPDATED,
+				Task.Columns.DBLIST, Task.Columns.LOCKED }) {
+			same.append(" AND a.").append(column).append(" IS b.").append(column);
+		}
+		assertEquals(TASKS, DatabaseUtils.longForQuery(db, String.format(
+				"SELECT COUNT(*) FROM %1$s a JOIN %1$s b ON a.%2$s IS b.%2$s"
+						+ " AND a.%3$s < b.%3$s%4$s", Task.TABLE_NAME, Task.Columns.TITLE,
+				Task.Columns._ID, same), null));
+	}
+}
@@ -0,0 +1,227 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.helpers.RFC3339Date;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.LegacyMigrator;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the bulk migration of legacy notes, and that an interrupted one
+ * continues where it stopped.
+ */
+public class DBLegacyMigratorTest extends TestCase {
+
+	static final String PREFIX = "legacymigrator_test_";
+	static final int NOTES = 1200;
+	static final String DUE = "2013-03-23T02:43:35.000Z";
+
+	private Context context;
+	private DatabaseHandler handler;
+	private SQLiteDatabase db;
+	private SQLiteDatabase legacyDB;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+		db = handler.getWritableDatabase();
+
+		legacyDB = SQLiteDatabase.create(null);
+		legacyDB.execSQL("CREATE TABLE lists (_id INTEGER PRIMARY KEY, title TEXT,"
+				+ " deleted INTEGER DEFAULT 0)");
+		legacyDB.execSQL("CREATE TABLE gtasklists (_id INTEGER PRIMARY KEY, dbid INTEGER,"
+				+ " googleid TEXT, googleaccount TEXT)");
+		legacyDB.execSQL("CREATE TABLE notes (_id INTEGER PRIMARY KEY, title TEXT, note TEXT,"
+				+ " duedate TEXT, gtaskstatus TEXT, list INTEGER, modified INTEGER,"
+				+ " deleted INTEGER DEFAULT 0, hiddenflag INTEGER DEFAULT 0,"
+				+ " possubsort TEXT DEFAULT '')");
+		legacyDB.execSQL("CREATE TABLE gtasks (_id INTEGER PRIMARY KEY, dbid INTEGER,"
+				+ " googleid TEXT, googleaccount TEXT)");
+		legacyDB.execSQL("CREATE TABLE notification (_id INTEGER PRIMARY KEY, time INTEGER,"
+				+ " noteid INTEGER)");
+
+		final ContentValues values = new ContentValues();
+		for (long list = 1; list <= 3; list++) {
+			values.clear();
+			values.put(NotePad.Lists.COLUMN_NAME_TITLE, "list" + list);
+			// The third one was deleted
+			values.put(NotePad.Lists.COLUMN_NAME_DELETED, list == 3 ? 1 : 0);
+			legacyDB.insert(NotePad.Lists.TABLE_NAME, null, values);
+		}
+		values.clear();
+		values.put(NotePad.GTaskLists.COLUMN_NAME_DB_ID, 1);
+		values.put(NotePad.GTaskLists.COLUMN_NAME_GTASKS_ID, "remotelist");
+		values.put(NotePad.GTaskLists.COLUMN_NAME_GOOGLE_ACCOUNT, "fake@account.com");
+		legacyDB.insert(NotePad.GTaskLists.TABLE_NAME, null, values);
+
+		legacyDB.beginTransaction();
+		for (int i = 1; i <= NOTES; i++) {
+			values.clear();
+			values.put(NotePad.Notes.COLUMN_NAME_TITLE, "note" + i);
+			values.put(NotePad.Notes.COLUMN_NAME_NOTE, i == 1 ? "[locked]secret" : "text" + i);
+			values.put(NotePad.Notes.COLUMN_NAME_DUE_DATE, i == 1 ? DUE : "");
+			values.put(NotePad.Notes.COLUMN_NAME_GTASKS_STATUS,
+					i % 2 == 0 ? "completed" : "needsAction");
+			// The notes of list 3 are left behind with it
+			values.put(NotePad.Notes.COLUMN_NAME_LIST, 1 + i % 3);
+			values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, 1000L * i);
+			values.put(NotePad.Notes.COLUMN_NAME_HIDDEN, i == 4 ? 1 : 0);
+			legacyDB.insert(NotePad.Notes.TABLE_NAME, null, values);
+
+			values.clear();
+			values.put(NotePad.Notifications.COLUMN_NAME_NOTEID, i);
+			values.put(NotePad.Notifications.COLUMN_NAME_TIME, 1000L * i);
+			legacyDB.insert(NotePad.Notifications.TABLE_NAME, null, values);
+		}
+		values.clear();
+		values.put(NotePad.GTasks.COLUMN_NAME_DB_ID, 3);
+		values.put(NotePad.GTasks.COLUMN_NAME_GTASKS_ID, "remotetask");
+		values.put(NotePad.GTasks.COLUMN_NAME_GOOGLE_ACCOUNT, "fake@account.com");
+		legacyDB.insert(NotePad.GTasks.TABLE_NAME, null, values);
+		legacyDB.setTransactionSuccessful();
+		legacyDB.endTransaction();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		legacyDB.close();
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private long count(final String sql) {
+		return DatabaseUtils.longForQuery(db, sql, null);
+	}
+
+	// Notes in lists 1 and 2, less the hidden one
+	private long expectedTasks() {
+		return DatabaseUtils.longForQuery(legacyDB, "SELECT COUNT(*) FROM notes"
+				+ " WHERE list != 3 AND hiddenflag = 0", null);
+	}
+
+	@MediumTest
+	public void testMigrate() {
+		final long lists = count("SELECT COUNT(*) FROM " + TaskList.TABLE_NAME);
+		final long triggers = count("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger'");
+
+		assertEquals(expectedTasks(),
+				LegacyMigrator.migrate(db, LegacyMigrator.databaseSource(legacyDB), null));
+		assertFalse(LegacyMigrator.isPending(db));
+
+		assertEquals(lists + 2, count("SELECT COUNT(*) FROM " + TaskList.TABLE_NAME));
+		assertEquals(expectedTasks(), count("SELECT COUNT(*) FROM " + Task.TABLE_NAME));
+		assertEquals(triggers, count("SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger'"));
+
+		// What the triggers would have done
+		assertEquals(expectedTasks(), count("SELECT COUNT(*) FROM " + Task.HISTORY_TABLE_NAME));
+		assertEquals(expectedTasks(), count("SELECT COUNT(*) FROM " + Task.FTS_TABLE_NAME
+				+ " WHERE " + Task.FTS_TABLE_NAME + " MATCH 'note*'"));
+		assertEquals(count("SELECT COUNT(*) FROM " + Task.TABLE_NAME + " WHERE "
+						+ Task.Columns.COMPLETED + " IS NULL"),
+				count("SELECT SUM(" + TaskList.Columns.OPEN_COUNT + ") FROM "
+						+ TaskList.TABLE_NAME));
+		assertEquals(0, count("SELECT COUNT(*) FROM " + Task.TABLE_NAME + " WHERE "
+				+ Task.Columns.PREVIEW + " IS NOT substr(" + Task.Columns.NOTE + ", 1, "
+				+ Task.PREVIEW_LENGTH + ")"));
+		// Newest first in every list, no two tasks in the same place
+		assertEquals(0, count("SELECT COUNT(*) FROM " + Task.TABLE_NAME + " a JOIN "
+				+ Task.TABLE_NAME + " b ON a." + Task.Columns.DBLIST + " = b."
+				+ Task.Columns.DBLIST + " AND a." + Task.Columns._ID + " < b."
+				+ Task.Columns._ID + " WHERE a." + Task.Columns.LEFT + " <= b."
+				+ Task.Columns.LEFT));
+
+		try (Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns.NOTE,
+						Task.Columns.LOCKED, Task.Columns.DUE, Task.Columns.COMPLETED },
+				Task.Columns.TITLE + " IS 'note1'", null, null, null, null)) {
+			assertTrue(c.moveToFirst());
+			assertEquals("secret", c.getString(0));
+			assertEquals(1, c.getInt(1));
+			assertEquals(RFC3339Date.parseRFC3339Date(DUE).getTime(), c.getLong(2));
+			assertTrue(c.isNull(3));
+		}
+		assertEquals(1, count("SELECT COUNT(*) FROM " + Task.TABLE_NAME + " WHERE "
+				+ Task.Columns.DUE + " IS NOT NULL"));
+
+		assertEquals(expectedTasks(), count("SELECT COUNT(*) FROM " + Notification.TABLE_NAME));
+		assertEquals(1, count("SELECT COUNT(*) FROM " + RemoteTask.TABLE_NAME));
+
+		// The triggers are back
+		final long listId = count("SELECT MAX(" + TaskList.Columns._ID + ") FROM "
+				+ TaskList.TABLE_NAME);
+		final long top = count("SELECT MIN(" + Task.Columns.LEFT + ") FROM " + Task.TABLE_NAME
+				+ " WHERE " + Task.Columns.DBLIST + " IS " + listId);
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.TITLE, "new");
+		values.put(Task.Columns.DBLIST, listId);
+		final long id = db.insert(Task.TABLE_NAME, null, values);
+		assertTrue(count("SELECT " + Task.Columns.LEFT + " FROM " + Task.TABLE_NAME
+				+ " WHERE " + Task.Columns._ID + " IS " + id) < top);
+		assertEquals(expectedTasks() + 1,
+				count("SELECT COUNT(*) FROM " + Task.HISTORY_TABLE_NAME));
+	}
+
+	@MediumTest
+	public void testPossubsort() {
+		// Every fifth note was sorted, oldest first, below the unsorted ones
+		legacyDB.execSQL("UPDATE notes SET possubsort = printf('%05d', _id) WHERE _id % 5 = 0");
+
+		assertEquals(expectedTasks(),
+				LegacyMigrator.migrate(db, LegacyMigrator.databaseSource(legacyDB), null));
+
+		// Task ids are the legacy ids, the database had no tasks. No two
+		// tasks of a list in another order than the legacy app showed them
+		assertEquals(0, count("SELECT COUNT(*) FROM " + Task.TABLE_NAME + " a JOIN "
+				+ Task.TABLE_NAME + " b ON a." + Task.Columns.DBLIST + " = b."
+				+ Task.Columns.DBLIST + " AND a." + Task.Columns.LEFT + " < b."
+				+ Task.Columns.LEFT + " WHERE NOT ((a." + Task.Columns._ID + " % 5 = 0) < (b."
+				+ Task.Columns._ID + " % 5 = 0) OR ((a." + Task.Columns._ID + " % 5 = 0) = (b."
+				+ Task.Columns._ID + " % 5 = 0) AND CASE WHEN a." + Task.Columns._ID
+				+ " % 5 = 0 THEN a." + Task.Columns._ID + " < b." + Task.Columns._ID
+				+ " ELSE a." + Task.Columns._ID + " > b." + Task.Columns._ID + " END))"));
+	}
+
+	@MediumTest
+	public void testResume() {
+		try {
+			LegacyMigrator.migrate(db, LegacyMigrator.databaseSource(legacyDB),
+					(done, total) -> {
+						// Interrupted after the first chunk of notes
+						if (done > LegacyMigrator.CHUNK) {
+							throw new IllegalStateException("interrupted");
+						}
+					});
+			fail("Should have been interrupted");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(LegacyMigrator.isPending(db));
+		assertEquals(0, count("SELECT COUNT(*) FROM " + Task.TABLE_NAME));
+
+		final int[] first = new int[] { -1 };
+		assertEquals(expectedTasks(), LegacyMigrator.migrate(db,
+				LegacyMigrator.databaseSource(legacyDB), (done, total) -> {
+					if (first[0] < 0) first[0] = done;
+				}));
+		// Staged rows were not copied again
+		assertTrue(first[0] > LegacyMigrator.CHUNK);
+		assertFalse(LegacyMigrator.isPending(db));
+		assertEquals(expectedTasks(), count("SELECT COUNT(*) FROM " + Task.TABLE_NAME));
+	}
+}
@@ -0,0 +1,126 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the vacuum, statistics and search index merges of the maintenance
+ * job.
+ */
+public class DBMaintenanceTest extends TestCase {
+
+	static final String PREFIX = "maintenance_test_";
+	static final int TASKS = 1000;
+	static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private Context context;
+	private DatabaseHandler handler;
+	private SQLiteDatabase db;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+		db = handler.getWritableDatabase();
+
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		final long listId = db.insert(TaskList.TABLE_NAME, null, values);
+		final StringBuilder note = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			note.append("a longer note, to fill some pages ");
+		}
+		// One by one, so the search index gets many segments
+		for (int i = 0; i < TASKS; i++) {
+			values.clear();
+			values.put(Task.Columns.TITLE, "task " + i);
+			values.put(Task.Columns.NOTE, note.toString() + i);
+			values.put(Task.Columns.DBLIST, listId);
+			db.insert(Task.TABLE_NAME, null, values);
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private long pragma(final String name) {
+		return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+	}
+
+	private void deleteEverything() {
+		db.delete(Task.TABLE_NAME, null, null);
+		db.delete(Task.DELETE_TABLE_NAME, null, null);
+		db.delete(Task.HISTORY_TABLE_NAME, null, null);
+		assertTrue(pragma("freelist_count") > 0);
+	}
+
+	@MediumTest
+	public void testIncrementalVacuum() {
+		// New databases are created that way
+		assertEquals(2, pragma("auto_vacuum"));
+		deleteEverything();
+		final long free = pragma("freelist_count");
+		final long size = DatabaseHandler.getFileSize(db);
+
+		assertEquals(free, DatabaseHandler.incrementalVacuum(db, NO_DEADLINE, null));
+		assertEquals(0, pragma("freelist_count"));
+		assertTrue(DatabaseHandler.getFileSize(db) < size);
+	}
+
+	@MediumTest
+	public void testIncrementalVacuumDeadline() {
+		deleteEverything();
+		final long free = pragma("freelist_count");
+		assertEquals(0, DatabaseHandler.incrementalVacuum(db,
+				SystemClock.elapsedRealtime() - 1, null));
+		assertEquals(free, pragma("freelist_count"));
+	}
+
+	@MediumTest
+	public void testConvertToIncrementalVacuum() {
+		// Like a database from an older version
+		db.execSQL("PRAGMA auto_vacuum = NONE");
+		db.execSQL("VACUUM");
+		assertEquals(0, pragma("auto_vacuum"));
+		deleteEverything();
+
+		DatabaseHandler.incrementalVacuum(db, NO_DEADLINE, null);
+		assertEquals(2, pragma("auto_vacuum"));
+		assertEquals(0, pragma("freelist_count"));
+	}
+
+	@MediumTest
+	public void testOptimize() {
+		DatabaseHandler.optimize(db);
+		assertTrue(DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_stat1", null) > 0);
+		// Again, with the statistics there
+		DatabaseHandler.optimize(db);
+	}
+
+	@MediumTest
+	public void testMergeFts() {
+		assertTrue(DatabaseHandler.mergeFts(db, Task.FTS_TABLE_NAME, NO_DEADLINE, null) > 0);
+		// Nothing left to merge
+		assertEquals(0, DatabaseHandler.mergeFts(db, Task.FTS_TABLE_NAME, NO_DEADLINE, null));
+		assertEquals(TASKS, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+				+ Task.FTS_TABLE_NAME + " WHERE " + Task.FTS_TABLE_NAME + " MATCH 'longer'",
+				null));
+	}
+}
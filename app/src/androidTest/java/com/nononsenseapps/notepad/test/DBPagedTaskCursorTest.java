@@ -0,0 +1,107 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.PagedTaskCursor;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a list read in pages has the same rows, in the same order, as
+ * the list read in one go.
+ */
+public class DBPagedTaskCursorTest extends TestCase {
+
+	static final String PREFIX = "paged_test_";
+	static final int TASKS = 5 * PagedTaskCursor.PAGE_SIZE + 7;
+
+	private Context context;
+	private DatabaseHandler handler;
+	private String[] whereArgs;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		final long listId = db.insert(TaskList.TABLE_NAME, null, values);
+		whereArgs = new String[] { Long.toString(listId) };
+		final StringBuilder note = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			note.append("a long note ");
+		}
+		for (int i = 0; i < TASKS; i++) {
+			values.clear();
+			// Equal titles and some without a title, across page ends
+			if (i % 10 != 0) {
+				values.put(Task.Columns.TITLE, (i % 3 == 0 ? "Task " : "task ") + (i % 17));
+			}
+			values.put(Task.Columns.NOTE, note.toString());
+			values.put(Task.Columns.DBLIST, listId);
+			db.insert(Task.TABLE_NAME, null, values);
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private void assertSameOrder(final String sortOrder) {
+		final SQLiteDatabase db = handler.getReadableDatabase();
+		final String where = Task.Columns.DBLIST + " IS ?";
+		try (Cursor all = db.query(Task.TABLE_NAME, Task.Columns.FIELDS, where, whereArgs,
+				null, null, sortOrder + ", " + Task.Columns._ID
+						+ (sortOrder.endsWith("DESC") ? " DESC" : ""));
+			 Cursor paged = PagedTaskCursor.query(db, Task.Columns.FIELDS, where, whereArgs,
+					 sortOrder, 20)) {
+			assertNotNull(paged);
+			assertEquals(TASKS, paged.getCount());
+			assertEquals(all.getCount(), paged.getCount());
+			while (all.moveToNext()) {
+				assertTrue(paged.moveToNext());
+				assertEquals(sortOrder + " differs at " + all.getPosition(),
+						all.getLong(0), paged.getLong(0));
+				assertEquals(all.getString(1), paged.getString(1));
+				assertEquals(20, paged.getString(2).length());
+			}
+			assertFalse(paged.moveToNext());
+
+			// Backwards, and jumps to pages not read yet
+			assertTrue(paged.moveToPosition(TASKS - 1));
+			assertTrue(all.moveToPosition(TASKS - 1));
+			assertEquals(all.getLong(0), paged.getLong(0));
+			assertTrue(paged.moveToPosition(PagedTaskCursor.PAGE_SIZE + 3));
+			assertTrue(all.moveToPosition(PagedTaskCursor.PAGE_SIZE + 3));
+			assertEquals(all.getLong(0), paged.getLong(0));
+		}
+	}
+
+	@MediumTest
+	public void testPagedOrder() {
+		assertSameOrder(Task.Columns.LEFT);
+		assertSameOrder(Task.Columns.TITLE + " COLLATE NOCASE");
+		assertSameOrder(Task.Columns.UPDATED + " DESC");
+	}
+
+	@MediumTest
+	public void testOnlySimpleOrders() {
+		assertNull(PagedTaskCursor.query(handler.getReadableDatabase(), Task.Columns.FIELDS,
+				null, null, Task.Columns.DUE + ", " + Task.Columns.TITLE, 20));
+	}
+}
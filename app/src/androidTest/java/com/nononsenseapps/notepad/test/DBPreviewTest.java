@@ -0,0 +1,136 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the preview is the start of the note, whichever way the note
+ * got there.
+ */
+public class DBPreviewTest extends TestCase {
+
+	static final String PREFIX = "preview_test_";
+
+	private Context context;
+	private DatabaseHandler handler;
+	private long listId;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		listId = handler.getWritableDatabase().insert(TaskList.TABLE_NAME, null, values);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	/**
+	 * @return a note of about the given length, emoji included
+	 */
+	private static String note(final int length) {
+		final StringBuilder note = new StringBuilder();
+		while (note.length() < length) {
+			note.append("line ").append(note.length()).append(" 😀\n");
+		}
+		return note.toString();
+	}
+
+	private long insert(final String note) {
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.TITLE, "task");
+		values.put(Task.Columns.NOTE, note);
+		values.put(Task.Columns.DBLIST, listId);
+		return handler.getWritableDatabase().insert(Task.TABLE_NAME, null, values);
+	}
+
+	private void assertPreviews(final int count) {
+		final SQLiteDatabase db = handler.getReadableDatabase();
+		assertEquals(count, DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME));
+		assertEquals("Previews differ from the notes", count,
+				DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME, String.format(
+						"%1$s IS substr(%2$s, 1, %3$d)", Task.Columns.PREVIEW,
+						Task.Columns.NOTE, Task.PREVIEW_LENGTH)));
+	}
+
+	@MediumTest
+	public void testInsertAndUpdate() {
+		final long emptyTask = insert("");
+		final long shortTask = insert(note(10));
+		final long longTask = insert(note(3 * Task.PREVIEW_LENGTH));
+		assertPreviews(3);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.NOTE, note(2 * Task.PREVIEW_LENGTH));
+		db.update(Task.TABLE_NAME, values, Task.Columns._ID + " IS ?",
+				new String[] { Long.toString(emptyTask) });
+		values.put(Task.Columns.NOTE, "");
+		db.update(Task.TABLE_NAME, values, Task.Columns._ID + " IS ?",
+				new String[] { Long.toString(longTask) });
+		// Not the note, the preview stays
+		values.clear();
+		values.put(Task.Columns.TITLE, "renamed");
+		db.update(Task.TABLE_NAME, values, Task.Columns._ID + " IS ?",
+				new String[] { Long.toString(shortTask) });
+		assertPreviews(3);
+	}
+
+	@MediumTest
+	public void testUpgradeFillsPreviews() {
+		insert("");
+		insert(note(10));
+		insert(note(3 * Task.PREVIEW_LENGTH));
+
+		// Back to version 23, before there were previews
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final List<String> columns = new ArrayList<>();
+		try (Cursor c = db.rawQuery("PRAGMA table_info(" + Task.TABLE_NAME + ")", null)) {
+			final int name = c.getColumnIndexOrThrow("name");
+			while (c.moveToNext()) {
+				if (!Task.Columns.PREVIEW.equals(c.getString(name))) {
+					columns.add(c.getString(name));
+				}
+			}
+		}
+		db.setForeignKeyConstraintsEnabled(false);
+		db.beginTransaction();
+		try {
+			db.execSQL("CREATE TABLE old_task AS SELECT " + String.join(",", columns)
+					+ " FROM " + Task.TABLE_NAME);
+			db.execSQL("DROP TABLE " + Task.TABLE_NAME);
+			db.execSQL("ALTER TABLE old_task RENAME TO " + Task.TABLE_NAME);
+			db.setVersion(23);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		handler.close();
+
+		handler = new DatabaseHandler(context, PREFIX);
+		assertPreviews(3);
+	}
+}
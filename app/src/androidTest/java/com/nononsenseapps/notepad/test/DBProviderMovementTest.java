@@ -67,54 +67,29 @@ public class DBProviderMovementTest extends TestCase {
 	}
 
 	private void assertTaskLeftRightAreSequential(final long listId) {
-		// Get ordered
+		// Get ordered. Positions are sparse, but must still be ordered and
+		// unique, with every task one wide
 		ArrayList<Task> tasks = getTasks(listId);
+		HashSet<Long> positions = new HashSet<Long>();
 		long prev = 0;
 		for (Task t : tasks) {
-			assertTrue("Left must be less than right! " + t.left + " !< "
-					+ t.right, t.left < t.right);
-			assertTrue("Previous item must have smaller left",
-					prev < (long) t.left);
-			if (t.right == t.left + 1) {
-				prev = t.right;
-			} else {
-				prev = t.left;
-			}
-		}
-
-		// Test maximum value
-		Cursor c = resolver.query(Task.URI, Task.Columns.FIELDS,
-				Task.Columns.DBLIST + " IS ?",
-				new String[] { Long.toString(listId) }, Task.Columns.RIGHT
-						+ " DESC");
-		assertCursorGood(c);
-		HashSet<Long> positions = new HashSet<Long>();
-		if (c.getCount() > 0) {
-			// Right most will be twice the number of tasks
-			assertTrue(c.moveToFirst());
-			final Task last = new Task(c);
-
-			assertTrue(String.format("%d != 2 * %d", last.right, c.getCount()),
-					last.right == 2 * c.getCount());
-
-			// Make sure there are no duplicates and such
-			for (long i = 1; i <= c.getCount() * 2; i++) {
-				positions.add(i);
-			}
+			assertEquals("Width should be 1: " + t.left + ", " + t.right, 1,
+					t.right - t.left);
+			assertTrue("Previous item must have smaller left", prev < (long) t.left);
+			prev = t.right;
 
-			positions.remove(last.left);
-			positions.remove(last.right);
+			assertTrue("Duplicate position " + t.left, positions.add(t.left));
+			assertTrue("Duplicate position " + t.right, positions.add(t.right));
+		}
+	}
 
-			while (c.moveToNext()) {
-				Task task = new Task(c);
-				positions.remove(task.left);
-				positions.remove(task.right);
+	private int indexOf(final ArrayList<Task> tasks, final long id) {
+		for (int i = 0; i < tasks.size(); i++) {
+			if (tasks.get(i)._id == id) {
+				return i;
 			}
 		}
-		c.close();
-
-		assertEquals("Must be duplicate positions in the list", 0,
-				positions.size());
+		return -1;
 	}
 
 	private TaskList insertList() {
@@ -266,17 +241,27 @@ public class DBProviderMovementTest extends TestCase {
 
 		assertNotNull("Couldnt find the moved task", newone);
 
-		if (targetTask.left < movingTask.left) {
-			assertEquals("Left value does not equal target", targetTask.left,
-					newone.left);
-			assertEquals("Right value does not equal target left + 1",
-					targetTask.left + 1, (long) newone.right);
-		} else if (targetTask.right > movingTask.right) {
-			assertEquals("Left value does not equal target right - 1",
-					targetTask.right - 1, (long) newone.left);
-			assertEquals("Right value does not equal target", targetTask.right,
-					newone.right);
+		// The moved task takes the place of the target, which makes room for
+		// it in the direction the task came from
+		assertEquals("Task did not end up where the target was", toPos,
+				indexOf(newtasks, movingTask._id));
+		if (fromPos != toPos) {
+			assertEquals("Target should have moved one step",
+					fromPos < toPos ? toPos - 1 : toPos + 1,
+					indexOf(newtasks, targetTask._id));
+		}
+
+		// Only the moved task gets a new position, unless the list was
+		// renumbered
+		int changed = 0;
+		for (Task t : newtasks) {
+			final Task old = oldtasks.get(indexOf(oldtasks, t._id));
+			if (!old.left.equals(t.left)) {
+				changed++;
+			}
 		}
+		assertTrue("Moving a task should not touch other tasks",
+				changed == 1 || changed == newtasks.size());
 
 		assertEquals("Width should be 1 after a move", 1, newone.right
 				- newone.left);
@@ -460,6 +445,65 @@ public class DBProviderMovementTest extends TestCase {
 		deleteList(tl2);
 	}
 
+	public void testInsertWritesOnlyNewTask() {
+		final TaskList tl = insertList();
+		insertTasks(tl._id, 50);
+		final ArrayList<Task> before = getTasks(tl._id);
+
+		// One more at the top leaves the positions of all others alone
+		final Task t = new Task();
+		t.title = "Top";
+		t.dblist = tl._id;
+		assertNotNull(resolver.insert(Task.URI, t.getContent()));
+		assertTaskLeftRightAreSequential(tl._id);
+		final ArrayList<Task> after = getTasks(tl._id);
+		assertEquals(before.size() + 1, after.size());
+		assertEquals("New task should be at the top", "Top", after.get(0).title);
+		for (Task old : before) {
+			final Task now = after.get(indexOf(after, old._id));
+			assertEquals(old.left, now.left);
+			assertEquals(old.right, now.right);
+		}
+
+		deleteList(tl);
+	}
+
+	public void testMoveTasks() {
+		final TaskList tl = insertList();
+		final TaskList tl2 = insertList();
+		insertTasks(tl._id, 10);
+		insertTasks(tl2._id, 10);
+
+		// Several tasks to the top of another list, in one call
+		final ArrayList<Task> tasks1 = getTasks(tl._id);
+		final long[] moving = new long[] { tasks1.get(2)._id, tasks1.get(5)._id,
+				tasks1.get(7)._id };
+		assertEquals(3, Task.moveTasks(resolver, moving, tl2._id));
+
+		assertTasksCountIs(tl._id, 7);
+		assertTaskLeftRightAreSequential(tl._id);
+		assertTaskLeftRightAreSequential(tl2._id);
+		ArrayList<Task> tasks2 = getTasks(tl2._id);
+		for (int i = 0; i < moving.length; i++) {
+			assertEquals("Moved tasks should keep their order", moving[i],
+					(long) tasks2.get(i)._id);
+		}
+
+		// Then after a task in the same list
+		final Task target = tasks2.get(8);
+		assertEquals(3, Task.moveTasks(resolver, moving, target, true));
+		assertTaskLeftRightAreSequential(tl2._id);
+		tasks2 = getTasks(tl2._id);
+		final int targetIndex = indexOf(tasks2, target._id);
+		for (int i = 0; i < moving.length; i++) {
+			assertEquals("Moved tasks should follow the target", moving[i],
+					(long) tasks2.get(targetIndex + 1 + i)._id);
+		}
+
+		deleteList(tl);
+		deleteList(tl2);
+	}
+
 //	public void testIndents() {
 //		final TaskList tl = insertList();
 //		int count = 7;
@@ -1,7 +1,11 @@
 package com.nononsenseapps.notepad.test;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.SystemClock;
@@ -11,7 +15,12 @@ import androidx.test.filters.MediumTest;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.helpers.RFC3339Date;
 import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
+import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.QueryCache;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 
@@ -20,6 +29,7 @@ import junit.framework.TestCase;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DBProviderTest extends TestCase {
 
@@ -132,14 +142,6 @@ public class DBProviderTest extends TestCase {
 						+ " IS ?", new String[] { Long.toString(t._id) },
 				histCount + 1);
 
-		// TODO remember legacy uris
-		// TODO need a projection mapper
-		// assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI,
-		// new String[] { LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE });
-		// assertUriReturnsResult(
-		// LegacyDBHelper.NotePad.Notes.CONTENT_VISIBLE_URI,
-		// new String[] { LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE });
-
 		list.delete(mContext);
 
 		// Should return insert NOTHING since it should have been deleted
@@ -147,4 +149,289 @@ public class DBProviderTest extends TestCase {
 				Task.Columns.HISTORY_COLUMNS, Task.Columns.HIST_TASK_ID
 						+ " IS ?", new String[] { Long.toString(t._id) }, 0);
 	}
+
+	private long getOpenCount(final TaskList list) {
+		try (Cursor c = mResolver.query(TaskList.URI,
+				new String[] { TaskList.Columns.OPEN_COUNT }, TaskList.Columns._ID + " IS ?",
+				new String[] { Long.toString(list._id) }, null)) {
+			assertTrue(c.moveToFirst());
+			return c.getLong(0);
+		}
+	}
+
+	@MediumTest
+	public void testCompleteManyTasks() {
+		final TaskList list = getNewList();
+		// More ids than are bound in one statement
+		final int taskCount = 1200;
+		final ContentValues[] values = new ContentValues[taskCount];
+		for (int i = 0; i < taskCount; i++) {
+			values[i] = new ContentValues();
+			values[i].put(Task.Columns.TITLE, "testTask" + i);
+			values[i].put(Task.Columns.DBLIST, list._id);
+		}
+		assertEquals(taskCount, mResolver.bulkInsert(Task.URI, values));
+
+		final Long[] ids = new Long[taskCount];
+		try (Cursor c = mResolver.query(Task.URI, new String[] { Task.Columns._ID },
+				Task.Columns.DBLIST + " IS ?", new String[] { Long.toString(list._id) },
+				null)) {
+			assertEquals(taskCount, c.getCount());
+			while (c.moveToNext()) {
+				ids[c.getPosition()] = c.getLong(0);
+			}
+		}
+		assertEquals(taskCount, getOpenCount(list));
+
+		assertEquals(taskCount, Task.setCompletedSynced(mContext, true, ids));
+		assertEquals(0, getOpenCount(list));
+		// Already completed
+		assertEquals(0, Task.setCompletedSynced(mContext, true, ids));
+
+		assertEquals(taskCount, Task.setCompletedSynced(mContext, false, ids));
+		assertEquals(taskCount, getOpenCount(list));
+
+		list.delete(mContext);
+	}
+
+	private long getCacheStat(final String column) {
+		try (Cursor c = mResolver.query(QueryCache.URI_STATS, null, null, null, null)) {
+			assertTrue(c.moveToFirst());
+			return c.getLong(c.getColumnIndexOrThrow(column));
+		}
+	}
+
+	@MediumTest
+	public void testQueryCache() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 3);
+		final String where = Task.Columns.DBLIST + " IS ?";
+		final String[] whereArgs = new String[] { Long.toString(list._id) };
+
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS, where, whereArgs, 3);
+		// The same query again is answered from the cache
+		long hits = getCacheStat(QueryCache.COL_HITS);
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS, where, whereArgs, 3);
+		assertTrue(getCacheStat(QueryCache.COL_HITS) > hits);
+
+		// Writing to another table keeps it
+		final ContentValues values = new ContentValues();
+		values.put(Notification.Columns.TASKID, tasks.get(0)._id);
+		values.put(Notification.Columns.TIME, 1000L);
+		assertNotNull(mResolver.insert(Notification.URI, values));
+		hits = getCacheStat(QueryCache.COL_HITS);
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS, where, whereArgs, 3);
+		assertTrue(getCacheStat(QueryCache.COL_HITS) > hits);
+
+		// Writing to the tasks outdates it
+		final long stale = getCacheStat(QueryCache.COL_STALE);
+		insertSomeTasks(list, 1);
+		assertUriReturnsResult(Task.URI, Task.Columns.FIELDS, where, whereArgs, 4);
+		assertTrue(getCacheStat(QueryCache.COL_STALE) > stale);
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testLegacyNotesURIs() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 3);
+		tasks.get(1).due = null;
+		tasks.get(1).save(mContext);
+		tasks.get(2).completed = Calendar.getInstance().getTimeInMillis();
+		// An hour and a millisecond after the first
+		tasks.get(2).due = tasks.get(0).due + 60 * 60 * 1000L + 1;
+		tasks.get(2).save(mContext);
+
+		final String[] projection = { LegacyDBHelper.NotePad.Notes._ID,
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE,
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST,
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_DUE_DATE,
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_GTASKS_STATUS };
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_VISIBLE_URI, projection);
+
+		// Selections use the legacy names and values too
+		final String where = LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST + " IS ? AND "
+				+ LegacyDBHelper.NotePad.Notes.COLUMN_NAME_GTASKS_STATUS + " = 'needsAction' AND "
+				+ LegacyDBHelper.NotePad.Notes.COLUMN_NAME_DELETED + " IS NOT 1";
+		final String firstDue;
+		try (Cursor c = mResolver.query(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				where, new String[] { Long.toString(list._id) },
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE)) {
+			assertEquals(2, c.getCount());
+			final int due = c.getColumnIndexOrThrow(
+					LegacyDBHelper.NotePad.Notes.COLUMN_NAME_DUE_DATE);
+			final int status = c.getColumnIndexOrThrow(
+					LegacyDBHelper.NotePad.Notes.COLUMN_NAME_GTASKS_STATUS);
+			assertEquals(LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST, c.getColumnName(2));
+
+			assertTrue(c.moveToNext());
+			assertEquals(tasks.get(0).title, c.getString(1));
+			assertEquals(list._id, c.getLong(2));
+			firstDue = c.getString(due);
+			assertTrue(firstDue.endsWith("Z"));
+			assertEquals(tasks.get(0).due.longValue(),
+					RFC3339Date.parseRFC3339Date(firstDue).getTime());
+			assertEquals("needsAction", c.getString(status));
+
+			assertTrue(c.moveToNext());
+			assertEquals(tasks.get(1).title, c.getString(1));
+			assertFalse(c.isNull(due));
+			assertEquals("", c.getString(due));
+		}
+
+		final String lastDue;
+		try (Cursor c = mResolver.query(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST + " IS ? AND "
+						+ LegacyDBHelper.NotePad.Notes.COLUMN_NAME_GTASKS_STATUS + " = 'completed'",
+				new String[] { Long.toString(list._id) }, null)) {
+			assertEquals(1, c.getCount());
+			assertTrue(c.moveToFirst());
+			assertEquals("completed", c.getString(4));
+			lastDue = c.getString(3);
+		}
+
+		// Due dates read from the cursor select the same tasks, no date is
+		// the empty string
+		final String byDue = LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST + " IS ? AND "
+				+ LegacyDBHelper.NotePad.Notes.COLUMN_NAME_DUE_DATE;
+		final String listId = Long.toString(list._id);
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				byDue + " IS ''", new String[] { listId }, 1);
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				byDue + " = ?", new String[] { listId, firstDue }, 1);
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				byDue + " = ?", new String[] { listId, lastDue }, 1);
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				byDue + " > ?", new String[] { listId, firstDue }, 1);
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				byDue + " > ?", new String[] { listId, lastDue }, 0);
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI, projection,
+				byDue + " BETWEEN ? AND ?", new String[] { listId, firstDue, lastDue }, 2);
+
+		list.delete(mContext);
+	}
+
+	private ContentValues newTaskValues(final long listId, final String title) {
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.TITLE, title);
+		values.put(Task.Columns.DBLIST, listId);
+		return values;
+	}
+
+	private int getTaskCount(final TaskList list) {
+		try (Cursor c = mResolver.query(Task.URI, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(list._id) }, null)) {
+			return c.getCount();
+		}
+	}
+
+	/**
+	 * Counts the notifications of exactly this uri
+	 */
+	private static class CountingObserver extends ContentObserver {
+		final AtomicInteger count = new AtomicInteger();
+
+		CountingObserver() {
+			super(null);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			count.incrementAndGet();
+		}
+	}
+
+	@MediumTest
+	public void testBulkInsertRollsBack() {
+		final TaskList list = getNewList();
+		final ContentValues[] values = new ContentValues[] {
+				newTaskValues(list._id, "bulk0"),
+				newTaskValues(list._id, "bulk1"),
+				// No such list
+				newTaskValues(-1, "bulk2"),
+				newTaskValues(list._id, "bulk3") };
+
+		assertEquals(0, mResolver.bulkInsert(Task.URI, values));
+		assertEquals(0, getTaskCount(list));
+
+		// Without the faulty row, all are inserted
+		final ContentValues[] valid = new ContentValues[] { values[0], values[1], values[3] };
+		assertEquals(3, mResolver.bulkInsert(Task.URI, valid));
+		assertEquals(3, getTaskCount(list));
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testApplyBatchRollsBack() throws Exception {
+		final TaskList list = getNewList();
+		final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+		operations.add(ContentProviderOperation.newInsert(Task.URI)
+				.withValues(newTaskValues(list._id, "batch0")).build());
+		operations.add(ContentProviderOperation.newInsert(Task.URI)
+				.withValues(newTaskValues(list._id, "batch1")).build());
+		// No such list
+		operations.add(ContentProviderOperation.newInsert(Task.URI)
+				.withValues(newTaskValues(-1, "batch2")).build());
+
+		try {
+			mResolver.applyBatch(MyContentProvider.AUTHORITY, operations);
+			fail("A failed insert must fail the batch");
+		} catch (OperationApplicationException e) {
+			// Expected
+		}
+		assertEquals(0, getTaskCount(list));
+
+		operations.remove(2);
+		assertEquals(2, mResolver.applyBatch(MyContentProvider.AUTHORITY, operations).length);
+		assertEquals(2, getTaskCount(list));
+
+		list.delete(mContext);
+	}
+
+	@MediumTest
+	public void testBatchNotifiesOnce() throws Exception {
+		final TaskList list = getNewList();
+		// Let the notification of the new list pass
+		SystemClock.sleep(500);
+
+		final CountingObserver observer = new CountingObserver();
+		mResolver.registerContentObserver(Task.URI, false, observer);
+		try {
+			final ContentValues[] values = new ContentValues[10];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = newTaskValues(list._id, "bulk" + i);
+			}
+			assertEquals(values.length, mResolver.bulkInsert(Task.URI, values));
+			SystemClock.sleep(500);
+			assertEquals(1, observer.count.get());
+
+			final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				operations.add(ContentProviderOperation.newInsert(Task.URI)
+						.withValues(newTaskValues(list._id, "batch" + i)).build());
+			}
+			mResolver.applyBatch(MyContentProvider.AUTHORITY, operations);
+			SystemClock.sleep(500);
+			assertEquals(2, observer.count.get());
+
+			// A failed batch notifies no one
+			operations.add(ContentProviderOperation.newInsert(Task.URI)
+					.withValues(newTaskValues(-1, "batch")).build());
+			try {
+				mResolver.applyBatch(MyContentProvider.AUTHORITY, operations);
+				fail("A failed insert must fail the batch");
+			} catch (OperationApplicationException e) {
+				// Expected
+			}
+			SystemClock.sleep(500);
+			assertEquals(2, observer.count.get());
+		} finally {
+			mResolver.unregisterContentObserver(observer);
+		}
+
+		list.delete(mContext);
+	}
 }
@@ -0,0 +1,206 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Compares the latency of the provider's view queries, when the views are
+ * temp views created before every read like they used to be, and when they
+ * are plain queries with the list id bound as an argument.
+ */
+public class DBQueryBenchmarkTest extends TestCase {
+
+	static final String PREFIX = "querybench_test_";
+	static final int LISTS = 10;
+	static final int TASKS = 100;
+	static final int ROUNDS = 200;
+
+	// What lists with count used to be, counting all tasks on every read
+	static final String OLD_COUNT_VIEW = "CREATE TEMP VIEW IF NOT EXISTS bench_count AS SELECT "
+			+ "tasklist._id, tasklist.title, count FROM tasklist LEFT JOIN "
+			+ "(SELECT COUNT(1) AS count, dblist FROM task WHERE completed IS NULL "
+			+ "GROUP BY dblist) ON tasklist._id = dblist";
+
+	private Context context;
+	private DatabaseHandler handler;
+	private final long[] listIds = new long[LISTS];
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		db.beginTransaction();
+		try {
+			for (int l = 0; l < LISTS; l++) {
+				values.clear();
+				values.put(TaskList.Columns.TITLE, "list" + l);
+				listIds[l] = db.insert(TaskList.TABLE_NAME, null, values);
+				for (int t = 0; t < TASKS; t++) {
+					values.clear();
+					values.put(Task.Columns.TITLE, "task" + t);
+					values.put(Task.Columns.DBLIST, listIds[l]);
+					values.put(Task.Columns.DUE, t % 2 == 0 ? null : 1000L * t);
+					final long taskId = db.insert(Task.TABLE_NAME, null, values);
+					if (t % 10 == 0) {
+						values.clear();
+						values.put(Notification.Columns.TASKID, taskId);
+						values.put(Notification.Columns.TIME, 1000L * t);
+						db.insert(Notification.TABLE_NAME, null, values);
+					}
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private static int readAll(final Cursor c) {
+		try {
+			int rows = 0;
+			while (c.moveToNext()) {
+				rows++;
+			}
+			return rows;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return median latency in microseconds
+	 */
+	private static long median(final long[] nanos) {
+		final long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / 1000;
+	}
+
+	private void report(final String name, final long[] before, final long[] after) {
+		Log.i("nononsenseapps test", name + " median, temp view: " + median(before)
+				+ " us, now: " + median(after) + " us");
+	}
+
+	@LargeTest
+	public void testListsWithCount() {
+		final SQLiteDatabase writable = handler.getWritableDatabase();
+		final SQLiteDatabase readable = handler.getReadableDatabase();
+		final long[] before = new long[ROUNDS];
+		final long[] after = new long[ROUNDS];
+		int oldRows = 0, newRows = 0;
+
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			writable.execSQL(OLD_COUNT_VIEW);
+			oldRows = readAll(writable.query("bench_count", null, null, null,
+					null, null, TaskList.Columns.TITLE));
+			before[i] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			newRows = readAll(readable.query(TaskList.TABLE_NAME,
+					new String[] { TaskList.Columns._ID, TaskList.Columns.TITLE,
+							TaskList.Columns.OPEN_COUNT }, null, null,
+					null, null, TaskList.Columns.TITLE));
+			after[i] = System.nanoTime() - start;
+		}
+
+		assertEquals(LISTS, oldRows);
+		assertEquals(oldRows, newRows);
+		report("lists with count", before, after);
+
+		// The maintained counts match a full count
+		try (Cursor c = readable.query(TaskList.TABLE_NAME,
+				new String[] { TaskList.Columns.OPEN_COUNT }, null, null, null, null, null)) {
+			while (c.moveToNext()) {
+				assertEquals(TASKS, c.getInt(0));
+			}
+		}
+	}
+
+	@LargeTest
+	public void testTasksOfList() {
+		final SQLiteDatabase writable = handler.getWritableDatabase();
+		final SQLiteDatabase readable = handler.getReadableDatabase();
+		final long[] before = new long[ROUNDS];
+		final long[] after = new long[ROUNDS];
+		int oldRows = 0, newRows = 0;
+
+		for (int i = 0; i < ROUNDS; i++) {
+			final long listId = listIds[i % LISTS];
+
+			// A view per list, with the id in the sql
+			long start = System.nanoTime();
+			writable.execSQL("CREATE TEMP VIEW IF NOT EXISTS bench_tasks_" + listId
+					+ " AS SELECT * FROM " + Task.TABLE_NAME + " WHERE "
+					+ Task.Columns.DBLIST + " IS " + listId);
+			oldRows = readAll(writable.query("bench_tasks_" + listId, Task.Columns.FIELDS,
+					null, null, null, null, Task.Columns.DUE));
+			before[i] = System.nanoTime() - start;
+
+			// The same sql every time, with the id bound
+			start = System.nanoTime();
+			newRows = readAll(readable.query(Task.TABLE_NAME, Task.Columns.FIELDS,
+					Task.Columns.DBLIST + " IS ?", new String[] { Long.toString(listId) },
+					null, null, Task.Columns.DUE));
+			after[i] = System.nanoTime() - start;
+		}
+
+		assertEquals(TASKS, oldRows);
+		assertEquals(oldRows, newRows);
+		report("tasks of list", before, after);
+	}
+
+	@LargeTest
+	public void testNotificationsWithTask() {
+		final SQLiteDatabase writable = handler.getWritableDatabase();
+		final SQLiteDatabase readable = handler.getReadableDatabase();
+		final long[] before = new long[ROUNDS];
+		final long[] after = new long[ROUNDS];
+		int oldRows = 0, newRows = 0;
+
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			writable.execSQL("CREATE TEMP VIEW IF NOT EXISTS bench_joined AS SELECT * FROM "
+					+ Notification.JOINED_VIEW);
+			oldRows = readAll(writable.query("bench_joined", null,
+					Notification.Columns.TIME + " > ?", new String[] { "0" },
+					null, null, Notification.Columns.TIME));
+			before[i] = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			newRows = readAll(readable.query(Notification.JOINED_VIEW, null,
+					Notification.Columns.TIME + " > ?", new String[] { "0" },
+					null, null, Notification.Columns.TIME));
+			after[i] = System.nanoTime() - start;
+		}
+
+		assertEquals(oldRows, newRows);
+		report("notifications with task", before, after);
+	}
+}
@@ -0,0 +1,128 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskSearch;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the search indexes follow the task tables, and the order of
+ * the results.
+ */
+public class DBSearchTest extends TestCase {
+
+	static final String PREFIX = "search_test_";
+
+	private Context context;
+	private DatabaseHandler handler;
+	private long listId;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		listId = handler.getWritableDatabase().insert(TaskList.TABLE_NAME, null, values);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private long insert(final String title, final String note) {
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.TITLE, title);
+		values.put(Task.Columns.NOTE, note);
+		values.put(Task.Columns.DBLIST, listId);
+		return handler.getWritableDatabase().insert(Task.TABLE_NAME, null, values);
+	}
+
+	private long[] search(final String ftsTable, final String table, final String match) {
+		try (Cursor c = TaskSearch.query(handler.getReadableDatabase(), ftsTable, table,
+				new String[] { Task.Columns._ID }, match, null, null, null)) {
+			final long[] ids = new long[c.getCount()];
+			while (c.moveToNext()) {
+				ids[c.getPosition()] = c.getLong(0);
+			}
+			return ids;
+		}
+	}
+
+	@MediumTest
+	public void testRanking() {
+		final long inNote = insert("shopping", "buy milk and bread");
+		final long inTitle = insert("milk", "from the store");
+		final long often = insert("groceries", "milk milk milk");
+		for (int i = 0; i < 20; i++) {
+			insert("filler " + i, "nothing to see");
+		}
+
+		final long[] ids = search(Task.FTS_TABLE_NAME, Task.TABLE_NAME, "mil*");
+		assertEquals(3, ids.length);
+		assertEquals(inTitle, ids[0]);
+		assertEquals(often, ids[1]);
+		assertEquals(inNote, ids[2]);
+	}
+
+	@MediumTest
+	public void testSnippet() {
+		final StringBuilder note = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			note.append("word").append(i).append(' ');
+		}
+		note.append("needle");
+		insert("title", note.toString());
+
+		try (Cursor c = TaskSearch.query(handler.getReadableDatabase(), Task.FTS_TABLE_NAME,
+				Task.TABLE_NAME, new String[] { TaskSearch.SNIPPET }, "needle", null, null,
+				null)) {
+			assertTrue(c.moveToFirst());
+			final List<int[]> highlights = new ArrayList<>();
+			final String text = TaskSearch.unmark(c.getString(0), highlights);
+			// An excerpt, not the whole note
+			assertTrue(text.length() < note.length() / 4);
+			assertEquals(1, highlights.size());
+			assertEquals("needle", text.substring(highlights.get(0)[0], highlights.get(0)[1]));
+		}
+	}
+
+	@MediumTest
+	public void testIndexFollowsTables() {
+		final long id = insert("first title", "a note");
+		assertEquals(1, search(Task.FTS_TABLE_NAME, Task.TABLE_NAME, "first").length);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.TITLE, "second title");
+		db.update(Task.TABLE_NAME, values, Task.Columns._ID + " IS ?",
+				new String[] { Long.toString(id) });
+		assertEquals(0, search(Task.FTS_TABLE_NAME, Task.TABLE_NAME, "first").length);
+		assertEquals(1, search(Task.FTS_TABLE_NAME, Task.TABLE_NAME, "second").length);
+
+		// Deleting moves it to the other index
+		db.delete(Task.TABLE_NAME, Task.Columns._ID + " IS ?",
+				new String[] { Long.toString(id) });
+		assertEquals(0, search(Task.FTS_TABLE_NAME, Task.TABLE_NAME, "second").length);
+		assertEquals(1,
+				search(Task.FTS_DELETE_TABLE_NAME, Task.DELETE_TABLE_NAME, "second").length);
+	}
+}
@@ -0,0 +1,175 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that every version of a task reads the same after the history has
+ * been compacted to deltas.
+ */
+public class DBTaskHistoryTest extends TestCase {
+
+	static final String PREFIX = "history_test_";
+	static final int VERSIONS = 40;
+
+	private Context context;
+	private DatabaseHandler handler;
+	private long taskId;
+	private final List<String> notes = new ArrayList<>();
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		handler = Helper.openFreshDatabase(context, PREFIX);
+
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final ContentValues values = new ContentValues();
+		values.put(TaskList.Columns.TITLE, "list");
+		final long listId = db.insert(TaskList.TABLE_NAME, null, values);
+
+		// Edits in different places, some long, some with emoji
+		StringBuilder note = new StringBuilder("A note 😀 to edit");
+		values.clear();
+		values.put(Task.Columns.TITLE, "task");
+		values.put(Task.Columns.NOTE, note.toString());
+		values.put(Task.Columns.DBLIST, listId);
+		taskId = db.insert(Task.TABLE_NAME, null, values);
+		notes.add(note.toString());
+		for (int i = 1; i < VERSIONS; i++) {
+			if (i % 3 == 0) {
+				note.insert(0, "line " + i + "\n");
+			} else if (i % 3 == 1) {
+				note.append("\nmore text, again and again and again ").append(i);
+			} else {
+				note.insert(note.length() / 2, "😁");
+			}
+			values.clear();
+			values.put(Task.Columns.NOTE, note.toString());
+			db.update(Task.TABLE_NAME, values, Task.Columns._ID + " IS ?",
+					new String[] { Long.toString(taskId) });
+			notes.add(note.toString());
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		handler.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	private void assertVersions(final int count) {
+		try (Cursor c = TaskHistory.query(handler.getReadableDatabase(),
+				Task.Columns.HISTORY_COLUMNS, Task.Columns.HIST_TASK_ID + " IS ?",
+				new String[] { Long.toString(taskId) })) {
+			assertEquals(count, c.getCount());
+			final int first = notes.size() - count;
+			while (c.moveToNext()) {
+				assertEquals("task", c.getString(1));
+				assertEquals("Version " + c.getPosition() + " differs",
+						notes.get(first + c.getPosition()), c.getString(2));
+			}
+		}
+	}
+
+	private int countDeltas() {
+		try (Cursor c = handler.getReadableDatabase().query(Task.HISTORY_TABLE_NAME,
+				new String[] { "COUNT(*)" }, Task.Columns.HIST_DELTA + " IS NOT NULL",
+				null, null, null, null)) {
+			c.moveToFirst();
+			return c.getInt(0);
+		}
+	}
+
+	@MediumTest
+	public void testCompactKeepsVersions() {
+		assertVersions(VERSIONS);
+
+		TaskHistory.compact(handler.getWritableDatabase(), 0, 0, null);
+		assertTrue("Nothing was compacted", countDeltas() > VERSIONS / 2);
+		assertVersions(VERSIONS);
+
+		// Again, nothing should change
+		TaskHistory.compact(handler.getWritableDatabase(), 0, 0, null);
+		assertVersions(VERSIONS);
+	}
+
+	@MediumTest
+	public void testMaxVersions() {
+		TaskHistory.compact(handler.getWritableDatabase(), 0, 0, null);
+		assertEquals(VERSIONS - 10,
+				TaskHistory.compact(handler.getWritableDatabase(), 0, 10, null));
+		assertVersions(10);
+	}
+
+	@MediumTest
+	public void testUnreadableDelta() {
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		TaskHistory.compact(db, 0, 0, null);
+
+		// Versions oldest first, by id
+		final List<Long> ids = new ArrayList<>();
+		long corrupt = -1;
+		try (Cursor c = db.query(Task.HISTORY_TABLE_NAME,
+				new String[] { Task.Columns._ID, Task.Columns.HIST_DELTA },
+				Task.Columns.HIST_TASK_ID + " IS ?", new String[] { Long.toString(taskId) },
+				null, null, Task.Columns._ID)) {
+			while (c.moveToNext()) {
+				ids.add(c.getLong(0));
+				if (!c.isNull(1)) {
+					// The newest delta
+					corrupt = c.getLong(0);
+				}
+			}
+		}
+		assertEquals(VERSIONS, ids.size());
+		assertTrue(corrupt > 0);
+
+		// Plain format, a common start longer than the note
+		final ContentValues values = new ContentValues();
+		values.put(Task.Columns.HIST_DELTA, new byte[] { 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+		db.update(Task.HISTORY_TABLE_NAME, values, Task.Columns._ID + " IS ?",
+				new String[] { Long.toString(corrupt) });
+
+		final String[] projection = { Task.Columns._ID, Task.Columns.NOTE };
+		try (Cursor c = TaskHistory.query(db, projection, Task.Columns.HIST_TASK_ID + " IS ?",
+				new String[] { Long.toString(taskId) })) {
+			final List<Long> shown = new ArrayList<>();
+			while (c.moveToNext()) {
+				// What is shown is right
+				assertEquals(notes.get(ids.indexOf(c.getLong(0))), c.getString(1));
+				shown.add(c.getLong(0));
+			}
+			assertFalse(shown.contains(corrupt));
+			// The versions newer than it are all there
+			for (long id : ids.subList(ids.indexOf(corrupt) + 1, ids.size())) {
+				assertTrue(shown.contains(id));
+			}
+		}
+
+		// Compacting again leaves the readable versions readable
+		TaskHistory.compact(db, 0, 0, null);
+		try (Cursor c = TaskHistory.query(db, projection, Task.Columns.HIST_TASK_ID + " IS ?",
+				new String[] { Long.toString(taskId) })) {
+			while (c.moveToNext()) {
+				assertEquals(notes.get(ids.indexOf(c.getLong(0))), c.getString(1));
+			}
+		}
+	}
+}
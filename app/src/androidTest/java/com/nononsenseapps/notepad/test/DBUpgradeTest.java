@@ -3,6 +3,7 @@ package com.nononsenseapps.notepad.test;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 
@@ -273,8 +274,15 @@ public class DBUpgradeTest extends TestCase {
 				* numOfLegacyNotes, c.getCount());
 		c.close();
 
+		// Opening only marks the import as due, there is no default list
+		final DatabaseHandler handler = new DatabaseHandler(context, PREFIX);
+		final SQLiteDatabase db = handler.getReadableDatabase();
+		assertTrue(handler.isLegacyPending());
+		assertEquals(0, DatabaseUtils.queryNumEntries(db, TaskList.TABLE_NAME));
+
 		// Check that new database correctly converts old
-		final SQLiteDatabase db = new DatabaseHandler(context, PREFIX).getReadableDatabase();
+		assertEquals(numOfLegacyLists * numOfLegacyNotes, handler.migrateLegacy(null));
+		assertFalse(handler.isLegacyPending());
 
 		c = db.query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS, null, null,
 				null, null, null);
@@ -299,7 +307,7 @@ public class DBUpgradeTest extends TestCase {
 		// TODO examine details
 		c.close();
 
-		db.close();
+		handler.close();
 		legacyDB.close();
 
 		assertTrue(
@@ -0,0 +1,196 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskSearch;
+import com.nononsenseapps.notepad.fragments.SearchLoader;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks when search results can be narrowed, in memory or among the rows
+ * found before, and that narrowing finds the same rows as the search tables.
+ */
+public class SearchLoaderTest extends TestCase {
+
+	static final String PREFIX = "search_loader_test_";
+
+	@SmallTest
+	public void testCanNarrowPrefix() {
+		assertTrue(SearchLoader.canNarrow("foo", "food"));
+		assertTrue(SearchLoader.canNarrow("foo", "foo bar"));
+		assertTrue(SearchLoader.canNarrow("foo ", "foo b"));
+		// Shorter, or not an extension of the old query
+		assertFalse(SearchLoader.canNarrow("food", "foo"));
+		assertFalse(SearchLoader.canNarrow("foo bar", "foo baz"));
+		// Nothing to narrow from
+		assertFalse(SearchLoader.canNarrow(null, "foo"));
+		assertFalse(SearchLoader.canNarrow(" ", " foo"));
+	}
+
+	@SmallTest
+	public void testCanNarrowOperators() {
+		assertFalse(SearchLoader.canNarrow("foo", "foo OR"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo AND bar"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo NOT"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo NEAR bar"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo*"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo \"bar"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo-bar"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo 'bar"));
+		// Operators are upper case only
+		assertTrue(SearchLoader.canNarrow("foo", "foo or"));
+	}
+
+	@SmallTest
+	public void testCanNarrowUnicode() {
+		assertTrue(SearchLoader.canNarrow("caf", "café"));
+		assertTrue(SearchLoader.canNarrow("東", "東京"));
+		// Non-ASCII spaces and marks are part of words to the search tables
+		assertFalse(SearchLoader.canNarrow("foo", "foo\u2003bar"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo\u00a0bar"));
+		assertFalse(SearchLoader.canNarrow("cafe", "cafe\u0301"));
+		assertFalse(SearchLoader.canNarrow("foo", "foo 😀"));
+	}
+
+	@SmallTest
+	public void testTokenize() {
+		assertEquals(Arrays.asList("hello", "world", "42"),
+				SearchLoader.tokenize("Hello, WORLD! 42"));
+		// Only ASCII is folded, all non-ASCII makes up words
+		assertEquals(Arrays.asList("café", "ÉTÉ"), SearchLoader.tokenize("Café ÉTÉ"));
+		assertEquals(Arrays.asList("a—b"), SearchLoader.tokenize("a—b"));
+		assertEquals(new ArrayList<String>(), SearchLoader.tokenize(" ,. "));
+	}
+
+	@SmallTest
+	public void testMatches() {
+		final List<String> tokens = SearchLoader.tokenize("Buy milk and bread");
+		assertTrue(SearchLoader.matches(tokens, SearchLoader.tokenize("buy br")));
+		assertTrue(SearchLoader.matches(tokens, SearchLoader.tokenize("MILK")));
+		// Only the last word is a prefix
+		assertFalse(SearchLoader.matches(tokens, SearchLoader.tokenize("bu milk")));
+		assertFalse(SearchLoader.matches(tokens, SearchLoader.tokenize("milk cheese")));
+	}
+
+	/**
+	 * Every narrowed query finds what the search tables find
+	 */
+	@MediumTest
+	public void testNarrowingAgreesWithSearch() {
+		final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		final DatabaseHandler handler = Helper.openFreshDatabase(context, PREFIX);
+		try {
+			final ContentValues values = new ContentValues();
+			values.put(TaskList.Columns.TITLE, "list");
+			final long listId = handler.getWritableDatabase()
+					.insert(TaskList.TABLE_NAME, null, values);
+
+			final String[] texts = { "Buy milk", "buying Bread", "café au lait",
+					"Café crème", "東京 trip", "milky way", "bread and milk" };
+			for (String text : texts) {
+				values.clear();
+				values.put(Task.Columns.TITLE, text);
+				values.put(Task.Columns.NOTE, "");
+				values.put(Task.Columns.DBLIST, listId);
+				handler.getWritableDatabase().insert(Task.TABLE_NAME, null, values);
+			}
+
+			final String[] queries = { "b", "bu", "buy", "buy m", "mil", "milk",
+					"milk b", "caf", "café", "café c", "東", "東京", "東京 t" };
+			for (String query : queries) {
+				final List<String> words = SearchLoader.tokenize(query);
+				final List<String> narrowed = new ArrayList<>();
+				for (String text : texts) {
+					if (SearchLoader.matches(SearchLoader.tokenize(text), words)) {
+						narrowed.add(text);
+					}
+				}
+
+				final List<String> found = new ArrayList<>();
+				// As the provider builds the match
+				try (Cursor c = TaskSearch.query(handler.getReadableDatabase(),
+						Task.FTS_TABLE_NAME, Task.TABLE_NAME,
+						new String[] { Task.Columns.TITLE }, "'" + query + "*'",
+						Task.Columns._ID, null, null)) {
+					while (c.moveToNext()) {
+						found.add(c.getString(0));
+					}
+				}
+				assertEquals("Query " + query, found, narrowed);
+			}
+		} finally {
+			handler.close();
+			Helper.deleteDatabases(context, PREFIX);
+		}
+	}
+
+	/**
+	 * With the settings of the search screen, most relevant first and
+	 * excerpts of the notes, a longer query searches among the rows found
+	 * for the shorter one, in the order of a search of all rows
+	 */
+	@MediumTest
+	public void testNarrowingByRelevance() {
+		final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		final TaskList list = new TaskList();
+		list.title = "search loader test";
+		list.save(context);
+		try {
+			for (String title : new String[] { "zqxmilk once", "zqxmilk zqxmilk twice",
+					"zqxmildew", "zqxbread" }) {
+				saveTask(context, list, title);
+			}
+
+			final SearchLoader[] loader = new SearchLoader[1];
+			// Its content observer needs a looper
+			InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+					loader[0] = new SearchLoader(context, Task.URI_SEARCH, TaskSearch.FIELDS,
+							null, "zqxmil"));
+			try (Cursor c = loader[0].loadInBackground()) {
+				assertEquals(3, c.getCount());
+			}
+
+			// Not told to the loader. Only searching all rows finds it
+			saveTask(context, list, "zqxmilk late");
+			try (Cursor c = context.getContentResolver().query(Task.URI_SEARCH,
+					TaskSearch.FIELDS, null, new String[] { "zqxmilk" }, null)) {
+				assertEquals(3, c.getCount());
+			}
+
+			loader[0].setQuery("zqxmilk");
+			final List<String> found = new ArrayList<>();
+			try (Cursor c = loader[0].loadInBackground()) {
+				while (c.moveToNext()) {
+					found.add(c.getString(c.getColumnIndex(Task.Columns.TITLE)));
+				}
+			}
+			// Two hits first
+			assertEquals(Arrays.asList("zqxmilk zqxmilk twice", "zqxmilk once"), found);
+		} finally {
+			list.delete(context);
+		}
+	}
+
+	private static void saveTask(final Context context, final TaskList list,
+								 final String title) {
+		final Task task = new Task();
+		task.title = title;
+		task.note = "";
+		task.dblist = list._id;
+		task.save(context);
+	}
+}
@@ -0,0 +1,129 @@
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+
+public class SectionedDateCursorTest extends TestCase {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private Context mContext;
+	private TaskList mList;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		DatabaseHandler.resetDatabase(mContext);
+		mList = new TaskList();
+		mList.title = "sectioned";
+		mList.save(mContext);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		mList.delete(mContext);
+		super.tearDown();
+	}
+
+	private Task insertTask(final String title, final Long due, final Long completed) {
+		final Task t = new Task();
+		t.title = title;
+		t.due = due;
+		t.completed = completed;
+		t.dblist = mList._id;
+		t.save(mContext);
+		return t;
+	}
+
+	private static void assertHeader(final Cursor c, final int position, final String key,
+									 final long typeId) {
+		assertTrue(c.moveToPosition(position));
+		assertEquals(-1L, c.getLong(c.getColumnIndex(Task.Columns._ID)));
+		assertEquals(key, c.getString(c.getColumnIndex(Task.Columns.TITLE)));
+		assertEquals(typeId, c.getLong(c.getColumnIndex(Task.SECRET_TYPEID)));
+		assertEquals(0L, c.getLong(c.getColumnIndex(Task.SECRET_TYPEID2)));
+	}
+
+	private static void assertTask(final Cursor c, final int position, final Task task) {
+		assertTrue(c.moveToPosition(position));
+		assertEquals(task._id, c.getLong(c.getColumnIndex(Task.Columns._ID)));
+		assertEquals(task.title, c.getString(c.getColumnIndex(Task.Columns.TITLE)));
+		assertEquals(1L, c.getLong(c.getColumnIndex(Task.SECRET_TYPEID2)));
+	}
+
+	@MediumTest
+	public void testSections() {
+		final long now = System.currentTimeMillis();
+		final Calendar tomorrow = Calendar.getInstance();
+		tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+		tomorrow.set(Calendar.HOUR_OF_DAY, 12);
+
+		// Inserted out of order, the cursor sorts them
+		final Task later = insertTask("later", now + 10 * DAY, null);
+		final Task overdue2 = insertTask("overdue2", now - 2 * DAY, null);
+		final Task nodate = insertTask("nodate", null, null);
+		final Task complete = insertTask("complete", now - 5 * DAY, now);
+		final Task plus1 = insertTask("plus1", tomorrow.getTimeInMillis(), null);
+		final Task overdue1 = insertTask("overdue1", now - 3 * DAY, null);
+
+		final String[] projection = { Task.Columns._ID, Task.Columns.TITLE,
+				Task.Columns.DUE, Task.Columns.DBLIST, Task.SECRET_TYPEID,
+				Task.SECRET_TYPEID2 };
+		try (Cursor c = mContext.getContentResolver().query(Task.URI_SECTIONED_BY_DATE,
+				projection, Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(mList._id) }, null)) {
+			// 6 tasks in 5 sections
+			assertEquals(11, c.getCount());
+
+			// Backwards, the rows do not depend on the order they are visited
+			assertTask(c, 10, complete);
+			assertHeader(c, 9, Task.HEADER_KEY_COMPLETE, 2);
+			assertTask(c, 8, nodate);
+			assertHeader(c, 7, Task.HEADER_KEY_NODATE, 1);
+			assertTask(c, 6, later);
+			assertHeader(c, 5, Task.HEADER_KEY_LATER, 0);
+			assertTask(c, 4, plus1);
+			assertHeader(c, 3, Task.HEADER_KEY_PLUS1, 0);
+			assertTask(c, 2, overdue2);
+			assertTask(c, 1, overdue1);
+			assertHeader(c, 0, Task.HEADER_KEY_OVERDUE, 0);
+
+			// Headers carry the list and the start of their section
+			assertEquals(mList._id, c.getLong(c.getColumnIndex(Task.Columns.DBLIST)));
+			assertTrue(c.moveToPosition(3));
+			final Calendar start = Calendar.getInstance();
+			start.setTimeInMillis(tomorrow.getTimeInMillis());
+			start.set(Calendar.HOUR_OF_DAY, 0);
+			start.set(Calendar.MINUTE, 0);
+			start.set(Calendar.SECOND, 0);
+			start.set(Calendar.MILLISECOND, 0);
+			assertEquals(start.getTimeInMillis(), c.getLong(c.getColumnIndex(Task.Columns.DUE)));
+			assertTrue(c.moveToPosition(7));
+			assertTrue(c.isNull(c.getColumnIndex(Task.Columns.DUE)));
+
+			assertFalse(c.moveToPosition(11));
+		}
+	}
+
+	@MediumTest
+	public void testEmptyList() {
+		try (Cursor c = mContext.getContentResolver().query(Task.URI_SECTIONED_BY_DATE,
+				null, Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(mList._id) }, null)) {
+			// No tasks, no headers
+			assertEquals(0, c.getCount());
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.nononsenseapps.notepad.test;
+
+import android.database.MatrixCursor;
+
+import androidx.test.filters.SmallTest;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskRow;
+
+import junit.framework.TestCase;
+
+public class TaskRowTest extends TestCase {
+
+	@SmallTest
+	public void testReusedForEveryRow() {
+		final MatrixCursor c = new MatrixCursor(TaskRow.SUMMARY_FIELDS);
+		c.addRow(new Object[] { 1L, "first", "preview 1", 10L, 1000L, null });
+		c.addRow(new Object[] { 2L, "second", "preview 2", 10L, null, 2000L });
+		c.addRow(new Object[] { 3L, "third", "", 11L, null, null });
+
+		// One row object follows the cursor
+		final TaskRow row = new TaskRow(c);
+		assertTrue(row.moveToNext());
+		assertEquals(1L, row.id());
+		assertEquals("first", row.title());
+		// No note in the projection, so the preview
+		assertEquals("preview 1", row.note());
+		assertEquals(10L, row.dblist());
+		assertTrue(row.hasDue());
+		assertEquals(1000L, row.due());
+		assertFalse(row.isCompleted());
+		// Not in the projection
+		assertFalse(row.hasUpdated());
+		assertEquals(0L, row.updated());
+
+		assertTrue(row.moveToNext());
+		assertEquals(2L, row.id());
+		assertEquals("second", row.title());
+		assertFalse(row.hasDue());
+		assertTrue(row.isCompleted());
+		assertEquals(2000L, row.completed());
+
+		final Task task = row.toTask();
+		assertEquals(2L, task._id);
+		assertEquals("preview 2", task.note);
+		assertNull(task.due);
+		assertEquals(Long.valueOf(2000L), task.completed);
+
+		assertTrue(row.moveToNext());
+		assertEquals(3L, row.id());
+		assertEquals(11L, row.dblist());
+		assertFalse(row.moveToNext());
+	}
+
+	@SmallTest
+	public void testTimestamps() {
+		final MatrixCursor c = new MatrixCursor(TaskRow.TIMESTAMP_FIELDS);
+		// More than the initial capacity
+		for (long id = 1; id <= 200; id++) {
+			c.addRow(new Object[] { id, id % 10 == 0 ? null : 100 * id });
+		}
+
+		final TaskRow.Timestamps times = TaskRow.Timestamps.read(c);
+		// Never updated tasks are left out
+		assertEquals(180, times.size());
+		assertTrue(times.isUpdatedAt(1, 100));
+		assertTrue(times.isUpdatedAt(199, 19900));
+		assertFalse(times.isUpdatedAt(199, 19901));
+		assertFalse(times.isUpdatedAt(10, 0));
+		assertFalse(times.isUpdatedAt(201, 20100));
+
+		assertEquals(0, new TaskRow.Timestamps().size());
+		assertFalse(new TaskRow.Timestamps().isUpdatedAt(1, 100));
+	}
+
+	@SmallTest
+	public void testTimestampsUnsorted() {
+		final MatrixCursor c = new MatrixCursor(TaskRow.TIMESTAMP_FIELDS);
+		c.addRow(new Object[] { 2L, 200L });
+		c.addRow(new Object[] { 1L, 100L });
+		try {
+			TaskRow.Timestamps.read(c);
+			fail("Tasks out of order must not be read");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		final MatrixCursor duplicates = new MatrixCursor(TaskRow.TIMESTAMP_FIELDS);
+		duplicates.addRow(new Object[] { 1L, 100L });
+		duplicates.addRow(new Object[] { 1L, 200L });
+		try {
+			TaskRow.Timestamps.read(duplicates);
+			fail("Tasks with the same id must not be read");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
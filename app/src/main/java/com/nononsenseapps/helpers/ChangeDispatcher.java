@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.helpers;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the changes made to the database and sends them out together,
+ * after a short delay. A burst of writes, like a sync or a multi-select
+ * edit, then gives one notification per uri, one refresh of each affected
+ * widget and one sync request, instead of one of each per written row.
+ */
+public final class ChangeDispatcher {
+
+	/**
+	 * How long to wait for more changes before notifying, in milliseconds
+	 */
+	static final long DISPATCH_DELAY_MS = 100;
+
+	private static ChangeDispatcher sInstance;
+
+	public static synchronized ChangeDispatcher getInstance(final Context context) {
+		if (sInstance == null) {
+			sInstance = new ChangeDispatcher(context.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * A set of changes to dispatch. Not thread safe.
+	 */
+	public static final class Changes {
+		final Set<Uri> uris = new LinkedHashSet<>();
+		final Set<Long> listIds = new HashSet<>();
+		// True if the lists are not known, so all widgets must be updated
+		boolean allLists = false;
+		// True for writes through the provider, which may need a sync
+		boolean requestSync = false;
+
+		/**
+		 * Changes made by a provider write. These also request a sync and
+		 * refresh the widgets showing any of the given lists.
+		 *
+		 * @param listIds ids of the affected lists, or null if not known
+		 */
+		public Changes add(final Collection<Uri> uris, final Collection<Long> listIds) {
+			this.uris.addAll(uris);
+			if (listIds == null) {
+				allLists = true;
+			} else {
+				this.listIds.addAll(listIds);
+			}
+			requestSync = true;
+			return this;
+		}
+
+		public Changes addAll(final Changes other) {
+			uris.addAll(other.uris);
+			listIds.addAll(other.listIds);
+			allLists |= other.allLists;
+			requestSync |= other.requestSync;
+			return this;
+		}
+
+		public boolean isEmpty() {
+			return uris.isEmpty() && listIds.isEmpty() && !allLists && !requestSync;
+		}
+
+		void clear() {
+			uris.clear();
+			listIds.clear();
+			allLists = false;
+			requestSync = false;
+		}
+	}
+
+	private final Context mContext;
+	private final Handler mHandler;
+	// Guarded by this
+	private final Changes mPending = new Changes();
+	private boolean mScheduled = false;
+
+	private final Runnable mDispatch = new Runnable() {
+		@Override
+		public void run() {
+			dispatch();
+		}
+	};
+
+	private ChangeDispatcher(final Context context) {
+		mContext = context;
+		final HandlerThread thread = new HandlerThread("ChangeDispatcher",
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Only notify observers of this uri. No sync, no widget updates.
+	 */
+	public void post(final Uri uri) {
+		synchronized (this) {
+			mPending.uris.add(uri);
+			schedule();
+		}
+	}
+
+	public void post(final Changes changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		synchronized (this) {
+			mPending.addAll(changes);
+			schedule();
+		}
+	}
+
+	/**
+	 * Dispatch the pending changes right away instead of waiting for more.
+	 * Used when a transaction ends, as nothing more belongs with it.
+	 */
+	public void flush() {
+		synchronized (this) {
+			if (mScheduled) {
+				mHandler.removeCallbacks(mDispatch);
+				mHandler.post(mDispatch);
+			}
+		}
+	}
+
+	private void schedule() {
+		if (!mScheduled) {
+			mScheduled = true;
+			mHandler.postDelayed(mDispatch, DISPATCH_DELAY_MS);
+		}
+	}
+
+	private void dispatch() {
+		final Changes changes = new Changes();
+		synchronized (this) {
+			changes.addAll(mPending);
+			mPending.clear();
+			mScheduled = false;
+		}
+
+		final ContentResolver resolver = mContext.getContentResolver();
+		if (changes.requestSync) {
+			changes.uris.add(TaskList.URI);
+		}
+		try {
+			for (Uri uri : withoutDescendants(changes.uris)) {
+				resolver.notifyChange(uri, null, false);
+			}
+			if (changes.requestSync) {
+				SyncGtaskHelper.requestSyncIf(mContext, SyncGtaskHelper.ONCHANGE);
+				resolver.notifyChange(Notification.URI, null);
+			}
+		} catch (UnsupportedOperationException e) {
+			// Catch this for test suite. Mock provider cant notify
+		}
+
+		if (changes.allLists) {
+			UpdateNotifier.updateWidgets(mContext);
+		} else if (!changes.listIds.isEmpty()) {
+			UpdateNotifier.updateWidgets(mContext, changes.listIds);
+		}
+	}
+
+	/**
+	 * A notification on a uri also reaches the observers of all uris below it,
+	 * so those need no notification of their own. Saves one notification per
+	 * item when the whole table is notified anyway.
+	 */
+	static Collection<Uri> withoutDescendants(final Set<Uri> uris) {
+		final Set<String> all = new HashSet<>();
+		for (Uri uri : uris) {
+			all.add(uri.toString());
+		}
+
+		final Set<Uri> result = new LinkedHashSet<>();
+		for (Uri uri : uris) {
+			if (!hasAncestorIn(uri, all)) {
+				result.add(uri);
+			}
+		}
+		return result;
+	}
+
+	private static boolean hasAncestorIn(final Uri uri, final Set<String> uris) {
+		if (uri.getQuery() != null || uri.getFragment() != null) {
+			return false;
+		}
+		final List<String> segments = uri.getPathSegments();
+		final StringBuilder ancestor = new StringBuilder()
+				.append(uri.getScheme()).append("://").append(uri.getAuthority());
+		for (int i = 0; i < segments.size() - 1; i++) {
+			ancestor.append('/').append(segments.get(i));
+			if (uris.contains(ancestor.toString())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -40,6 +40,38 @@ public final class PreferencesHelper {
 		return Prefs(context).getBoolean(key, false);
 	}
 
+	/**
+	 * @return how many days of task history to keep, 0 to keep all
+	 */
+	public static int getHistoryMaxAgeDays(@NonNull Context context) {
+		String key = context.getString(R.string.key_pref_history_max_age);
+		return Integer.parseInt(Prefs(context).getString(key, "0"));
+	}
+
+	/**
+	 * @return how many versions of each task to keep, 0 to keep all
+	 */
+	public static int getHistoryMaxVersions(@NonNull Context context) {
+		String key = context.getString(R.string.key_pref_history_max_versions);
+		return Integer.parseInt(Prefs(context).getString(key, "0"));
+	}
+
+	/**
+	 * @return how many days deleted notes stay in the archive, 0 to keep all
+	 */
+	public static int getArchiveMaxAgeDays(@NonNull Context context) {
+		String key = context.getString(R.string.key_pref_archive_max_age);
+		return Integer.parseInt(Prefs(context).getString(key, "0"));
+	}
+
+	/**
+	 * @return how many deleted notes the archive keeps, 0 to keep all
+	 */
+	public static int getArchiveMaxRows(@NonNull Context context) {
+		String key = context.getString(R.string.key_pref_archive_max_rows);
+		return Integer.parseInt(Prefs(context).getString(key, "0"));
+	}
+
 	public static boolean isSdSyncEnabled(@NonNull Context context) {
 		return Prefs(context).getBoolean(SyncPrefs.KEY_SD_ENABLE, false);
 	}
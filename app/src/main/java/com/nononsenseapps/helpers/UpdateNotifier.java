@@ -26,9 +26,12 @@ import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.widget.ListWidgetConfig;
 import com.nononsenseapps.notepad.widget.ListWidgetProvider;
 import com.nononsenseapps.notepad.widget.WidgetPrefs;
 
+import java.util.Collection;
+
 /**
  * The purpose here is to make it easy for other classes to notify that
  * something has changed in the database. Will also call update on the widgets
@@ -94,6 +97,16 @@ public final class UpdateNotifier {
 	 * Update all widgets's views as this database has changed somehow
 	 */
 	public static void updateWidgets(Context context) {
+		updateWidgets(context, null);
+	}
+
+	/**
+	 * Update the views of the widgets showing any of the given lists, and of
+	 * the widgets showing all lists.
+	 *
+	 * @param listIds the changed lists, or null to update all widgets
+	 */
+	public static void updateWidgets(Context context, Collection<Long> listIds) {
 		final AppWidgetManager appWidgetManager = AppWidgetManager
 				.getInstance(context);
 		int[] appWidgetIds = appWidgetManager
@@ -111,11 +124,20 @@ public final class UpdateNotifier {
 			// Only update widgets that exist
 			for (int widgetId : appWidgetIds) {
 				final WidgetPrefs prefs = new WidgetPrefs(context, widgetId);
-				if (prefs.isPresent()) {
+				if (prefs.isPresent() && (listIds == null
+						|| showsAnyOf(prefs, listIds))) {
 					appWidgetManager.notifyAppWidgetViewDataChanged(widgetId,
 							R.id.notesList);
 				}
 			}
 		}
 	}
+
+	private static boolean showsAnyOf(final WidgetPrefs prefs,
+									  final Collection<Long> listIds) {
+		final long widgetList = prefs.getLong(ListWidgetConfig.KEY_LIST,
+				ListWidgetConfig.ALL_LISTS_ID);
+		return widgetList == ListWidgetConfig.ALL_LISTS_ID
+				|| listIds.contains(widgetList);
+	}
 }
@@ -17,11 +17,13 @@
 
 package com.nononsenseapps.notepad;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -51,12 +53,17 @@ import androidx.preference.PreferenceManager;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.nononsenseapps.helpers.ActivityHelper;
+import com.nononsenseapps.helpers.ChangeDispatcher;
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.helpers.NotificationHelper;
 import com.nononsenseapps.helpers.SyncStatusMonitor;
 import com.nononsenseapps.helpers.SyncStatusMonitor.OnSyncStartStopListener;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
 import com.nononsenseapps.notepad.database.LegacyDBHelper;
+import com.nononsenseapps.notepad.database.LegacyMigrator;
+import com.nononsenseapps.notepad.database.MaintenanceJob;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBase;
@@ -442,6 +449,10 @@ public class ActivityMain extends AppCompatActivity
 		NotificationHelper.schedule(this);
 		// Schedule syncs
 		BackgroundSyncScheduler.scheduleSync(this);
+		// Schedule database upkeep
+		MaintenanceJob.schedule(this);
+		// Import the legacy database, or finish an import which was interrupted
+		importLegacyDatabase();
 		// Sync if appropriate
 		OrgSyncService.start(this);
 	}
@@ -524,6 +535,51 @@ public class ActivityMain extends AppCompatActivity
 		startActivity(intent);
 	}
 
+	/**
+	 * Runs {@link DatabaseHandler#migrateLegacy} on a background thread,
+	 * telling the user how far it got every quarter
+	 */
+	private void importLegacyDatabase() {
+		final Context context = getApplicationContext();
+		final Handler handler = new Handler(Looper.getMainLooper());
+		Executors.newSingleThreadExecutor().execute(() -> {
+			final DatabaseHandler db = DatabaseHandler.getInstance(context);
+			if (!db.isLegacyPending()) {
+				return;
+			}
+			handler.post(() -> Toast.makeText(context, R.string.import_started,
+					Toast.LENGTH_SHORT).show());
+
+			final long lists = DatabaseUtils.queryNumEntries(db.getReadableDatabase(),
+					TaskList.TABLE_NAME);
+			final int tasks = db.migrateLegacy(new LegacyMigrator.Progress() {
+				int mReported = 0;
+
+				@Override
+				public void onProgress(final int done, final int total) {
+					final int percent = total > 0 ? 100 * done / total : 100;
+					if (percent / 25 > mReported / 25) {
+						mReported = percent;
+						handler.post(() -> Toast.makeText(context,
+								context.getString(R.string.import_progress, percent),
+								Toast.LENGTH_SHORT).show());
+					}
+				}
+			});
+			final int listCount = (int) (DatabaseUtils.queryNumEntries(
+					db.getReadableDatabase(), TaskList.TABLE_NAME) - lists);
+
+			final ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(context);
+			dispatcher.post(TaskList.URI);
+			dispatcher.post(Task.URI);
+			dispatcher.post(Notification.URI);
+
+			handler.post(() -> Toast.makeText(context,
+					context.getString(R.string.imported_result, tasks, listCount),
+					Toast.LENGTH_LONG).show());
+		});
+	}
+
 	@UiThread
 	void migrateDonateUser() {
 		// migrate user
@@ -886,9 +942,6 @@ public class ActivityMain extends AppCompatActivity
 		);
 		adapter.setExtraData(extraData);
 
-		// Load count of tasks in each one
-		NnnLogger.debug(ActivityMain.class, TaskList.CREATE_COUNT_VIEW);
-
 		leftDrawer.setAdapter(adapter);
 		// Set click handler
 		leftDrawer.setOnItemClickListener((arg0, v, pos, id) -> {
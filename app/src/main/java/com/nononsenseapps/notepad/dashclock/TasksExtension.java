@@ -28,6 +28,7 @@ import com.google.android.apps.dashclock.api.ExtensionData;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskRow;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -82,18 +83,8 @@ public class TasksExtension extends DashClockExtension {
 		final boolean showSingle = prefs.getBoolean("show_single_only", false);
 		final boolean showHeader = prefs.getBoolean("show_header", true);
 
-		final ArrayList<Task> notes = getNotesFromDB(listId, upperLimit);
-
-		// Show overdue?
-		if (!showOverdue) {
-			removeOverdue(notes);
-		}
-
-		if (showSingle && notes.size() > 1) {
-			final Task first = notes.get(0);
-			notes.clear();
-			notes.add(first);
-		}
+		final ArrayList<Task> notes = getNotesFromDB(listId, upperLimit, showOverdue,
+				showSingle);
 
 		if (notes.isEmpty()) {
 			publishUpdate(null);
@@ -134,15 +125,6 @@ public class TasksExtension extends DashClockExtension {
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void removeOverdue(final ArrayList<Task> notes) {
-		for (Task note : (ArrayList<Task>) notes.clone()) {
-			if (note.due != null
-					&& note.due < Calendar.getInstance().getTimeInMillis())
-				notes.remove(note);
-		}
-	}
-
 	private String getBody(final ArrayList<Task> notes, final boolean showHeader) {
 		String result = "";
 		if (notes.size() == 1) {
@@ -171,8 +153,11 @@ public class TasksExtension extends DashClockExtension {
 
 	/**
 	 * Return a list of notes respecting the constraints set in preferences.
+	 * Only the notes shown become tasks, the rest are skipped while reading.
 	 */
-	private ArrayList<Task> getNotesFromDB(final long list, final String upperLimit) {
+	private ArrayList<Task> getNotesFromDB(final long list, final String upperLimit,
+										   final boolean showOverdue,
+										   final boolean showSingle) {
 		// WHERE_LIST_IS, toA(list)
 		String where = "";
 		String[] whereArgs = new String[0];
@@ -185,12 +170,20 @@ public class TasksExtension extends DashClockExtension {
 		whereArgs = getUpperQueryLimitWhereArgs(whereArgs, upperLimit);
 
 		final Cursor cursor = getContentResolver().query(Task.URI,
-				Task.Columns.FIELDS, where, whereArgs, DUEDATE_SORT_TYPE);
+				TaskRow.SUMMARY_FIELDS, where, whereArgs, DUEDATE_SORT_TYPE);
 
 		final ArrayList<Task> result = new ArrayList<>();
 		if (cursor != null) {
-			while (cursor.moveToNext()) {
-				result.add(new Task(cursor));
+			final long now = Calendar.getInstance().getTimeInMillis();
+			final TaskRow row = new TaskRow(cursor);
+			while (row.moveToNext()) {
+				if (!showOverdue && row.hasDue() && row.due() < now) {
+					continue;
+				}
+				result.add(row.toTask());
+				if (showSingle) {
+					break;
+				}
 			}
 			cursor.close();
 		}
@@ -22,9 +22,11 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.nononsenseapps.helpers.ChangeDispatcher;
 import com.nononsenseapps.helpers.NnnLogger;
 
 import java.util.ArrayList;
@@ -203,13 +205,13 @@ public abstract class DAO {
 
 	public long _id = -1;
 
-	public synchronized boolean update(final Context context, final SQLiteDatabase db) {
+	public boolean update(final Context context, final SQLiteDatabase db) {
 		int result = 0;
 		db.beginTransaction();
 
 		try {
 			if (_id > 0) {
-				result += db.update(getTableName(), getContent(), whereIdIs, whereIdArg());
+				result += updateRow(db);
 			}
 
 			if (result > 0) {
@@ -230,13 +232,13 @@ public abstract class DAO {
 		return result > 0;
 	}
 
-	public synchronized Uri insert(final Context context, final SQLiteDatabase db) {
+	public Uri insert(final Context context, final SQLiteDatabase db) {
 		Uri retval;
 		db.beginTransaction();
 		try {
 			beforeInsert(context, db);
 
-			final long id = db.insert(getTableName(), null, getContent());
+			final long id = insertRow(db);
 
 			if (id == -1) {
 				throw new SQLException("Insert failed in " + getTableName());
@@ -259,10 +261,8 @@ public abstract class DAO {
 		return retval;
 	}
 
-	public synchronized int remove(final Context context,
-								   final SQLiteDatabase db) {
-		final int result = db.delete(getTableName(), BaseColumns._ID + " IS ?",
-				new String[] { Long.toString(_id) });
+	public int remove(final Context context, final SQLiteDatabase db) {
+		final int result = removeRow(db);
 
 		if (result > 1) {
 			notifyProviderOnChange(context);
@@ -271,13 +271,57 @@ public abstract class DAO {
 		return result;
 	}
 
+	/**
+	 * Writes the content as a new row, without notifying anyone
+	 *
+	 * @return the id of the row, or -1 on failure
+	 */
+	public long insertRow(final SQLiteDatabase db) {
+		final String[] columns = getContentColumns();
+		if (columns == null) {
+			return db.insert(getTableName(), null, getContent());
+		}
+		final SQLiteStatement statement = StatementCache.get(db)
+				.insert(getTableName(), columns);
+		bindContent(statement);
+		return statement.executeInsert();
+	}
+
+	/**
+	 * Writes the content to the row of this id, without notifying anyone
+	 *
+	 * @return the number of rows changed
+	 */
+	public int updateRow(final SQLiteDatabase db) {
+		final String[] columns = getContentColumns();
+		if (columns == null) {
+			return db.update(getTableName(), getContent(), whereIdIs, whereIdArg());
+		}
+		final SQLiteStatement statement = StatementCache.get(db)
+				.update(getTableName(), columns);
+		bindContent(statement);
+		statement.bindLong(columns.length + 1, _id);
+		return statement.executeUpdateDelete();
+	}
+
+	/**
+	 * Deletes the row of this id, without notifying anyone
+	 *
+	 * @return the number of rows deleted
+	 */
+	public int removeRow(final SQLiteDatabase db) {
+		final SQLiteStatement statement = StatementCache.get(db).delete(getTableName());
+		statement.bindLong(1, _id);
+		return statement.executeUpdateDelete();
+	}
+
+	/**
+	 * Notifies observers of the uri shortly, together with other changes made
+	 * close in time. See {@link ChangeDispatcher}
+	 */
 	public static void notifyProviderOnChange(final Context context,
 											  final Uri uri) {
-		try {
-			context.getContentResolver().notifyChange(uri, null, false);
-		} catch (UnsupportedOperationException e) {
-			// Catch this for test suite. Mock provider cant notify
-		}
+		ChangeDispatcher.getInstance(context).post(uri);
 	}
 
 	protected void notifyProviderOnChange(final Context context) {
@@ -325,6 +369,56 @@ public abstract class DAO {
 
 	public abstract ContentValues getContent();
 
+	/**
+	 * The columns getContent would have, in the order bindContent binds
+	 * them. One of a few constant arrays, cached statements are found by
+	 * it. Null if rows are written from getContent.
+	 */
+	protected String[] getContentColumns() {
+		return null;
+	}
+
+	/**
+	 * Binds the values of getContentColumns from the fields, starting at 1
+	 */
+	protected void bindContent(final SQLiteStatement statement) {
+	}
+
+	/**
+	 * Binds a value which may be null
+	 *
+	 * @return the next index
+	 */
+	protected static int bind(final SQLiteStatement statement, final int index,
+							  final Long value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else {
+			statement.bindLong(index, value);
+		}
+		return index + 1;
+	}
+
+	protected static int bind(final SQLiteStatement statement, final int index,
+							  final Double value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else {
+			statement.bindDouble(index, value);
+		}
+		return index + 1;
+	}
+
+	protected static int bind(final SQLiteStatement statement, final int index,
+							  final String value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else {
+			statement.bindString(index, value);
+		}
+		return index + 1;
+	}
+
 	protected abstract String getTableName();
 
 	public abstract String getContentType();
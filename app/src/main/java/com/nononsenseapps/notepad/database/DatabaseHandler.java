@@ -19,10 +19,14 @@ package com.nononsenseapps.notepad.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 
 import androidx.preference.PreferenceManager;
@@ -30,29 +34,34 @@ import androidx.preference.PreferenceManager;
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
-import com.nononsenseapps.notepad.sync.googleapi.GoogleTask;
-import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
-import com.nononsenseapps.helpers.RFC3339Date;
 
-import java.util.Calendar;
-import java.util.HashMap;
+import java.io.File;
 
 public class DatabaseHandler extends SQLiteOpenHelper {
 
 	private static DatabaseHandler singleton;
 
-	public static DatabaseHandler getInstance(final Context context) {
+	public static synchronized DatabaseHandler getInstance(final Context context) {
 		if (singleton == null) {
 			singleton = new DatabaseHandler(context);
 		}
 		return singleton;
 	}
 
-	private static final int DATABASE_VERSION = 15;
+	private static final int DATABASE_VERSION = 25;
 	public static final String DATABASE_NAME = "nononsense_notes.db";
 
+	// PRAGMA auto_vacuum
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
+	// Pages freed by each step of incrementalVacuum
+	private static final int VACUUM_STEP_PAGES = 256;
+	// Pages written by each step of mergeFts
+	private static final int FTS_MERGE_PAGES = 256;
+
 	private final Context context;
 	private final String testPrefix;
+	// Set by onCreate, for onOpen
+	private boolean mCreated = false;
 
 	/**
 	 * Should use the singleton for normal cases
@@ -69,22 +78,26 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		// Good idea to have the context that doesn't die with the window
 		this.context = context.getApplicationContext();
 		this.testPrefix = testPrefix;
+		// Readers get their own connections from the pool, and are not blocked
+		// by an open write transaction. Only writers wait for each other
+		setWriteAheadLoggingEnabled(true);
 	}
 
 	@Override
-	public void onOpen(SQLiteDatabase db) {
-		super.onOpen(db);
-		if (!db.isReadOnly()) {
-			// Enable foreign key constraints
-			// This would require android16
-			// db.setForeignKeyConstraintsEnabled(true);
-			// This works everywhere
-			db.execSQL("PRAGMA foreign_keys=ON;");
-		}
+	public void onConfigure(SQLiteDatabase db) {
+		super.onConfigure(db);
+		// Enable foreign key constraints, on every connection of the pool
+		db.setForeignKeyConstraintsEnabled(true);
+		// Each connection keeps its compiled statements, keyed by their sql.
+		// The provider's reads use fixed sql with arguments bound, so make
+		// room for all of them next to the statements of the triggers
+		db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
 	}
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
+		// Incremental auto-vacuum is set in onOpen, see there
+		mCreated = true;
 		db.execSQL(TaskList.CREATE_TABLE);
 		db.execSQL(Task.CREATE_TABLE);
 		db.execSQL(Task.CREATE_DELETE_TABLE);
@@ -93,14 +106,19 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		db.execSQL(RemoteTaskList.CREATE_TABLE);
 		db.execSQL(RemoteTask.CREATE_TABLE);
 
-		db.execSQL(Notification.CREATE_JOINED_VIEW);
-
 		db.execSQL(Task.TRIGGER_PRE_INSERT);
+		db.execSQL(Task.TRIGGER_POST_INSERT);
 		db.execSQL(Task.TRIGGER_PRE_DELETE);
-		db.execSQL(Task.TRIGGER_POST_DELETE);
+		db.execSQL(Task.TRIGGER_PRE_MOVE_LIST);
 		db.execSQL(Task.TRIGGER_MOVE_LIST);
 		db.execSQL(Task.CREATE_HISTORY_INSERT_TRIGGER);
 		db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
+		db.execSQL(Task.TRIGGER_PREVIEW_INSERT);
+		db.execSQL(Task.TRIGGER_PREVIEW_UPDATE);
+		// Open task counts of lists
+		db.execSQL(TaskList.TRIGGER_COUNT_INSERT);
+		db.execSQL(TaskList.TRIGGER_COUNT_DELETE);
+		db.execSQL(TaskList.TRIGGER_COUNT_UPDATE);
 
 		db.execSQL(RemoteTask.TRIGGER_LISTDELETE_CASCADE);
 		// Mark as deleted when real item deleted
@@ -109,21 +127,61 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		// Create move list trigger
 		db.execSQL(RemoteTask.TRIGGER_MOVE_LIST);
 
-		// Search tables
-		db.execSQL(Task.CREATE_FTS3_TABLE);
-		db.execSQL(Task.CREATE_FTS3_INSERT_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_UPDATE_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETE_TRIGGER);
+		createSearchTables(db);
 
-		// Delete search tables
-		db.execSQL(Task.CREATE_FTS3_DELETE_TABLE);
-		db.execSQL(Task.CREATE_FTS3_DELETED_INSERT_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETED_UPDATE_TRIGGER);
-		db.execSQL(Task.CREATE_FTS3_DELETED_DELETE_TRIGGER);
+		createIndexes(db);
 
 		initializedDB(db);
 	}
 
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		if (mCreated) {
+			mCreated = false;
+			// Auto-vacuum can only be set before the first table, and the
+			// platform creates android_metadata before onConfigure. So a new
+			// database is converted as soon as it is out of the transaction
+			// of onCreate, while it is small and this is quick
+			if (!db.isReadOnly()) {
+				incrementalVacuum(db, 0, null);
+			}
+		}
+	}
+
+	/**
+	 * Full text indexes of the tasks and of the deleted tasks
+	 */
+	private static void createSearchTables(SQLiteDatabase db) {
+		db.execSQL(Task.CREATE_FTS_TABLE);
+		for (String sql : Task.CREATE_FTS_TRIGGERS) {
+			db.execSQL(sql);
+		}
+
+		db.execSQL(Task.CREATE_FTS_DELETE_TABLE);
+		for (String sql : Task.CREATE_FTS_DELETE_TRIGGERS) {
+			db.execSQL(sql);
+		}
+	}
+
+	/**
+	 * Secondary indexes used by list loads, the position triggers, reminders
+	 * and sync. Safe to run more than once.
+	 */
+	private static void createIndexes(final SQLiteDatabase db) {
+		db.execSQL(Task.CREATE_INDEX_LIST_LEFT);
+		db.execSQL(Task.CREATE_INDEX_LIST_RIGHT);
+		db.execSQL(Task.CREATE_INDEX_LIST_DUE);
+		db.execSQL(Task.CREATE_INDEX_HISTORY_TASK);
+		db.execSQL(Task.CREATE_INDEX_DELETED_TIME);
+		db.execSQL(Notification.CREATE_INDEX_TIME);
+		db.execSQL(Notification.CREATE_INDEX_TASK);
+		db.execSQL(RemoteTask.CREATE_INDEX_DBID);
+		db.execSQL(RemoteTask.CREATE_INDEX_LISTDBID);
+		db.execSQL(RemoteTask.CREATE_INDEX_REMOTEID);
+		db.execSQL(RemoteTaskList.CREATE_INDEX_DBID);
+	}
+
 	public static Cursor getLegacyLists(final SQLiteDatabase legacyDB) {
 		return legacyDB.rawQuery("SELECT lists."
 				+ BaseColumns._ID
@@ -166,143 +224,89 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	}
 
 	private void initializedDB(final SQLiteDatabase db) throws SQLiteException {
-		// Load legacy DB if it exists
-		// Open database and copy information
-		// Remember to do try except
-
 		db.beginTransaction();
 		try {
-			final HashMap<Long, Long> listIDMap = new HashMap<>();
-			final HashMap<Long, Long> taskIDMap = new HashMap<>();
-			final LegacyDBHelper legacyDBHelper = new LegacyDBHelper(context, testPrefix);
-			final SQLiteDatabase legacyDB = legacyDBHelper.getReadableDatabase();
-
-			// First copy lists
-			Cursor c = getLegacyLists(legacyDB);
-
-			while (!c.isClosed() && c.moveToNext()) {
-				TaskList tl = new TaskList();
-				tl.title = c.getString(1);
-				tl.updated = Calendar.getInstance().getTimeInMillis();
-
-				// insert into db
-				tl.insert(context, db);
-				// remember id
-				listIDMap.put(c.getLong(0), tl._id);
-
-				// handle gtask info
-				GoogleTaskList rl;
-				if (c.getString(2) != null && !c.getString(2).isEmpty() && c.getString(3) != null
-						&& !c.getString(3).isEmpty()) {
-					rl = new GoogleTaskList(tl._id, c.getString(2), tl.updated, c.getString(3));
-					rl.insert(context, db);
-				}
-			}
-			c.close();
-
-			// Then notes
-			if (!listIDMap.isEmpty()) {
-				// query
-				c = getLegacyNotes(legacyDB);
-
-				// iterate over notes
-				while (!c.isClosed() && c.moveToNext()) {
-					Task t = new Task();
-					t.title = c.getString(1);
-					t.note = c.getString(2);
-
-					if (t.note.contains("[locked]")) {
-						t.locked = true;
-						t.note = t.note.replace("[locked]", "");
-					}
-
-					try {
-						t.due = RFC3339Date
-								.parseRFC3339Date(c.getString(3))
-								.getTime();
-					} catch (Exception e) {
-						NnnLogger.warning(DatabaseHandler.class, "date error");
-					}
-
-					// completed must be converted
-					if (c.getString(4) != null
-							&& "completed".equals(c.getString(4))) {
-						t.setAsCompleted();
-					}
-					t.dblist = listIDMap.get(c.getLong(5));
-
-					t.updated = c.getLong(6);
-
-					// insert
-					// Just make extra sure list exists
-					if (t.dblist != null) {
-						t.insert(context, db);
-
-						// put in idmap
-						taskIDMap.put(c.getLong(0), t._id);
-					}
-
-					// gtask
-					GoogleTask gt;
-					if (!c.isNull(7) && !c.getString(7).isEmpty() && !c.isNull(8)
-							&& !c.getString(8).isEmpty()) {
-						gt = new GoogleTask(t, c.getString(8));
-						gt.remoteId = c.getString(7);
-						gt.updated = t.updated;
-						gt.insert(context, db);
-					}
-
-				}
-				c.close();
+			if (legacyDatabaseExists()) {
+				// Imported by migrateLegacy, after the database is open. It
+				// adds the default list if there is none
+				LegacyMigrator.markPending(db);
+			} else {
+				insertDefaultList(db);
 			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
 
-			// Then notifications
-			if (!taskIDMap.isEmpty()) {
-				c = getLegacyNotifications(legacyDB);
-
-				while (!c.isClosed() && c.moveToNext()) {
-					// Make sure id exists
-					if (taskIDMap.containsValue(c.getLong(2))) {
-						Notification n = new Notification(taskIDMap.get(c.getLong(2)));
-						n.time = c.getLong(0);
-						// permanent was not supported at the time
-						// insert
-						n.insert(context, db);
-					}
-				}
-				c.close();
-			}
+	private boolean legacyDatabaseExists() {
+		// Opening it would create it
+		return context.getDatabasePath(testPrefix + LegacyDBHelper.LEGACY_DATABASE_NAME).exists();
+	}
 
-			// Complete, close the legacy db
-			legacyDB.close();
-		} catch (SQLException e) {
-			// Database must have been empty. Ignore it
-			// Test reasons, throw it!
-			// throw e;
+	/**
+	 * If no lists, insert a list
+	 */
+	private void insertDefaultList(final SQLiteDatabase db) {
+		if (DatabaseUtils.queryNumEntries(db, TaskList.TABLE_NAME) > 0) {
+			return;
+		}
+		var sPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+		if (sPrefs.contains(SyncPrefs.KEY_ACCOUNT)) {
+			// If preferences has sync enabled, don't create this list
+			// The backup agent has restored a reinstallation
+			return;
 		}
+		final TaskList tl = new TaskList();
+		tl.title = context.getString(R.string.tasks);
+		tl.insert(context, db);
+	}
 
-		// If no lists, insert a list and example note.
+	/**
+	 * @return true if onCreate found a legacy database which
+	 * {@link #migrateLegacy} has not imported yet
+	 */
+	public boolean isLegacyPending() {
+		return legacyDatabaseExists() && LegacyMigrator.isPending(getReadableDatabase());
+	}
 
-		Cursor c = db.query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS, null, null, null, null,
-				null);
+	/**
+	 * Imports the legacy database found by onCreate, or continues an import
+	 * which was interrupted. Rows are committed as they are staged, so call
+	 * it off the UI thread, on every start until it is done. Content
+	 * observers are left to the caller.
+	 *
+	 * @param progress may be null
+	 * @return the number of tasks added
+	 */
+	public synchronized int migrateLegacy(final LegacyMigrator.Progress progress) {
+		if (!isLegacyPending()) {
+			return 0;
+		}
+		final SQLiteDatabase db = getWritableDatabase();
+		int tasks = 0;
+		final LegacyDBHelper legacyDBHelper = new LegacyDBHelper(context, testPrefix);
+		try {
+			tasks = LegacyMigrator.migrate(db,
+					LegacyMigrator.databaseSource(legacyDBHelper.getReadableDatabase()),
+					progress);
+		} catch (SQLException e) {
+			// Database must have been unreadable. Ignore it
+			NnnLogger.exception(e);
+			LegacyMigrator.abandon(db);
+		} finally {
+			// Complete, close the legacy db
+			legacyDBHelper.close();
+		}
 
-		if (!c.isClosed() && c.getCount() > 0) {
-			// Done
-		} else {
-			var sPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-			if (sPrefs.contains(SyncPrefs.KEY_ACCOUNT)) {
-				// If preferences has sync enabled, don't create this list
-				// The backup agent has restored a reinstallation
-			} else {
-				// Create a list
-				final TaskList tl = new TaskList();
-				tl.title = context.getString(R.string.tasks);
-				tl.insert(context, db);
-			}
+		db.beginTransaction();
+		try {
+			insertDefaultList(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
 		}
-		c.close();
-		db.setTransactionSuccessful();
-		db.endTransaction();
+		return tasks;
 	}
 
 	@Override
@@ -317,10 +321,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(preName + Notification.Columns.LATITUDE + postReal);
 			db.execSQL(preName + Notification.Columns.LONGITUDE + postReal);
 			db.execSQL(preName + Notification.Columns.RADIUS + postReal);
-			// Drop view
+			// Drop view, now a subquery in the provider
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
-			// Recreate view with additional tables
-			db.execSQL(Notification.CREATE_JOINED_VIEW);
 		}
 		if (oldVersion < 11) {
 			// Mark as deleted when real item deleted
@@ -328,9 +330,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(RemoteTaskList.TRIGGER_REALDELETE_MARK);
 		}
 		if (oldVersion < 12) {
-			// Recreate trigger
+			// Deletes leave a gap since version 19, no trigger needed
 			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
-			db.execSQL(Task.TRIGGER_POST_DELETE);
 		}
 		if (oldVersion < 13) {
 			// Create move list trigger
@@ -347,6 +348,181 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			// Drop view, changing to temporary view instead
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
 		}
+		if (oldVersion < 16) {
+			// Add indexes
+			createIndexes(db);
+		}
+		if (oldVersion < 17) {
+			// Position checks only look at the affected positions now
+			createIndexes(db);
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_insert");
+			db.execSQL(Task.TRIGGER_POST_INSERT);
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+		}
+		if (oldVersion < 18) {
+			// Open task counts, maintained by triggers
+			db.execSQL("ALTER TABLE " + TaskList.TABLE_NAME + " ADD COLUMN "
+					+ TaskList.Columns.OPEN_COUNT + " INTEGER NOT NULL DEFAULT 0");
+			db.execSQL(TaskList.TRIGGER_COUNT_INSERT);
+			db.execSQL(TaskList.TRIGGER_COUNT_DELETE);
+			db.execSQL(TaskList.TRIGGER_COUNT_UPDATE);
+			db.execSQL(TaskList.RECOUNT);
+		}
+		if (oldVersion < 19) {
+			// Sparse positions, moving a task only writes that task
+			db.execSQL("DROP TRIGGER IF EXISTS task_pre_insert");
+			db.execSQL(Task.TRIGGER_PRE_INSERT);
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_insert");
+			db.execSQL(Task.TRIGGER_POST_INSERT);
+			db.execSQL("DROP TRIGGER IF EXISTS task_post_delete");
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_PRE_MOVE_LIST);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+			Task.renumberAll(db);
+		}
+		if (oldVersion < 20) {
+			// Move list triggers leave tasks given a position alone
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_pre_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_PRE_MOVE_LIST);
+			db.execSQL("DROP TRIGGER IF EXISTS trigger_post_move_list_" + Task.TABLE_NAME);
+			db.execSQL(Task.TRIGGER_MOVE_LIST);
+		}
+		if (oldVersion < 21) {
+			// History compaction, see TaskHistory
+			db.execSQL("ALTER TABLE " + Task.HISTORY_TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.HIST_DELTA + " BLOB DEFAULT NULL");
+		}
+		if (oldVersion < 22) {
+			// Search indexes without a copy of the text
+			for (String name : new String[] { "task_fts3_insert", "task_fts3_update",
+					"task_fts3_delete", "deletedtask_fts3_insert", "deletedtask_fts3_update",
+					"deletedtask_fts3_delete" }) {
+				db.execSQL("DROP TRIGGER IF EXISTS " + name);
+			}
+			db.execSQL("DROP TABLE IF EXISTS fts3_task");
+			db.execSQL("DROP TABLE IF EXISTS fts3_deleted_task");
+			createSearchTables(db);
+			db.execSQL(Task.rebuildFts(Task.FTS_TABLE_NAME));
+			db.execSQL(Task.rebuildFts(Task.FTS_DELETE_TABLE_NAME));
+		}
+		if (oldVersion < 23) {
+			// Index for the archive purge
+			createIndexes(db);
+		}
+		if (oldVersion < 24) {
+			// Previews of the notes, for lists
+			db.execSQL(Task.ADD_PREVIEW_COLUMN);
+			db.execSQL(Task.FILL_PREVIEW);
+			db.execSQL(Task.TRIGGER_PREVIEW_INSERT);
+			db.execSQL(Task.TRIGGER_PREVIEW_UPDATE);
+		}
+		if (oldVersion < 25) {
+			// Sync looking up tasks by their remote id
+			createIndexes(db);
+		}
+	}
+
+	/**
+	 * @return bytes used by the database file and its write-ahead log
+	 */
+	public static long getFileSize(final SQLiteDatabase db) {
+		final File file = new File(db.getPath());
+		return file.length() + new File(file.getPath() + "-wal").length();
+	}
+
+	private static boolean isCanceled(final CancellationSignal signal) {
+		return signal != null && signal.isCanceled();
+	}
+
+	/**
+	 * Returns free pages to the file system, a few at a time, until none are
+	 * left, the deadline is passed or the signal is canceled. Databases
+	 * created without incremental auto-vacuum are converted first, with a
+	 * full VACUUM, which is not interrupted.
+	 *
+	 * @param deadline in {@link SystemClock#elapsedRealtime()}
+	 * @return the number of pages freed
+	 */
+	public static long incrementalVacuum(final SQLiteDatabase db, final long deadline,
+										 final CancellationSignal signal) {
+		if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+				!= AUTO_VACUUM_INCREMENTAL) {
+			db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+			// Frees all pages, and keeps track of them from now on
+			final long before = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+			db.execSQL("VACUUM");
+			return before;
+		}
+
+		final long before = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+		long free = before;
+		while (free > 0 && SystemClock.elapsedRealtime() < deadline && !isCanceled(signal)) {
+			// Every row returned is a page freed, so read them all
+			try (Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")",
+					null)) {
+				while (c.moveToNext()) {
+					// Stepping does the work
+				}
+			}
+			free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+		}
+		// Shrink the log too, unless someone is reading it
+		try (Cursor c = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+			c.moveToFirst();
+		}
+		return before - free;
+	}
+
+	/**
+	 * Updates the statistics of the query planner. The first time, or where
+	 * SQLite is too old for PRAGMA optimize, all tables are analyzed. Else
+	 * only those which changed enough since.
+	 */
+	public static void optimize(final SQLiteDatabase db) {
+		final boolean analyzed = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+				+ "sqlite_master WHERE name = 'sqlite_stat1'", null) > 0;
+		// SQLite 3.18
+		if (analyzed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+			db.execSQL("PRAGMA optimize");
+		} else {
+			db.execSQL("ANALYZE");
+		}
+	}
+
+	/**
+	 * Merges the segments of a search index, a step at a time, until it is
+	 * fully merged, the deadline is passed or the signal is canceled. Each
+	 * step is a short transaction, so writers don't wait long.
+	 *
+	 * @param deadline in {@link SystemClock#elapsedRealtime()}
+	 * @return the number of steps which merged something
+	 */
+	public static int mergeFts(final SQLiteDatabase db, final String ftsTable,
+							   final long deadline, final CancellationSignal signal) {
+		final String merge = "INSERT INTO " + ftsTable + "(" + ftsTable + ") VALUES('merge="
+				+ FTS_MERGE_PAGES + ",2')";
+		int steps = 0;
+		while (SystemClock.elapsedRealtime() < deadline && !isCanceled(signal)) {
+			final long changes;
+			db.beginTransaction();
+			try {
+				// In the transaction, so all on the same connection
+				final long before = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null);
+				db.execSQL(merge);
+				changes = DatabaseUtils.longForQuery(db, "SELECT total_changes()", null) - before;
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			// Less than two changes means there was nothing left to merge
+			if (changes < 2) {
+				break;
+			}
+			steps++;
+		}
+		return steps;
 	}
 
 	/**
@@ -356,6 +532,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	public static void resetDatabase(Context context) {
 		context.deleteDatabase(DatabaseHandler.DATABASE_NAME);
 		singleton = new DatabaseHandler(context);
+		QueryCache.getInstance().clear();
 		DatabaseHandler.getInstance(context).getWritableDatabase();
 	}
 }
@@ -20,7 +20,6 @@ package com.nononsenseapps.notepad.database;
 import android.app.SearchManager;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -29,7 +28,9 @@ import android.provider.BaseColumns;
 import android.util.Log;
 
 import com.nononsenseapps.helpers.NnnLogger;
-import com.nononsenseapps.helpers.RFC3339Date;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This class contains the code that has been called over the versions to
@@ -920,43 +921,50 @@ public class LegacyDBHelper extends SQLiteOpenHelper {
 		return newCols;
 	}
 
+	// Quoted strings and names, in a selection or a sort order
+	private static final Pattern SQL_TOKENS = Pattern.compile(
+			"'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"|[A-Za-z_][A-Za-z0-9_]*");
+
 	/**
-	 * Convert new values to old, but using old or new column names
-	 *
-	 * TaskProjection: new String[] { "_id", "title", "note", "list", "duedate",
-	 * "gtaskstatus"};
+	 * Converts the legacy column names in a selection or sort order of the
+	 * notes URIs. Statuses and due dates are compared as the legacy table
+	 * stored them, the flags of the legacy table are all 0 now. Quoted
+	 * strings are left alone.
 	 */
-	public static Object[] convertLegacyTaskValues(final Cursor cursor) {
-		Object[] retval = new Object[cursor.getColumnCount()];
-		for (int i = 0; i < cursor.getColumnCount(); i++) {
-			final String colName = cursor.getColumnName(i);
-			final Object val;
-			if (NotePad.Notes.COLUMN_NAME_DUE_DATE.equals(colName) ||
-					Task.Columns.DUE.equals(colName)) {
-				val = cursor.isNull(i) ? "" : RFC3339Date.asRFC3339(cursor.getLong(i));
-			} else if (NotePad.Notes.COLUMN_NAME_GTASKS_STATUS.equals(colName) ||
-					Task.Columns.COMPLETED.equals(colName)) {
-				val = cursor.isNull(i) ? "needsAction" : "completed";
-			} else {
-				switch (cursor.getType(i)) {
-					case Cursor.FIELD_TYPE_FLOAT:
-						val = cursor.getFloat(i);
-						break;
-					case Cursor.FIELD_TYPE_INTEGER:
-						val = cursor.getLong(i);
-						break;
-					case Cursor.FIELD_TYPE_STRING:
-						val = cursor.getString(i);
-						break;
-					case Cursor.FIELD_TYPE_NULL:
-					case Cursor.FIELD_TYPE_BLOB: // the legacy DB did not have BLOBs, anyway
-					default:
-						val = null;
-				}
+	public static String convertLegacySelection(final String selection) {
+		if (selection == null) {
+			return null;
+		}
+		final Matcher matcher = SQL_TOKENS.matcher(selection);
+		final StringBuffer result = new StringBuffer(selection.length());
+		while (matcher.find()) {
+			final String newCol = convertLegacySelectionColumn(matcher.group());
+			if (newCol != null) {
+				matcher.appendReplacement(result, Matcher.quoteReplacement(newCol));
 			}
-			//Log.d("nononsenseapps db", "legacy notes col: " + val);
-			retval[i] = val;
 		}
-		return retval;
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	private static String convertLegacySelectionColumn(final String col) {
+		if (NotePad.Notes.COLUMN_NAME_LIST.equalsIgnoreCase(col)) {
+			return Task.Columns.DBLIST;
+		} else if (NotePad.Notes.COLUMN_NAME_DUE_DATE.equalsIgnoreCase(col)) {
+			// RFC3339 in UTC with milliseconds, which sorts and compares like
+			// the time. LegacyTaskCursor returns the same strings
+			return "IFNULL(strftime('%Y-%m-%dT%H:%M:%fZ', " + Task.Columns.DUE
+					+ " / 1000.0, 'unixepoch'),'')";
+		} else if (NotePad.Notes.COLUMN_NAME_GTASKS_STATUS.equalsIgnoreCase(col)) {
+			return "(CASE WHEN " + Task.Columns.COMPLETED
+					+ " IS NULL THEN 'needsAction' ELSE 'completed' END)";
+		} else if (NotePad.Notes.COLUMN_NAME_DELETED.equalsIgnoreCase(col)
+				|| NotePad.Notes.COLUMN_NAME_MODIFIED.equalsIgnoreCase(col)
+				|| NotePad.Notes.COLUMN_NAME_HIDDEN.equalsIgnoreCase(col)
+				|| NotePad.Notes.COLUMN_NAME_LOCALHIDDEN.equalsIgnoreCase(col)) {
+			// Deleted tasks are in another table, nothing is hidden
+			return "0";
+		}
+		return null;
 	}
 }
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
+
+/**
+ * Copies the lists, notes and reminders of the legacy database, or of the
+ * donate app, into the task tables.
+ *
+ * The rows are first copied as they are into staging tables, in
+ * transactions of {@link #CHUNK} rows. The staging tables are the
+ * checkpoint: a migration which was interrupted continues after the
+ * highest id staged of each table.
+ *
+ * Then everything is converted in one transaction, with a few statements
+ * working on all rows. The triggers which would run for each inserted task
+ * are dropped meanwhile. What they do is done afterwards, once for all
+ * tasks: positions, previews, history, search index and open counts. The
+ * staging tables are dropped with the same commit.
+ */
+public final class LegacyMigrator {
+
+	// Rows staged per transaction
+	public static final int CHUNK = 500;
+
+	static final String STAGING_PREFIX = "legacy_";
+	// Order of the notes in their lists, while converting
+	private static final String ORDER_TABLE = "legacy_order";
+
+	/**
+	 * Where the legacy rows are read from
+	 */
+	public interface Source {
+		/**
+		 * @return the rows of a legacy table matching the selection with an
+		 * id above afterId, ordered by id. Null if the table is not there
+		 */
+		Cursor query(String table, String[] columns, String selection, long afterId);
+	}
+
+	/**
+	 * Told how many rows are done, on the thread which migrates
+	 */
+	public interface Progress {
+		void onProgress(int done, int total);
+	}
+
+	/**
+	 * A legacy table and what is copied of it
+	 */
+	private static final class Stage {
+		final String table;
+		final String[] columns;
+		final String selection;
+
+		Stage(final String table, final String selection, final String... columns) {
+			this.table = table;
+			this.selection = selection;
+			this.columns = columns;
+		}
+
+		String stagingTable() {
+			return STAGING_PREFIX + table;
+		}
+	}
+
+	private static final Stage LISTS = new Stage(NotePad.Lists.TABLE_NAME,
+			NotePad.Lists.COLUMN_NAME_DELETED + " IS NOT 1",
+			BaseColumns._ID, NotePad.Lists.COLUMN_NAME_TITLE);
+	private static final Stage GTASKLISTS = new Stage(NotePad.GTaskLists.TABLE_NAME, null,
+			BaseColumns._ID, NotePad.GTaskLists.COLUMN_NAME_DB_ID,
+			NotePad.GTaskLists.COLUMN_NAME_GTASKS_ID,
+			NotePad.GTaskLists.COLUMN_NAME_GOOGLE_ACCOUNT);
+	private static final Stage NOTES = new Stage(NotePad.Notes.TABLE_NAME,
+			NotePad.Notes.COLUMN_NAME_DELETED + " IS NOT 1 AND "
+					+ NotePad.Notes.COLUMN_NAME_HIDDEN + " IS NOT 1",
+			BaseColumns._ID, NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE,
+			NotePad.Notes.COLUMN_NAME_DUE_DATE, NotePad.Notes.COLUMN_NAME_GTASKS_STATUS,
+			NotePad.Notes.COLUMN_NAME_LIST, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+			NotePad.Notes.COLUMN_NAME_POSSUBSORT);
+	private static final Stage GTASKS = new Stage(NotePad.GTasks.TABLE_NAME, null,
+			BaseColumns._ID, NotePad.GTasks.COLUMN_NAME_DB_ID,
+			NotePad.GTasks.COLUMN_NAME_GTASKS_ID, NotePad.GTasks.COLUMN_NAME_GOOGLE_ACCOUNT);
+	private static final Stage NOTIFICATIONS = new Stage(NotePad.Notifications.TABLE_NAME, null,
+			BaseColumns._ID, NotePad.Notifications.COLUMN_NAME_TIME,
+			NotePad.Notifications.COLUMN_NAME_NOTEID);
+
+	private static final Stage[] STAGES = { LISTS, GTASKLISTS, NOTES, GTASKS, NOTIFICATIONS };
+
+	/*
+	 * The triggers run for every inserted task, and how to create them again
+	 */
+	private static final String[][] INSERT_TRIGGERS = {
+			{ "task_pre_insert", Task.TRIGGER_PRE_INSERT },
+			{ "task_post_insert", Task.TRIGGER_POST_INSERT },
+			{ "trigger_insert_" + Task.HISTORY_TABLE_NAME, Task.CREATE_HISTORY_INSERT_TRIGGER },
+			{ "task_preview_insert", Task.TRIGGER_PREVIEW_INSERT },
+			{ "task_fts_insert", Task.CREATE_FTS_TRIGGERS[0] },
+			{ "task_count_insert", TaskList.TRIGGER_COUNT_INSERT } };
+
+	// Parameters: the offset of the new list ids, the time
+	private static final String INSERT_LISTS = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s, %4$s) SELECT ?1 + %5$s, IFNULL(%6$s, ''), ?2 FROM %7$s",
+			TaskList.TABLE_NAME, TaskList.Columns._ID, TaskList.Columns.TITLE,
+			TaskList.Columns.UPDATED, BaseColumns._ID, NotePad.Lists.COLUMN_NAME_TITLE,
+			LISTS.stagingTable());
+
+	private static final String INSERT_REMOTE_LISTS = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s, %4$s, %5$s, %6$s)"
+					+ " SELECT ?1 + l.%7$s, g.%8$s, ?2, g.%9$s, '%10$s'"
+					+ " FROM %11$s l JOIN %12$s g ON g.%13$s = l.%7$s"
+					+ " WHERE IFNULL(g.%8$s, '') != '' AND IFNULL(g.%9$s, '') != ''",
+			RemoteTaskList.TABLE_NAME, RemoteTaskList.Columns.DBID,
+			RemoteTaskList.Columns.REMOTEID, RemoteTaskList.Columns.UPDATED,
+			RemoteTaskList.Columns.ACCOUNT, RemoteTaskList.Columns.SERVICE, BaseColumns._ID,
+			NotePad.GTaskLists.COLUMN_NAME_GTASKS_ID,
+			NotePad.GTaskLists.COLUMN_NAME_GOOGLE_ACCOUNT, GoogleTaskList.SERVICENAME,
+			LISTS.stagingTable(), GTASKLISTS.stagingTable(),
+			NotePad.GTaskLists.COLUMN_NAME_DB_ID);
+
+	private static final String CREATE_ORDER_TABLE = "CREATE TEMP TABLE " + ORDER_TABLE
+			+ " (pos INTEGER PRIMARY KEY, " + BaseColumns._ID + " INTEGER NOT NULL, "
+			+ NotePad.Notes.COLUMN_NAME_LIST + " INTEGER NOT NULL)";
+
+	// Notes of lists that were staged, each list in the order the legacy app
+	// showed it: by possubsort, then newest first, as every note went to the
+	// top of its list when they were copied one by one. Rows are staged in
+	// id order for the checkpoint, so they are put in order here
+	private static final String FILL_ORDER_TABLE = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s) SELECT n.%2$s, n.%3$s FROM %4$s n"
+					+ " JOIN %5$s l ON l.%2$s = n.%3$s"
+					+ " ORDER BY n.%3$s, IFNULL(n.%6$s, ''), n.%2$s DESC",
+			ORDER_TABLE, BaseColumns._ID, NotePad.Notes.COLUMN_NAME_LIST,
+			NOTES.stagingTable(), LISTS.stagingTable(), NotePad.Notes.COLUMN_NAME_POSSUBSORT);
+
+	// RFC3339 to milliseconds, null if not a date
+	private static final String DUE_MILLIS = "CAST(ROUND((julianday(n."
+			+ NotePad.Notes.COLUMN_NAME_DUE_DATE + ") - 2440587.5) * 86400000) AS INTEGER)";
+
+	private static final String LOCKED = "[locked]";
+
+	// Parameters: the offset of the new task ids, of the new list ids, the
+	// time. Positions are spaced like after Task.renumber
+	private static final String INSERT_TASKS = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s, %4$s, %5$s, %6$s, %7$s, %8$s, %9$s, %10$s, %11$s)"
+					+ " SELECT ?1 + n.%12$s, IFNULL(n.%13$s, ''),"
+					+ " replace(IFNULL(n.%14$s, ''), '%15$s', ''),"
+					+ " CASE WHEN n.%16$s = 'completed' THEN ?3 END,"
+					+ " IFNULL(n.%17$s, 0), %18$s,"
+					+ " instr(IFNULL(n.%14$s, ''), '%15$s') > 0,"
+					+ " %19$d + (o.pos - f.first) * %20$d, %19$d + (o.pos - f.first) * %20$d + 1,"
+					+ " ?2 + n.%21$s"
+					+ " FROM %22$s o JOIN %23$s n ON n.%12$s = o.%12$s"
+					+ " JOIN (SELECT %21$s, MIN(pos) AS first FROM %22$s GROUP BY %21$s) f"
+					+ " ON f.%21$s = o.%21$s",
+			Task.TABLE_NAME, Task.Columns._ID, Task.Columns.TITLE, Task.Columns.NOTE,
+			Task.Columns.COMPLETED, Task.Columns.UPDATED, Task.Columns.DUE,
+			Task.Columns.LOCKED, Task.Columns.LEFT, Task.Columns.RIGHT, Task.Columns.DBLIST,
+			BaseColumns._ID, NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE,
+			LOCKED, NotePad.Notes.COLUMN_NAME_GTASKS_STATUS,
+			NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, DUE_MILLIS, Task.POS_START,
+			Task.POS_STEP, NotePad.Notes.COLUMN_NAME_LIST, ORDER_TABLE, NOTES.stagingTable());
+
+	// Parameters: the offset of the new task ids, of the new list ids
+	private static final String INSERT_REMOTE_TASKS = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s, %4$s, %5$s, %6$s, %7$s)"
+					+ " SELECT ?1 + n.%8$s, ?2 + n.%9$s, g.%10$s, IFNULL(n.%11$s, 0), g.%12$s, '%13$s'"
+					+ " FROM %14$s o JOIN %15$s n ON n.%8$s = o.%8$s JOIN %16$s g ON g.%17$s = n.%8$s"
+					+ " WHERE IFNULL(g.%10$s, '') != '' AND IFNULL(g.%12$s, '') != ''",
+			RemoteTask.TABLE_NAME, RemoteTask.Columns.DBID, RemoteTask.Columns.LISTDBID,
+			RemoteTask.Columns.REMOTEID, RemoteTask.Columns.UPDATED, RemoteTask.Columns.ACCOUNT,
+			RemoteTask.Columns.SERVICE, BaseColumns._ID, NotePad.Notes.COLUMN_NAME_LIST,
+			NotePad.GTasks.COLUMN_NAME_GTASKS_ID, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+			NotePad.GTasks.COLUMN_NAME_GOOGLE_ACCOUNT, GoogleTaskList.SERVICENAME, ORDER_TABLE,
+			NOTES.stagingTable(), GTASKS.stagingTable(), NotePad.GTasks.COLUMN_NAME_DB_ID);
+
+	// Parameter: the offset of the new task ids
+	private static final String INSERT_NOTIFICATIONS = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s) SELECT x.%4$s, ?1 + x.%5$s"
+					+ " FROM %6$s x JOIN %7$s o ON o.%8$s = x.%5$s",
+			Notification.TABLE_NAME, Notification.Columns.TIME, Notification.Columns.TASKID,
+			NotePad.Notifications.COLUMN_NAME_TIME, NotePad.Notifications.COLUMN_NAME_NOTEID,
+			NOTIFICATIONS.stagingTable(), ORDER_TABLE, BaseColumns._ID);
+
+	// What the history and search triggers would have added, for the tasks
+	// above an id
+	private static final String INSERT_HISTORY = String.format(
+			"INSERT INTO %1$s (%2$s, %3$s, %4$s) SELECT %5$s, %3$s, %4$s FROM %6$s WHERE %5$s > ?",
+			Task.HISTORY_TABLE_NAME, Task.Columns.HIST_TASK_ID, Task.Columns.TITLE,
+			Task.Columns.NOTE, Task.Columns._ID, Task.TABLE_NAME);
+
+	private static final String INSERT_FTS = String.format(
+			"INSERT INTO %1$s (docid, %2$s, %3$s) SELECT %4$s, %2$s, %3$s FROM %5$s WHERE %4$s > ?",
+			Task.FTS_TABLE_NAME, Task.Columns.TITLE, Task.Columns.NOTE, Task.Columns._ID,
+			Task.TABLE_NAME);
+
+	private LegacyMigrator() {
+	}
+
+	/**
+	 * Reads a legacy database, as opened by {@link LegacyDBHelper}
+	 */
+	public static Source databaseSource(final SQLiteDatabase legacyDB) {
+		return (table, columns, selection, afterId) -> {
+			if (DatabaseUtils.longForQuery(legacyDB,
+					"SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+					new String[] { table }) == 0) {
+				return null;
+			}
+			final String where = BaseColumns._ID + " > ?";
+			return legacyDB.query(table, columns,
+					selection == null ? where : "(" + selection + ") AND " + where,
+					new String[] { Long.toString(afterId) }, null, null, BaseColumns._ID);
+		};
+	}
+
+	/**
+	 * @return true if a migration was started and not finished
+	 */
+	public static boolean isPending(final SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db,
+				"SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+				new String[] { LISTS.stagingTable() }) > 0;
+	}
+
+	/**
+	 * Makes {@link #isPending} true, for a migration to run later
+	 */
+	public static void markPending(final SQLiteDatabase db) {
+		createStagingTables(db);
+	}
+
+	/**
+	 * Drops what was staged, the migration is not pending anymore
+	 */
+	public static void abandon(final SQLiteDatabase db) {
+		for (Stage stage : STAGES) {
+			db.execSQL("DROP TABLE IF EXISTS " + stage.stagingTable());
+		}
+	}
+
+	/**
+	 * Stages what is left to stage of the source, then converts it all.
+	 * The query cache is cleared, content observers are left to the caller.
+	 *
+	 * @param progress may be null
+	 * @return the number of tasks added
+	 */
+	public static int migrate(final SQLiteDatabase db, final Source source,
+							  final Progress progress) {
+		createStagingTables(db);
+
+		final Cursor[] cursors = new Cursor[STAGES.length];
+		try {
+			int done = 0;
+			int total = 0;
+			for (int i = 0; i < STAGES.length; i++) {
+				final String staging = STAGES[i].stagingTable();
+				final int staged = (int) DatabaseUtils.queryNumEntries(db, staging);
+				cursors[i] = source.query(STAGES[i].table, STAGES[i].columns,
+						STAGES[i].selection, DatabaseUtils.longForQuery(db,
+								"SELECT IFNULL(MAX(" + BaseColumns._ID + "), 0) FROM " + staging,
+								null));
+				done += staged;
+				total += staged + (cursors[i] == null ? 0 : cursors[i].getCount());
+			}
+			if (done > 0) {
+				NnnLogger.debug(LegacyMigrator.class, "Resuming after " + done + " rows");
+			}
+			for (int i = 0; i < STAGES.length; i++) {
+				if (cursors[i] != null) {
+					done = stage(db, STAGES[i], cursors[i], progress, done, total);
+				}
+			}
+		} finally {
+			for (Cursor c : cursors) {
+				if (c != null) {
+					c.close();
+				}
+			}
+		}
+
+		return convert(db);
+	}
+
+	private static void createStagingTables(final SQLiteDatabase db) {
+		for (Stage stage : STAGES) {
+			final StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
+					.append(stage.stagingTable()).append(" (")
+					.append(BaseColumns._ID).append(" INTEGER PRIMARY KEY");
+			for (int i = 1; i < stage.columns.length; i++) {
+				sql.append(", ").append(stage.columns[i]);
+			}
+			db.execSQL(sql.append(")").toString());
+		}
+	}
+
+	/**
+	 * Copies the rows of the cursor, committing every CHUNK rows
+	 *
+	 * @return done, plus the rows copied
+	 */
+	private static int stage(final SQLiteDatabase db, final Stage stage, final Cursor cursor,
+							 final Progress progress, int done, final int total) {
+		final StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+				.append(stage.stagingTable()).append(" (")
+				.append(DAO.arrayToCommaString(stage.columns)).append(") VALUES (?");
+		for (int i = 1; i < stage.columns.length; i++) {
+			sql.append(", ?");
+		}
+		final SQLiteStatement insert = db.compileStatement(sql.append(")").toString());
+		try {
+			db.beginTransaction();
+			try {
+				int inChunk = 0;
+				while (cursor.moveToNext()) {
+					final Object[] row = RowCursor.copyRow(cursor, stage.columns.length);
+					for (int col = 0; col < row.length; col++) {
+						DatabaseUtils.bindObjectToProgram(insert, col + 1, row[col]);
+					}
+					insert.executeInsert();
+					done++;
+					if (++inChunk == CHUNK) {
+						db.setTransactionSuccessful();
+						db.endTransaction();
+						db.beginTransaction();
+						inChunk = 0;
+						if (progress != null) {
+							progress.onProgress(done, total);
+						}
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} finally {
+			insert.close();
+		}
+		if (progress != null) {
+			progress.onProgress(done, total);
+		}
+		return done;
+	}
+
+	/**
+	 * Converts all staged rows in one transaction and drops the staging
+	 * tables.
+	 *
+	 * @return the number of tasks added
+	 */
+	private static int convert(final SQLiteDatabase db) {
+		int tasks = 0;
+		db.beginTransaction();
+		try {
+			final long listOffset = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+					+ TaskList.Columns._ID + "), 0) FROM " + TaskList.TABLE_NAME, null);
+			final long taskOffset = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+					+ Task.Columns._ID + "), 0) FROM " + Task.TABLE_NAME, null);
+			final long now = System.currentTimeMillis();
+
+			for (String[] trigger : INSERT_TRIGGERS) {
+				db.execSQL("DROP TRIGGER IF EXISTS " + trigger[0]);
+			}
+
+			db.execSQL(INSERT_LISTS, new Object[] { listOffset, now });
+			db.execSQL(INSERT_REMOTE_LISTS, new Object[] { listOffset, now });
+
+			db.execSQL("DROP TABLE IF EXISTS " + ORDER_TABLE);
+			db.execSQL(CREATE_ORDER_TABLE);
+			db.execSQL(FILL_ORDER_TABLE);
+			db.execSQL(INSERT_TASKS, new Object[] { taskOffset, listOffset, now });
+			db.execSQL(INSERT_REMOTE_TASKS, new Object[] { taskOffset, listOffset });
+			db.execSQL(INSERT_NOTIFICATIONS, new Object[] { taskOffset });
+			tasks = (int) DatabaseUtils.queryNumEntries(db, ORDER_TABLE);
+
+			// What the dropped triggers do, once for all new tasks
+			final Object[] newTasks = new Object[] { taskOffset };
+			db.execSQL(Task.FILL_PREVIEW + " WHERE " + Task.Columns._ID + " > ?", newTasks);
+			db.execSQL(INSERT_HISTORY, newTasks);
+			db.execSQL(INSERT_FTS, newTasks);
+			db.execSQL(TaskList.RECOUNT + " WHERE " + TaskList.Columns._ID + " > ?",
+					new Object[] { listOffset });
+
+			for (String[] trigger : INSERT_TRIGGERS) {
+				db.execSQL(trigger[1]);
+			}
+
+			db.execSQL("DROP TABLE " + ORDER_TABLE);
+			for (Stage stage : STAGES) {
+				db.execSQL("DROP TABLE " + stage.stagingTable());
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		QueryCache.getInstance().clear();
+		NnnLogger.debug(LegacyMigrator.class, "Migrated " + tasks + " tasks");
+		return tasks;
+	}
+}
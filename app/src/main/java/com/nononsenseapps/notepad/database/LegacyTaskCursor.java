@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The tasks as the legacy notes URIs return them, translated when a column
+ * is read instead of being copied row by row.
+ *
+ * The wrapped cursor has the columns of the projection, converted by
+ * {@link LegacyDBHelper#convertLegacyColumns(String[])}, in the same order.
+ * Its column names are the legacy ones. Due dates read as RFC3339 strings in
+ * UTC with milliseconds, the format selections compare them in (see
+ * {@link LegacyDBHelper#convertLegacySelection(String)}), or "" when not set, completion as "completed" or "needsAction", other
+ * columns as they are stored. Reading those two as numbers gives the stored
+ * times.
+ */
+public final class LegacyTaskCursor extends CursorWrapper {
+
+	private static final int PLAIN = 0;
+	private static final int DUE = 1;
+	private static final int STATUS = 2;
+
+	private static final String STATUS_COMPLETED = "completed";
+	private static final String STATUS_NEEDS_ACTION = "needsAction";
+
+	// Same as strftime('%Y-%m-%dT%H:%M:%fZ')
+	private static final String DUE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+	private final String[] mColumns;
+	private final int[] mKinds;
+	// Reused for every row
+	private final SimpleDateFormat mDueFormat = new SimpleDateFormat(DUE_FORMAT, Locale.US);
+	private final Date mDue = new Date();
+
+	public LegacyTaskCursor(final Cursor cursor, final String[] legacyColumns) {
+		super(cursor);
+		if (legacyColumns.length != cursor.getColumnCount()) {
+			throw new IllegalArgumentException("Expected " + cursor.getColumnCount()
+					+ " column names, got " + legacyColumns.length);
+		}
+		mColumns = legacyColumns;
+		mDueFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		mKinds = new int[legacyColumns.length];
+		for (int i = 0; i < legacyColumns.length; i++) {
+			final String column = cursor.getColumnName(i);
+			if (Task.Columns.DUE.equals(column)) {
+				mKinds[i] = DUE;
+			} else if (Task.Columns.COMPLETED.equals(column)) {
+				mKinds[i] = STATUS;
+			} else {
+				mKinds[i] = PLAIN;
+			}
+		}
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return mColumns.clone();
+	}
+
+	@Override
+	public String getColumnName(final int columnIndex) {
+		return mColumns[columnIndex];
+	}
+
+	@Override
+	public int getColumnIndex(final String columnName) {
+		// Like SQLiteCursor, ignore the table and the case
+		final String name = columnName.substring(columnName.lastIndexOf('.') + 1);
+		for (int i = 0; i < mColumns.length; i++) {
+			if (mColumns[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getColumnIndexOrThrow(final String columnName) {
+		final int index = getColumnIndex(columnName);
+		if (index < 0) {
+			throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+		}
+		return index;
+	}
+
+	@Override
+	public int getType(final int columnIndex) {
+		return mKinds[columnIndex] == PLAIN ? super.getType(columnIndex)
+				: Cursor.FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public boolean isNull(final int columnIndex) {
+		return mKinds[columnIndex] == PLAIN && super.isNull(columnIndex);
+	}
+
+	@Override
+	public String getString(final int columnIndex) {
+		switch (mKinds[columnIndex]) {
+			case DUE:
+				if (super.isNull(columnIndex)) {
+					return "";
+				}
+				mDue.setTime(super.getLong(columnIndex));
+				return mDueFormat.format(mDue);
+			case STATUS:
+				return super.isNull(columnIndex) ? STATUS_NEEDS_ACTION : STATUS_COMPLETED;
+			default:
+				return super.getString(columnIndex);
+		}
+	}
+
+	@Override
+	public void copyStringToBuffer(final int columnIndex, final CharArrayBuffer buffer) {
+		if (mKinds[columnIndex] == PLAIN) {
+			super.copyStringToBuffer(columnIndex, buffer);
+			return;
+		}
+		final String value = getString(columnIndex);
+		if (buffer.data == null || buffer.data.length < value.length()) {
+			buffer.data = value.toCharArray();
+		} else {
+			value.getChars(0, value.length(), buffer.data, 0);
+		}
+		buffer.sizeCopied = value.length();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.app.AlarmManager;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.nononsenseapps.helpers.ChangeDispatcher;
+import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.helpers.PreferencesHelper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Database upkeep which can wait until the device is idle and charging:
+ * compaction and retention of the task history, retention of the archive,
+ * merging the search indexes, returning free pages to the file system and
+ * updating the statistics of the query planner.
+ *
+ * What the last run did is kept in the {@link #RECORD_PREFS} preferences:
+ * when it ran, the size of the database before and after, and how long
+ * each step took.
+ */
+public class MaintenanceJob extends JobService {
+
+	// Unique ID for the job
+	private static final int JOB_ID = 2833;
+
+	// Time for merging the search indexes, and for freeing pages, in ms
+	static final long FTS_BUDGET_MS = 30 * 1000;
+	static final long VACUUM_BUDGET_MS = 30 * 1000;
+
+	public static final String RECORD_PREFS = "maintenance";
+	// When it ran, milliseconds since 1970-01-01 UTC
+	public static final String RECORD_TIME = "time";
+	// Bytes of the database file and its log
+	public static final String RECORD_SIZE_BEFORE = "size_before";
+	public static final String RECORD_SIZE_AFTER = "size_after";
+	// Milliseconds taken by each step, missing if it did not run
+	public static final String RECORD_HISTORY_MS = "history_ms";
+	public static final String RECORD_ARCHIVE_MS = "archive_ms";
+	public static final String RECORD_FTS_MS = "fts_ms";
+	public static final String RECORD_VACUUM_MS = "vacuum_ms";
+	public static final String RECORD_OPTIMIZE_MS = "optimize_ms";
+
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+	private CancellationSignal mSignal;
+	// False once the current run has called jobFinished
+	private volatile boolean mRunning = false;
+
+	/**
+	 * Schedules the daily job, unless it already is.
+	 */
+	public static void schedule(@NonNull final Context context) {
+		final JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+		for (JobInfo job : scheduler.getAllPendingJobs()) {
+			if (job.getId() == JOB_ID) {
+				return;
+			}
+		}
+		scheduler.schedule(new JobInfo.Builder(JOB_ID,
+				new ComponentName(context, MaintenanceJob.class))
+				.setPeriodic(AlarmManager.INTERVAL_DAY)
+				.setRequiresDeviceIdle(true)
+				.setRequiresCharging(true)
+				.setPersisted(true)
+				.build());
+	}
+
+	@Override
+	public boolean onStartJob(final JobParameters params) {
+		final CancellationSignal signal = new CancellationSignal();
+		mSignal = signal;
+		mRunning = true;
+		mExecutor.execute(() -> {
+			try {
+				run(this, signal);
+			} catch (Exception e) {
+				NnnLogger.exception(e);
+			}
+			mRunning = false;
+			jobFinished(params, false);
+		});
+		return true;
+	}
+
+	@Override
+	public boolean onStopJob(final JobParameters params) {
+		// Stops after the current task, the rest is done next time
+		if (mSignal != null) {
+			mSignal.cancel();
+		}
+		// Only retry if there was something left to do
+		return mRunning;
+	}
+
+	@Override
+	public void onDestroy() {
+		// A new instance gets a new executor
+		mExecutor.shutdown();
+		super.onDestroy();
+	}
+
+	/**
+	 * Does the maintenance on the calling thread. Stops early when the signal
+	 * is canceled, the rest is done next time.
+	 */
+	static void run(@NonNull final Context context, final CancellationSignal signal) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context).getWritableDatabase();
+		final SharedPreferences.Editor record = context
+				.getSharedPreferences(RECORD_PREFS, Context.MODE_PRIVATE).edit();
+		final long sizeBefore = DatabaseHandler.getFileSize(db);
+		record.clear()
+				.putLong(RECORD_TIME, System.currentTimeMillis())
+				.putLong(RECORD_SIZE_BEFORE, sizeBefore);
+		try {
+			long start = System.currentTimeMillis();
+			final int removed = TaskHistory.compact(db,
+					PreferencesHelper.getHistoryMaxAgeDays(context),
+					PreferencesHelper.getHistoryMaxVersions(context), signal);
+			if (removed > 0) {
+				QueryCache.getInstance().changed(Task.HISTORY_TABLE_NAME);
+				ChangeDispatcher.getInstance(context).post(Task.URI_TASK_HISTORY);
+			}
+			record.putLong(RECORD_HISTORY_MS, System.currentTimeMillis() - start);
+			NnnLogger.debug(MaintenanceJob.class, "History compacted in "
+					+ (System.currentTimeMillis() - start) + " ms, removed " + removed);
+
+			start = System.currentTimeMillis();
+			final int purged = Task.purgeDeleted(db,
+					PreferencesHelper.getArchiveMaxAgeDays(context),
+					PreferencesHelper.getArchiveMaxRows(context), signal);
+			if (purged > 0) {
+				QueryCache.getInstance().changed(Task.DELETE_TABLE_NAME);
+				ChangeDispatcher.getInstance(context).post(Task.URI_DELETED_QUERY);
+			}
+			record.putLong(RECORD_ARCHIVE_MS, System.currentTimeMillis() - start);
+			NnnLogger.debug(MaintenanceJob.class, "Archive purged in "
+					+ (System.currentTimeMillis() - start) + " ms, removed " + purged);
+
+			if (isCanceled(signal)) {
+				return;
+			}
+			// Every change to a task adds segments to the search indexes
+			start = System.currentTimeMillis();
+			long deadline = SystemClock.elapsedRealtime() + FTS_BUDGET_MS;
+			final int merged = DatabaseHandler.mergeFts(db, Task.FTS_TABLE_NAME, deadline, signal)
+					+ DatabaseHandler.mergeFts(db, Task.FTS_DELETE_TABLE_NAME, deadline, signal);
+			record.putLong(RECORD_FTS_MS, System.currentTimeMillis() - start);
+			NnnLogger.debug(MaintenanceJob.class, "Search indexes merged in "
+					+ (System.currentTimeMillis() - start) + " ms, " + merged + " steps");
+
+			if (isCanceled(signal)) {
+				return;
+			}
+			// The pages freed by all of the above, and by sync since last time
+			start = System.currentTimeMillis();
+			deadline = SystemClock.elapsedRealtime() + VACUUM_BUDGET_MS;
+			final long pages = DatabaseHandler.incrementalVacuum(db, deadline, signal);
+			record.putLong(RECORD_VACUUM_MS, System.currentTimeMillis() - start);
+			NnnLogger.debug(MaintenanceJob.class, "Vacuumed in "
+					+ (System.currentTimeMillis() - start) + " ms, freed " + pages + " pages");
+
+			if (isCanceled(signal)) {
+				return;
+			}
+			start = System.currentTimeMillis();
+			DatabaseHandler.optimize(db);
+			record.putLong(RECORD_OPTIMIZE_MS, System.currentTimeMillis() - start);
+			NnnLogger.debug(MaintenanceJob.class, "Statistics updated in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			final long sizeAfter = DatabaseHandler.getFileSize(db);
+			record.putLong(RECORD_SIZE_AFTER, sizeAfter).apply();
+			NnnLogger.debug(MaintenanceJob.class, "Database size was " + sizeBefore
+					+ " bytes, is " + sizeAfter);
+		}
+	}
+
+	private static boolean isCanceled(final CancellationSignal signal) {
+		return signal != null && signal.isCanceled();
+	}
+}
@@ -19,19 +19,27 @@ package com.nononsenseapps.notepad.database;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
 
 import com.nononsenseapps.helpers.NnnLogger;
-import com.nononsenseapps.helpers.UpdateNotifier;
+import com.nononsenseapps.helpers.ChangeDispatcher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 
 public class MyContentProvider extends ContentProvider {
 	public static final String AUTHORITY = "com.nononsenseapps.NotePad";
@@ -45,8 +53,15 @@ public class MyContentProvider extends ContentProvider {
 		Notification.addMatcherUris(sURIMatcher);
 		RemoteTaskList.addMatcherUris(sURIMatcher);
 		RemoteTask.addMatcherUris(sURIMatcher);
+		QueryCache.addMatcherUris(sURIMatcher);
 	}
 
+	/**
+	 * While a batch is being applied on this thread, the changes to notify are
+	 * collected here instead, and dispatched once when the batch is done.
+	 */
+	private final ThreadLocal<ChangeDispatcher.Changes> mBatchChanges = new ThreadLocal<>();
+
 	public MyContentProvider() {
 	}
 
@@ -100,11 +115,13 @@ public class MyContentProvider extends ContentProvider {
 	}
 
 	@Override
-	synchronized public Uri insert(Uri uri, ContentValues values) {
+	public Uri insert(Uri uri, ContentValues values) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 
 		Uri result = null;
+		// Lists with changed tasks, for the widgets. None by default
+		Collection<Long> listIds = Collections.emptyList();
 
 		db.beginTransaction();
 		// Do not add legacy URIs
@@ -116,6 +133,7 @@ public class MyContentProvider extends ContentProvider {
 					break;
 				case Task.BASEURICODE:
 					item = new Task(values);
+					listIds = Collections.singletonList(((Task) item).dblist);
 					break;
 				case Notification.BASEURICODE:
 				case Notification.WITHTASKQUERYITEMCODE:
@@ -133,6 +151,9 @@ public class MyContentProvider extends ContentProvider {
 			}
 
 			result = item.insert(getContext(), db);
+			if (item instanceof TaskList) {
+				listIds = Collections.singletonList(item._id);
+			}
 			db.setTransactionSuccessful();
 		} catch (SQLException e) {
 			// Crap...
@@ -141,25 +162,23 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result != null) {
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
-			UpdateNotifier.notifyChangeList(getContext());
+			tablesChanged(uri);
+			notifyChanges(Arrays.asList(uri, TaskList.URI_WITH_COUNT), listIds);
 		}
 
 		return result;
 	}
 
 	@Override
-	synchronized public int update(Uri uri, ContentValues values,
-								   String selection, String[] selectionArgs) {
+	public int update(Uri uri, ContentValues values,
+					  String selection, String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
 		final Task t;
-		final SQLiteStatement stmt;
-		final String sql;
 		final ArrayList<Uri> updateUris = new ArrayList<>();
+		// Lists with changed tasks, for the widgets. Null if not known
+		Collection<Long> listIds = Collections.emptyList();
 		db.beginTransaction();
 
 		try {
@@ -169,27 +188,39 @@ public class MyContentProvider extends ContentProvider {
 					updateUris.add(TaskList.URI);
 					updateUris.add(TaskList.URI_WITH_COUNT);
 					final TaskList list = new TaskList(uri, values);
-					result += db.update(TaskList.TABLE_NAME, list.getContent(),
+					listIds = Collections.singletonList(list._id);
+					result += selection == null ? list.updateRow(db)
+							: db.update(TaskList.TABLE_NAME, list.getContent(),
 							TaskList.whereIdIs(selection),
 							TaskList.whereIdArg(list._id, selectionArgs));
 					break;
 				case Task.MOVEITEMLEFTCODE:
 					updateUris.add(Task.URI);
-					t = new Task(values);
-					sql = t.getSQLMoveItemLeft(values);
-					if (sql != null) {
-						stmt = db.compileStatement(sql);
-						result += stmt.executeUpdateDelete();
-					}
+					t = new Task(uri, values);
+					listIds = Collections.singletonList(t.dblist);
+					result += t.moveItemLeft(db, values);
 					break;
 				case Task.MOVEITEMRIGHTCODE:
 					updateUris.add(Task.URI);
-					t = new Task(values);
-					sql = t.getSQLMoveItemRight(values);
-					if (sql != null) {
-						stmt = db.compileStatement(sql);
-						result += stmt.executeUpdateDelete();
-					}
+					t = new Task(uri, values);
+					listIds = Collections.singletonList(t.dblist);
+					result += t.moveItemRight(db, values);
+					break;
+				case Task.MOVETASKSCODE:
+					updateUris.add(Task.URI);
+					updateUris.add(TaskList.URI);
+					updateUris.add(TaskList.URI_WITH_COUNT);
+					listIds = new HashSet<>();
+					result += Task.moveTasks(db, values, selection, selectionArgs, listIds);
+					break;
+				case Task.COMPLETETASKSCODE:
+					updateUris.add(Task.URI);
+					updateUris.add(Task.URI_SECTIONED_BY_DATE);
+					updateUris.add(TaskList.URI);
+					updateUris.add(TaskList.URI_WITH_COUNT);
+					// The ids are the selection args
+					listIds = new HashSet<>();
+					result += Task.setCompleted(db, values, selectionArgs, listIds);
 					break;
 				case Task.BASEITEMCODE:
 					updateUris.add(Task.URI);
@@ -201,8 +232,10 @@ public class MyContentProvider extends ContentProvider {
 					t = new Task(uri, values);
 					if (t.getContent().size() > 0) {
 						// Something changed in task
+						listIds = listsOfTask(db, t._id, t.dblist);
 
-						result += db.update(Task.TABLE_NAME, t.getContent(),
+						result += selection == null ? t.updateRow(db)
+								: db.update(Task.TABLE_NAME, t.getContent(),
 								Task.whereIdIs(selection),
 								Task.whereIdArg(t._id, selectionArgs));
 					}
@@ -212,6 +245,7 @@ public class MyContentProvider extends ContentProvider {
 					updateUris.add(TaskList.URI);
 					updateUris.add(TaskList.URI_WITH_COUNT);
 					// Batch. No checks made
+					listIds = null;
 					result += db.update(Task.TABLE_NAME, values, selection,
 							selectionArgs);
 					break;
@@ -261,19 +295,16 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result >= 0) {
-			for (Uri u : updateUris) {
-				DAO.notifyProviderOnChange(getContext(), u);
-			}
-			UpdateNotifier.updateWidgets(getContext());
-			UpdateNotifier.notifyChangeList(getContext());
+			tablesChanged(uri);
+			notifyChanges(updateUris, listIds);
 		}
 
 		return result;
 	}
 
-	synchronized private int safeDeleteItem(final SQLiteDatabase db,
-											final String tableName, final Uri uri, final String selection,
-											final String[] selectionArgs) {
+	private int safeDeleteItem(final SQLiteDatabase db,
+							   final String tableName, final Uri uri, final String selection,
+							   final String[] selectionArgs) {
 		db.beginTransaction();
 		int result = 0;
 		try {
@@ -291,25 +322,31 @@ public class MyContentProvider extends ContentProvider {
 	}
 
 	@Override
-	synchronized public int delete(Uri uri, String selection,
-								   String[] selectionArgs) {
+	public int delete(Uri uri, String selection,
+					  String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
+		// Lists with changed tasks, for the widgets. Null if not known
+		Collection<Long> listIds = Collections.emptyList();
 		// Do not add legacy URIs
 		switch (sURIMatcher.match(uri)) {
 			case TaskList.BASEITEMCODE:
+				listIds = Collections.singletonList(Long.parseLong(uri.getLastPathSegment()));
 				result += safeDeleteItem(db, TaskList.TABLE_NAME, uri, selection,
 						selectionArgs);
 				break;
 			case TaskList.BASEURICODE:
+				listIds = null;
 				result += db.delete(TaskList.TABLE_NAME, selection, selectionArgs);
 				break;
 			case Task.BASEITEMCODE:
+				listIds = listsOfTask(db, Long.parseLong(uri.getLastPathSegment()), null);
 				result += safeDeleteItem(db, Task.TABLE_NAME, uri, selection,
 						selectionArgs);
 				break;
 			case Task.BASEURICODE:
+				listIds = null;
 				result += db.delete(Task.TABLE_NAME, selection, selectionArgs);
 				break;
 			case Notification.BASEURICODE:
@@ -351,17 +388,180 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result > 0) {
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
-			UpdateNotifier.notifyChangeList(getContext());
+			tablesChanged(uri);
+			notifyChanges(Arrays.asList(uri, TaskList.URI_WITH_COUNT), listIds);
 		}
 		return result;
 	}
 
+	/**
+	 * Inserts all rows in a single transaction. Either all rows are inserted,
+	 * or none of them. Listeners are notified once, when all rows are in.
+	 *
+	 * @return the number of rows inserted
+	 */
+	@Override
+	public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final boolean outermost = beginBatch();
+		boolean success = false;
+		db.beginTransaction();
+		try {
+			for (ContentValues v : values) {
+				if (insert(uri, v) == null) {
+					// Already rolled back by the failed insert
+					return 0;
+				}
+			}
+			db.setTransactionSuccessful();
+			success = true;
+		} finally {
+			db.endTransaction();
+			endBatch(outermost, success);
+		}
+		return values.length;
+	}
+
+	/**
+	 * Applies all operations in a single transaction, so back-references
+	 * between them are always valid and a failure leaves the database
+	 * untouched. Listeners are notified once, when the whole batch is done.
+	 */
+	@NonNull
 	@Override
-	synchronized public Cursor query(Uri uri, String[] projection,
-									 String selection, String[] selectionArgs, String sortOrder) {
+	public ContentProviderResult[] applyBatch(
+			@NonNull ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final boolean outermost = beginBatch();
+		boolean success = false;
+		db.beginTransaction();
+		try {
+			final ContentProviderResult[] results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			success = true;
+			return results;
+		} finally {
+			db.endTransaction();
+			endBatch(outermost, success);
+		}
+	}
+
+	/**
+	 * @return true if this started the outermost batch on this thread
+	 */
+	private boolean beginBatch() {
+		if (mBatchChanges.get() != null) {
+			return false;
+		}
+		mBatchChanges.set(new ChangeDispatcher.Changes());
+		return true;
+	}
+
+	private void endBatch(final boolean outermost, final boolean success) {
+		if (!outermost) {
+			return;
+		}
+		final ChangeDispatcher.Changes changes = mBatchChanges.get();
+		mBatchChanges.remove();
+		// The writes of the batch outdated the cache before they were
+		// committed, so do it again
+		QueryCache.getInstance().clear();
+		if (success && !changes.isEmpty()) {
+			final ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(getContext());
+			dispatcher.post(changes);
+			// The transaction is done, no reason to wait for more
+			dispatcher.flush();
+		}
+	}
+
+	/**
+	 * Outdates the cached results of the tables written through the uri. Call
+	 * after the transaction, or a query could cache the rows from before it
+	 * as if they were current.
+	 */
+	private static void tablesChanged(final Uri uri) {
+		QueryCache.getInstance().changed(QueryCache.tablesWrittenBy(sURIMatcher.match(uri)));
+	}
+
+	/**
+	 * Notifies listeners of the given uris, requests a sync and updates the
+	 * widgets showing the given lists. Inside a batch, this is postponed until
+	 * the batch is done. Otherwise, changes close in time are sent together.
+	 *
+	 * @param listIds the lists with changed tasks, or null if not known
+	 */
+	private void notifyChanges(final Collection<Uri> uris, final Collection<Long> listIds) {
+		final ChangeDispatcher.Changes batch = mBatchChanges.get();
+		if (batch != null) {
+			batch.add(uris, listIds);
+			return;
+		}
+		ChangeDispatcher.getInstance(getContext())
+				.post(new ChangeDispatcher.Changes().add(uris, listIds));
+	}
+
+	/**
+	 * @return the list the task is in now, and the one it is moved to if
+	 * that is in its values
+	 */
+	private static Collection<Long> listsOfTask(final SQLiteDatabase db, final long taskId,
+												final Long newListId) {
+		final ArrayList<Long> listIds = new ArrayList<>();
+		if (newListId != null) {
+			listIds.add(newListId);
+		}
+		try (Cursor c = db.query(Task.TABLE_NAME, new String[] { Task.Columns.DBLIST },
+				Task.whereIdIs(null), Task.whereIdArg(taskId), null, null, null)) {
+			if (c.moveToFirst()) {
+				listIds.add(c.getLong(0));
+			}
+		}
+		return listIds;
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection,
+						String selection, String[] selectionArgs, String sortOrder) {
+		return query(uri, projection, selection, selectionArgs, sortOrder, null);
+	}
+
+	/**
+	 * Searches stop early when the signal is canceled, other queries ignore
+	 * it. Recent results are reused while their tables are unchanged, see
+	 * {@link QueryCache}.
+	 */
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection,
+						String[] selectionArgs, String sortOrder,
+						CancellationSignal cancellationSignal) {
+		final int code = sURIMatcher.match(uri);
+		if (code == QueryCache.STATSCODE) {
+			return QueryCache.getInstance().stats();
+		}
+		final String[] tables = QueryCache.tablesReadBy(code, uri, selection, sortOrder);
+		if (tables == null) {
+			return queryDatabase(uri, projection, selection, selectionArgs, sortOrder,
+					cancellationSignal);
+		}
+
+		final QueryCache cache = QueryCache.getInstance();
+		final String key = QueryCache.key(uri, projection, selection, selectionArgs, sortOrder);
+		final Cursor cached = cache.get(key, getContext().getContentResolver());
+		if (cached != null) {
+			return cached;
+		}
+		// Before reading, a write committed meanwhile outdates the result
+		final long[] versions = cache.versions(tables);
+		return cache.put(key, tables, versions, queryDatabase(uri, projection, selection,
+				selectionArgs, sortOrder, cancellationSignal), getContext().getContentResolver());
+	}
+
+	private Cursor queryDatabase(Uri uri, String[] projection, String selection,
+								 String[] selectionArgs, String sortOrder,
+								 CancellationSignal cancellationSignal) {
 		Cursor result;
 		final long id;
 		switch (sURIMatcher.match(uri)) {
@@ -387,42 +587,57 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case TaskList.VIEWCOUNTCODE:
-				// Create view if not exists
-				DatabaseHandler
-						.getInstance(getContext())
-						.getWritableDatabase()
-						.execSQL(TaskList.CREATE_COUNT_VIEW);
-
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						// may crash here. android.database.sqlite.SQLiteException: no such table: lists_with_count (code 1 SQLITE_ERROR): , while compiling: SELECT _id, title, count FROM lists_with_count ORDER BY title COLLATE NOCASE
-						.query(TaskList.VIEWCOUNT_NAME, projection, selection,
+						.query(TaskList.TABLE_NAME, TaskList.withCountProjection(projection), selection,
 								selectionArgs, null, null, sortOrder);
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Task.DELETEDQUERYCODE:
 				final String[] query = sanitize(selectionArgs);
+				if (query[0].isEmpty() || query[0].equals("'*'")) {
+					result = DatabaseHandler
+							.getInstance(getContext())
+							.getReadableDatabase()
+							.query(Task.DELETE_TABLE_NAME, TaskSearch.withoutMatch(
+									projection != null ? projection : Task.Columns.DELETEFIELDS),
+									null, null, null, null, sortOrder);
+				} else {
+					result = search(Task.FTS_DELETE_TABLE_NAME, Task.DELETE_TABLE_NAME,
+							projection != null ? projection : Task.Columns.DELETEFIELDS,
+							query[0], selection, sortOrder, null, cancellationSignal);
+				}
+
+				result.setNotificationUri(getContext().getContentResolver(), Task.URI_DELETED_QUERY);
+				break;
+			case Task.DELETEDITEMCODE:
+				// Whole rows, searches only have excerpts of the notes
+				id = Long.parseLong(uri.getLastPathSegment());
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
 						.query(Task.DELETE_TABLE_NAME,
-								Task.Columns.DELETEFIELDS,
-								Task.Columns._ID + " IN (SELECT " + Task.Columns._ID
-										+ " FROM " + Task.FTS3_DELETE_TABLE_NAME
-										+ ((query[0].isEmpty() || query[0].equals("'*'")) ? ")"
-										: (" WHERE " + Task.FTS3_DELETE_TABLE_NAME + " MATCH ?)")),
-								(query[0].isEmpty() || query[0].equals("'*'")) ? null : query,
+								projection != null ? projection : Task.Columns.DELETEFIELDS,
+								Task.whereIdIs(selection),
+								Task.joinArrays(selectionArgs, new String[] { String.valueOf(id) }),
 								null, null, sortOrder);
-
 				result.setNotificationUri(getContext().getContentResolver(), Task.URI_DELETED_QUERY);
 				break;
 			case Task.BASEURICODE:
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.TABLE_NAME, projection, selection,
-								selectionArgs, null, null, sortOrder);
+				final String paged = uri.getQueryParameter(Task.PAGED);
+				result = paged == null ? null : PagedTaskCursor.query(DatabaseHandler
+								.getInstance(getContext())
+								.getReadableDatabase(),
+						projection, selection, selectionArgs, sortOrder,
+						Integer.parseInt(paged));
+				if (result == null) {
+					result = DatabaseHandler
+							.getInstance(getContext())
+							.getReadableDatabase()
+							.query(Task.TABLE_NAME, projection, selection,
+									selectionArgs, null, null, sortOrder);
+				}
 
 				result.setNotificationUri(getContext().getContentResolver(),
 						Task.URI);
@@ -448,33 +663,21 @@ public class MyContentProvider extends ContentProvider {
 				} else {
 					listId = selectionArgs[0];
 				}
-				// Create view if not exists
-				DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-						.execSQL(Task.CREATE_SECTIONED_DATE_VIEW(listId));
-
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.getSECTION_DATE_VIEW_NAME(listId),
-								projection,
-								selection,
-								selectionArgs,
-								null,
-								null,
-								Task.SECRET_TYPEID + "," + Task.Columns.DUE + ","
-										+ Task.SECRET_TYPEID2);
+				result = SectionedDateCursor.query(DatabaseHandler
+								.getInstance(getContext())
+								.getReadableDatabase(),
+						projection, selection, selectionArgs, listId);
 
 				result.setNotificationUri(getContext().getContentResolver(),
 						Task.URI);
 				break;
 			case Task.HISTORYQUERYCODE:
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.HISTORY_TABLE_NAME, projection, selection,
-								selectionArgs, null, null,
-								Task.Columns.UPDATED + " ASC");
-				// SQLite timestamp in updated column.
+				// Older versions are rebuilt from deltas. SQLite timestamp in
+				// updated column.
+				result = TaskHistory.query(DatabaseHandler
+								.getInstance(getContext())
+								.getReadableDatabase(),
+						projection, selection, selectionArgs);
 
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
@@ -492,14 +695,11 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Notification.WITHTASKQUERYITEMCODE:
-				// Create view if not exists
-				DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-						.execSQL(Notification.CREATE_JOINED_VIEW);
 				id = Long.parseLong(uri.getLastPathSegment());
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						.query(Notification.WITH_TASK_VIEW_NAME,
+						.query(Notification.JOINED_VIEW,
 								projection,
 								Notification.whereIdIs(selection),
 								Notification.joinArrays(selectionArgs,
@@ -516,13 +716,10 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Notification.WITHTASKQUERYCODE:
-				// Create view if not exists
-				DatabaseHandler.getInstance(getContext()).getWritableDatabase()
-						.execSQL(Notification.CREATE_JOINED_VIEW);
 				result = DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
-						.query(Notification.WITH_TASK_VIEW_NAME, projection,
+						.query(Notification.JOINED_VIEW, projection,
 								selection, selectionArgs, null, null, sortOrder);
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
@@ -543,16 +740,10 @@ public class MyContentProvider extends ContentProvider {
 				result.setNotificationUri(getContext().getContentResolver(), uri);
 				break;
 			case Task.SEARCHCODE:
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.TABLE_NAME,
-								Task.Columns.FIELDS,
-								Task.Columns._ID + " IN (SELECT "
-										+ Task.Columns._ID + " FROM "
-										+ Task.FTS3_TABLE_NAME + " WHERE "
-										+ Task.FTS3_TABLE_NAME + " MATCH ?)",
-								sanitize(selectionArgs), null, null, sortOrder);
+				result = search(Task.FTS_TABLE_NAME, Task.TABLE_NAME,
+						projection != null ? projection : Task.Columns.FIELDS,
+						sanitize(selectionArgs)[0], selection, sortOrder, null,
+						cancellationSignal);
 				result.setNotificationUri(getContext().getContentResolver(),
 						Task.URI_SEARCH);
 				break;
@@ -585,43 +776,38 @@ public class MyContentProvider extends ContentProvider {
 				break;
 			case Task.LEGACYBASEURICODE:
 			case Task.LEGACYVISIBLEURICODE:
-				final Cursor c = DatabaseHandler
+				final String[] legacyColumns = projection != null ? projection
+						: Task.Columns.FIELDS;
+				result = new LegacyTaskCursor(DatabaseHandler
 						.getInstance(getContext())
 						.getReadableDatabase()
 						.query(Task.TABLE_NAME,
-								LegacyDBHelper.convertLegacyColumns(projection),
-								null, null, null, null, Task.Columns.DUE);
-				result = new MatrixCursor(projection);
-				while (c.moveToNext()) {
-					((MatrixCursor) result).addRow(LegacyDBHelper
-							.convertLegacyTaskValues(c));
-				}
-				c.close();
-
+								LegacyDBHelper.convertLegacyColumns(legacyColumns),
+								LegacyDBHelper.convertLegacySelection(selection),
+								selectionArgs, null, null,
+								sortOrder != null ? LegacyDBHelper
+										.convertLegacySelection(sortOrder)
+										: Task.Columns.DUE),
+						legacyColumns);
 				result.setNotificationUri(getContext().getContentResolver(),
 						Task.URI);
 				break;
 			case Task.SEARCHSUGGESTIONSCODE:
 				final String limit = uri
 						.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
-				result = DatabaseHandler
-						.getInstance(getContext())
-						.getReadableDatabase()
-						.query(Task.FTS3_TABLE_NAME,
-								new String[] {
-										Task.Columns._ID,
-										Task.Columns._ID
-												+ " AS "
-												+ SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
-										Task.Columns.TITLE
-												+ " AS "
-												+ SearchManager.SUGGEST_COLUMN_TEXT_1,
-										Task.Columns.NOTE
-												+ " AS "
-												+ SearchManager.SUGGEST_COLUMN_TEXT_2 },
-								Task.FTS3_TABLE_NAME + " MATCH ?",
-								sanitize(selectionArgs), null, null,
-								SearchManager.SUGGEST_COLUMN_TEXT_1, limit);
+				result = search(Task.FTS_TABLE_NAME, Task.TABLE_NAME,
+						new String[] {
+								Task.Columns._ID,
+								Task.Columns._ID
+										+ " AS "
+										+ SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
+								Task.Columns.TITLE
+										+ " AS "
+										+ SearchManager.SUGGEST_COLUMN_TEXT_1,
+								TaskSearch.PLAIN_SNIPPET
+										+ " AS "
+										+ SearchManager.SUGGEST_COLUMN_TEXT_2 },
+						sanitize(selectionArgs)[0], null, null, limit, cancellationSignal);
 				result.setNotificationUri(getContext().getContentResolver(),
 						Task.URI_SEARCH);
 				break;
@@ -637,6 +823,19 @@ public class MyContentProvider extends ContentProvider {
 		return result;
 	}
 
+	/**
+	 * Rows of the content table matching the full text query, and the
+	 * selection if any. Most relevant first, unless a sort order is given.
+	 * The projection may ask for snippets, see {@link TaskSearch#SNIPPET}
+	 */
+	private Cursor search(final String ftsTable, final String contentTable,
+						  final String[] projection, final String match,
+						  final String selection, final String sortOrder,
+						  final String limit, final CancellationSignal signal) {
+		return TaskSearch.query(DatabaseHandler.getInstance(getContext()).getReadableDatabase(),
+				ftsTable, contentTable, projection, match, selection, sortOrder, limit, signal);
+	}
+
 	private String[] sanitize(final String... args) {
 		if (args.length == 0) return new String[] { "" };
 
@@ -21,6 +21,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.provider.BaseColumns;
@@ -154,12 +155,22 @@ public class Notification extends DAO {
 			")";
 
 	/**
-	 * View that joins relevant data from tasks and lists tables
+	 * Reminders are looked up by time when scheduling, and by task when
+	 * opening the editor or cascading a delete
 	 */
-	public static final String CREATE_JOINED_VIEW = "CREATE TEMP VIEW IF NOT EXISTS " +
-			WITH_TASK_VIEW_NAME +
-			" AS " +
-			" SELECT " +
+	public static final String INDEX_TIME = "notification_time_idx";
+	public static final String CREATE_INDEX_TIME = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_TIME + " ON " + TABLE_NAME + "(" + Columns.TIME + ")";
+
+	public static final String INDEX_TASK = "notification_taskid_idx";
+	public static final String CREATE_INDEX_TASK = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_TASK + " ON " + TABLE_NAME + "(" + Columns.TASKID + ")";
+
+	/**
+	 * Joins relevant data from tasks and lists tables. A subquery to select
+	 * from, since a temp view only exists on the connection that created it.
+	 */
+	public static final String JOINED_VIEW = "(SELECT " +
 			// Notifications as normal column names
 			arrayToCommaString(TABLE_NAME + ".", Columns.FIELDS) +
 			"," +
@@ -181,7 +192,7 @@ public class Notification extends DAO {
 			TABLE_NAME + "." + Columns.TASKID +
 			" = t." + Task.Columns._ID + " AND t." +
 			Task.Columns.DBLIST + " = l." +
-			TaskList.Columns._ID + ";";
+			TaskList.Columns._ID + ") AS " + WITH_TASK_VIEW_NAME;
 
 	/**
 	 * milliseconds since 1970-01-01 UTC
@@ -230,7 +241,7 @@ public class Notification extends DAO {
 			int idx_list = c.getColumnIndex(ColumnsWithTask.listPrefix + TaskList.Columns.TITLE);
 			int idx_id = c.getColumnIndex(ColumnsWithTask.listPrefix + TaskList.Columns._ID);
 			int idx_title = c.getColumnIndex(ColumnsWithTask.taskPrefix + Task.Columns.TITLE);
-			int idx_note = c.getColumnIndex(ColumnsWithTask.taskPrefix + Task.Columns.NOTE);
+			int idx_note = c.getColumnIndex(ColumnsWithTask.taskPrefix + Task.Columns.PREVIEW);
 			listTitle = c.getString(idx_list);
 			listID = c.getLong(idx_id);
 			taskTitle = c.getString(idx_title);
@@ -294,6 +305,28 @@ public class Notification extends DAO {
 
 	}
 
+	// Columns of getContent
+	private static final String[] CONTENT_COLUMNS = { Columns.TIME, Columns.TASKID,
+			Columns.PERMANENT, Columns.REPEATS, Columns.LOCATIONNAME, Columns.LATITUDE,
+			Columns.LONGITUDE, Columns.RADIUS };
+
+	@Override
+	protected String[] getContentColumns() {
+		return CONTENT_COLUMNS;
+	}
+
+	@Override
+	protected void bindContent(final SQLiteStatement statement) {
+		bind(statement, 1, time);
+		bind(statement, 2, taskID);
+		statement.bindLong(3, permanent ? 1 : 0);
+		statement.bindLong(4, repeats);
+		bind(statement, 5, locationName);
+		bind(statement, 6, latitude);
+		bind(statement, 7, longitude);
+		bind(statement, 8, radius);
+	}
+
 	@Override
 	protected String getTableName() {
 		return TABLE_NAME;
@@ -501,7 +534,7 @@ public class Notification extends DAO {
 				// First get the list of tasks in that list
 				final Cursor c = context.getContentResolver()
 						.query(Task.URI,
-								Task.Columns.FIELDS,
+								new String[] { Task.Columns._ID },
 								Task.Columns.DBLIST
 										+ " IS ? AND "
 										+ com.nononsenseapps.notepad.database.Notification.Columns.RADIUS
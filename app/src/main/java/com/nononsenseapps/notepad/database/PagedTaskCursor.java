@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The tasks of a list read a page at a time, for lists too long to read in
+ * one go.
+ *
+ * The number of rows is counted first, then pages of {@link #PAGE_SIZE} rows
+ * are read when a row in them is asked for. The next page starts after the
+ * sort key and id of the last row of the one before it, so reading deep into
+ * the list costs the same as reading its start. Only a jump to a page whose
+ * predecessor was never read needs an offset. Getting close to the end of a
+ * page reads the next one in the background, see getPage(int). Only the last
+ * pages read are kept.
+ *
+ * Notes and previews are cut to the given length, the whole note is read
+ * when the task is opened.
+ *
+ * Like any cursor, this one doesn't follow changes: if rows are deleted
+ * before a page is read, the page comes up short and moving to the missing
+ * rows fails. The content observers are told, so the cursor gets replaced.
+ */
+public final class PagedTaskCursor extends RowCursor {
+
+	public static final int PAGE_SIZE = 50;
+	// Rows before the end of a page to start reading the next one
+	private static final int PREFETCH = 15;
+	// Pages kept in memory
+	private static final int MAX_PAGES = 8;
+
+	// Hidden columns at the end of every row: the sort key and the id
+	private static final String COL_KEY = "paged_key";
+	private static final String COL_ID = "paged_id";
+
+	// A single column, maybe with a collation and a direction
+	private static final Pattern SORT_ORDER = Pattern.compile(
+			"\\s*(\\w+)(\\s+COLLATE\\s+\\w+)?(?:\\s+(ASC|DESC))?\\s*",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final ExecutorService sPrefetcher = Executors.newSingleThreadExecutor();
+
+	private final SQLiteDatabase mDb;
+	private final String[] mColumns;
+	private final String mSelect;
+	private final String mOrder;
+	private final String mKey;
+	private final boolean mDescending;
+	private final String mSelection;
+	private final String[] mSelectionArgs;
+	private final int mCount;
+
+	// Most recently used last
+	private final LinkedHashMap<Integer, Object[][]> mPages =
+			new LinkedHashMap<Integer, Object[][]>(MAX_PAGES, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Integer, Object[][]> eldest) {
+					return size() > MAX_PAGES;
+				}
+			};
+	// Sort key and id of the last row of every page read so far
+	private final Map<Integer, Object[]> mPageEnds = new HashMap<>();
+	// Pages being read in the background
+	private final Map<Integer, FutureTask<Object[][]>> mPrefetching = new HashMap<>();
+
+	private Object[] mRow;
+
+	/**
+	 * @param sortOrder     a single column, optionally with a collation and
+	 *                      ASC or DESC
+	 * @param previewLength characters of the note to read
+	 * @return null if the tasks can't be read in pages in this order
+	 */
+	public static Cursor query(final SQLiteDatabase db, final String[] projection,
+							   final String selection, final String[] selectionArgs,
+							   final String sortOrder, final int previewLength) {
+		if (sortOrder == null) {
+			return null;
+		}
+		final Matcher m = SORT_ORDER.matcher(sortOrder);
+		if (!m.matches()) {
+			return null;
+		}
+		final PagedTaskCursor result = new PagedTaskCursor(db,
+				projection != null ? projection : Task.Columns.FIELDS, selection,
+				selectionArgs, m.group(1), m.group(2) == null ? "" : m.group(2),
+				"DESC".equalsIgnoreCase(m.group(3)), previewLength);
+		// The first page is needed right away
+		result.getPage(0);
+		return result;
+	}
+
+	private PagedTaskCursor(final SQLiteDatabase db, final String[] columns,
+							final String selection, final String[] selectionArgs,
+							final String key, final String collate,
+							final boolean descending, final int previewLength) {
+		mDb = db;
+		mColumns = columns;
+		mKey = key + collate;
+		mDescending = descending;
+		mSelection = selection;
+		mSelectionArgs = selectionArgs == null ? new String[0] : selectionArgs;
+
+		final String[] sqlColumns = new String[columns.length + 2];
+		for (int i = 0; i < columns.length; i++) {
+			if (Task.Columns.NOTE.equals(columns[i]) || Task.Columns.PREVIEW.equals(columns[i])) {
+				sqlColumns[i] = String.format("substr(%1$s, 1, %2$d) AS %1$s",
+						columns[i], previewLength);
+			} else {
+				sqlColumns[i] = columns[i];
+			}
+		}
+		sqlColumns[columns.length] = key + " AS " + COL_KEY;
+		sqlColumns[columns.length + 1] = Task.Columns._ID + " AS " + COL_ID;
+
+		final String direction = descending ? " DESC" : "";
+		mSelect = "SELECT " + DAO.arrayToCommaString(sqlColumns) + " FROM "
+				+ Task.TABLE_NAME + " WHERE ";
+		mOrder = " ORDER BY " + mKey + direction + ", " + Task.Columns._ID
+				+ direction + " LIMIT " + PAGE_SIZE;
+
+		mCount = (int) DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME, selection,
+				selectionArgs);
+	}
+
+	private String where(final String keyset) {
+		final String base = mSelection == null || mSelection.isEmpty() ? "1" : "(" + mSelection + ")";
+		return keyset == null ? base : base + " AND (" + keyset + ")";
+	}
+
+	/**
+	 * Rows after the given one in the sort order. SQLite sorts nulls first.
+	 */
+	private String keyset(final Object lastKey) {
+		final String op = mDescending ? " < ?" : " > ?";
+		if (lastKey == null) {
+			return mDescending
+					? mKey + " IS NULL AND " + Task.Columns._ID + op
+					: "(" + mKey + " IS NULL AND " + Task.Columns._ID + op + ") OR "
+					+ mKey + " IS NOT NULL";
+		}
+		final String after = mKey + op + " OR (" + mKey + " = ? AND " + Task.Columns._ID + op + ")";
+		return mDescending ? after + " OR " + mKey + " IS NULL" : after;
+	}
+
+	private Object[][] readPage(final int page) {
+		final Object[] previousEnd;
+		synchronized (this) {
+			previousEnd = page > 0 ? mPageEnds.get(page - 1) : null;
+		}
+
+		final String sql;
+		final List<String> args = new ArrayList<>(Arrays.asList(mSelectionArgs));
+		if (page == 0) {
+			sql = mSelect + where(null) + mOrder;
+		} else if (previousEnd != null) {
+			sql = mSelect + where(keyset(previousEnd[0])) + mOrder;
+			if (previousEnd[0] != null) {
+				args.add(previousEnd[0].toString());
+				args.add(previousEnd[0].toString());
+			}
+			args.add(previousEnd[1].toString());
+		} else {
+			sql = mSelect + where(null) + mOrder + " OFFSET ?";
+			args.add(Integer.toString(page * PAGE_SIZE));
+		}
+
+		final List<Object[]> rows = new ArrayList<>(PAGE_SIZE);
+		try (Cursor c = mDb.rawQuery(sql, args.toArray(new String[0]))) {
+			while (c.moveToNext()) {
+				rows.add(RowCursor.copyRow(c));
+			}
+		}
+		final Object[][] result = rows.toArray(new Object[0][]);
+
+		synchronized (this) {
+			mPages.put(page, result);
+			mPrefetching.remove(page);
+			if (result.length > 0) {
+				final Object[] last = result[result.length - 1];
+				mPageEnds.put(page, new Object[] { last[mColumns.length],
+						last[mColumns.length + 1] });
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * A cursor has to answer moves right away, so a page which is not in
+	 * memory yet is read on the calling thread. That only happens for the
+	 * first page, for jumps, and when scrolling faster than PREFETCH rows
+	 * take to read a page. A page already being prefetched is waited for
+	 * instead of being read twice.
+	 */
+	private Object[][] getPage(final int page) {
+		final FutureTask<Object[][]> pending;
+		synchronized (this) {
+			final Object[][] rows = mPages.get(page);
+			if (rows != null) {
+				return rows;
+			}
+			pending = mPrefetching.get(page);
+		}
+		if (pending != null) {
+			try {
+				final Object[][] rows = pending.get();
+				if (rows != null) {
+					return rows;
+				}
+			} catch (ExecutionException e) {
+				// Read it here instead
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// Not holding the lock while reading
+		return readPage(page);
+	}
+
+	private void prefetch(final int page) {
+		if (page < 0 || page * PAGE_SIZE >= mCount) {
+			return;
+		}
+		final FutureTask<Object[][]> task = new FutureTask<>(() -> {
+			if (isClosed()) {
+				synchronized (PagedTaskCursor.this) {
+					mPrefetching.remove(page);
+				}
+				return null;
+			}
+			try {
+				return readPage(page);
+			} catch (Exception e) {
+				// The database may have been closed, the page is read when needed
+				NnnLogger.warning(PagedTaskCursor.class, "Could not prefetch page " + page);
+				synchronized (PagedTaskCursor.this) {
+					mPrefetching.remove(page);
+				}
+				throw e;
+			}
+		});
+		synchronized (this) {
+			if (mPages.containsKey(page) || mPrefetching.containsKey(page)) {
+				return;
+			}
+			// Before it runs, so it can't be removed before it is added
+			mPrefetching.put(page, task);
+		}
+		sPrefetcher.execute(task);
+	}
+
+	@Override
+	public boolean onMove(final int oldPosition, final int newPosition) {
+		final int page = newPosition / PAGE_SIZE;
+		final int index = newPosition % PAGE_SIZE;
+		final Object[][] rows = getPage(page);
+		if (index >= rows.length) {
+			// Rows were deleted since counting
+			mRow = null;
+			onChange(true);
+			return false;
+		}
+		mRow = rows[index];
+
+		if (index >= PAGE_SIZE - PREFETCH) {
+			prefetch(page + 1);
+		} else if (index < PREFETCH) {
+			prefetch(page - 1);
+		}
+		return true;
+	}
+
+	@Override
+	public int getCount() {
+		return mCount;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return mColumns;
+	}
+
+	@Override
+	protected Object value(final int column) {
+		return mRow[column];
+	}
+}
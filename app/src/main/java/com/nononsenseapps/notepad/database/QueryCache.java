@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentResolver;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of recent provider queries. After every change the pager,
+ * the widgets, Dashclock and the navigation drawer all query again, mostly
+ * for the same rows, which are then read from memory.
+ *
+ * Every table has a version, which writes increase after they are
+ * committed. A result remembers the versions of the tables it was read
+ * from, taken before reading, and is only used while none of them changed.
+ * Writes which also change other tables through triggers or foreign keys
+ * increase those versions too.
+ *
+ * Results are copied into immutable snapshots, of which every query gets
+ * its own cursor. Large results, searches, paged task lists and queries
+ * depending on the clock are not cached.
+ */
+public final class QueryCache {
+
+	// See URI_STATS
+	public static final String STATS_PATH = "debug/querycache";
+	public static final Uri URI_STATS = Uri.withAppendedPath(
+			Uri.parse(MyContentProvider.SCHEME + MyContentProvider.AUTHORITY), STATS_PATH);
+	public static final int STATSCODE = 901;
+
+	public static final String COL_HITS = "hits";
+	public static final String COL_MISSES = "misses";
+	public static final String COL_STALE = "stale";
+	public static final String COL_ENTRIES = "entries";
+
+	// Results kept
+	private static final int MAX_ENTRIES = 32;
+	// Rows of the largest result kept
+	private static final int MAX_ROWS = 500;
+
+	private static final String[] ALL_TABLES = { TaskList.TABLE_NAME, Task.TABLE_NAME,
+			Task.HISTORY_TABLE_NAME, Task.DELETE_TABLE_NAME, Notification.TABLE_NAME,
+			RemoteTaskList.TABLE_NAME, RemoteTask.TABLE_NAME };
+
+	private static final QueryCache sInstance = new QueryCache();
+
+	private static final class Entry {
+		final String[] tables;
+		final long[] versions;
+		final String[] columns;
+		final Object[][] rows;
+		final Uri notificationUri;
+
+		Entry(final String[] tables, final long[] versions, final String[] columns,
+			  final Object[][] rows, final Uri notificationUri) {
+			this.tables = tables;
+			this.versions = versions;
+			this.columns = columns;
+			this.rows = rows;
+			this.notificationUri = notificationUri;
+		}
+	}
+
+	private final Map<String, Long> mVersions = new HashMap<>();
+	// Most recently used last
+	private final LinkedHashMap<String, Entry> mEntries =
+			new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+					return size() > MAX_ENTRIES;
+				}
+			};
+	private long mHits = 0;
+	private long mMisses = 0;
+	// Misses because the entry was out of date
+	private long mStale = 0;
+
+	static QueryCache getInstance() {
+		return sInstance;
+	}
+
+	private QueryCache() {
+	}
+
+	public static void addMatcherUris(final UriMatcher sURIMatcher) {
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, STATS_PATH, STATSCODE);
+	}
+
+	/**
+	 * @return the tables a query of the uri reads, or null if it is not cached
+	 */
+	static String[] tablesReadBy(final int code, final Uri uri, final String selection,
+								 final String sortOrder) {
+		// TODAY_START and friends are computed by SQLite from the clock
+		if ((selection != null && selection.contains("'now'"))
+				|| (sortOrder != null && sortOrder.contains("'now'"))) {
+			return null;
+		}
+		switch (code) {
+			case TaskList.BASEURICODE:
+			case TaskList.BASEITEMCODE:
+			case TaskList.VIEWCOUNTCODE:
+			case TaskList.LEGACYBASEURICODE:
+			case TaskList.LEGACYBASEITEMCODE:
+			case TaskList.LEGACYVISIBLEURICODE:
+			case TaskList.LEGACYVISIBLEITEMCODE:
+				return new String[] { TaskList.TABLE_NAME };
+			case Task.BASEURICODE:
+				// Paged cursors read as they are scrolled
+				return uri.getQueryParameter(Task.PAGED) != null ? null
+						: new String[] { Task.TABLE_NAME };
+			case Task.BASEITEMCODE:
+				return new String[] { Task.TABLE_NAME };
+			case Task.DELETEDITEMCODE:
+				return new String[] { Task.DELETE_TABLE_NAME };
+			case Notification.BASEURICODE:
+			case Notification.BASEITEMCODE:
+				return new String[] { Notification.TABLE_NAME };
+			case Notification.WITHTASKQUERYCODE:
+			case Notification.WITHTASKQUERYITEMCODE:
+				return new String[] { Notification.TABLE_NAME, Task.TABLE_NAME,
+						TaskList.TABLE_NAME };
+			case RemoteTaskList.BASEURICODE:
+				return new String[] { RemoteTaskList.TABLE_NAME };
+			case RemoteTask.BASEURICODE:
+				return new String[] { RemoteTask.TABLE_NAME };
+			default:
+				// Searches differ with every key typed, the sectioned view
+				// depends on the clock, the history is read once per dialog,
+				// legacy notes are translated as they are read
+				return null;
+		}
+	}
+
+	/**
+	 * @return the tables a write to the uri may change
+	 */
+	static String[] tablesWrittenBy(final int code) {
+		switch (code) {
+			case Notification.BASEURICODE:
+			case Notification.BASEITEMCODE:
+			case Notification.WITHTASKQUERYITEMCODE:
+				return new String[] { Notification.TABLE_NAME };
+			case RemoteTaskList.BASEURICODE:
+			case RemoteTaskList.BASEITEMCODE:
+				return new String[] { RemoteTaskList.TABLE_NAME };
+			case RemoteTask.BASEURICODE:
+			case RemoteTask.BASEITEMCODE:
+				return new String[] { RemoteTask.TABLE_NAME };
+			case Task.DELETEDQUERYCODE:
+			case Task.DELETEDITEMCODE:
+				return new String[] { Task.DELETE_TABLE_NAME };
+			default:
+				// Lists and tasks. Their triggers keep the counts, the history
+				// and the archive, deletes cascade to reminders and remote items
+				return ALL_TABLES;
+		}
+	}
+
+	static String key(final Uri uri, final String[] projection, final String selection,
+					  final String[] selectionArgs, final String sortOrder) {
+		return uri + "\n" + Arrays.toString(projection) + "\n" + selection + "\n"
+				+ Arrays.toString(selectionArgs) + "\n" + sortOrder;
+	}
+
+	/**
+	 * @return a cursor on the cached result, or null if there is none which
+	 * is up to date
+	 */
+	synchronized Cursor get(final String key, final ContentResolver resolver) {
+		final Entry entry = mEntries.get(key);
+		if (entry == null) {
+			mMisses++;
+			return null;
+		}
+		if (!Arrays.equals(entry.versions, versions(entry.tables))) {
+			mEntries.remove(key);
+			mMisses++;
+			mStale++;
+			return null;
+		}
+		mHits++;
+		return new Snapshot(entry, resolver);
+	}
+
+	/**
+	 * To be taken before the query is made
+	 */
+	synchronized long[] versions(final String[] tables) {
+		final long[] result = new long[tables.length];
+		for (int i = 0; i < tables.length; i++) {
+			final Long version = mVersions.get(tables[i]);
+			result[i] = version == null ? 0 : version;
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps a copy of the result, if it is small enough
+	 *
+	 * @param versions of the tables, from before the query was made
+	 * @return a cursor on the copy, or the given cursor if it was not copied
+	 */
+	Cursor put(final String key, final String[] tables, final long[] versions,
+			   final Cursor cursor, final ContentResolver resolver) {
+		if (cursor == null || cursor.getCount() > MAX_ROWS) {
+			return cursor;
+		}
+		final String[] columns = cursor.getColumnNames();
+		final Uri notificationUri = cursor.getNotificationUri();
+		final Object[][] rows = new Object[cursor.getCount()][];
+		try {
+			cursor.moveToPosition(-1);
+			while (cursor.moveToNext()) {
+				rows[cursor.getPosition()] = RowCursor.copyRow(cursor);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		final Entry entry = new Entry(tables, versions, columns, rows, notificationUri);
+		synchronized (this) {
+			// A write may have been committed while reading
+			if (Arrays.equals(versions, versions(tables))) {
+				mEntries.put(key, entry);
+			}
+		}
+		return new Snapshot(entry, resolver);
+	}
+
+	/**
+	 * Call when the given tables were changed, after the transaction
+	 */
+	synchronized void changed(final String... tables) {
+		for (String table : tables) {
+			final Long version = mVersions.get(table);
+			mVersions.put(table, version == null ? 1 : version + 1);
+		}
+	}
+
+	/**
+	 * Forgets all results, like when the database is replaced
+	 */
+	synchronized void clear() {
+		changed(ALL_TABLES);
+		mEntries.clear();
+	}
+
+	/**
+	 * @return a single row, with COL_HITS, COL_MISSES, COL_STALE and
+	 * COL_ENTRIES
+	 */
+	synchronized Cursor stats() {
+		final MatrixCursor result = new MatrixCursor(new String[] { COL_HITS, COL_MISSES,
+				COL_STALE, COL_ENTRIES }, 1);
+		result.addRow(new Object[] { mHits, mMisses, mStale, mEntries.size() });
+		return result;
+	}
+
+	/**
+	 * A cursor on a cached result. The rows are shared, never changed.
+	 */
+	private static final class Snapshot extends RowCursor {
+
+		private final Entry mEntry;
+
+		Snapshot(final Entry entry, final ContentResolver resolver) {
+			mEntry = entry;
+			if (entry.notificationUri != null) {
+				setNotificationUri(resolver, entry.notificationUri);
+			}
+		}
+
+		@Override
+		protected Object value(final int column) {
+			checkPosition();
+			return mEntry.rows[getPosition()][column];
+		}
+
+		@Override
+		public int getCount() {
+			return mEntry.rows.length;
+		}
+
+		@Override
+		public String[] getColumnNames() {
+			return mEntry.columns;
+		}
+
+		@Override
+		public byte[] getBlob(final int column) {
+			final byte[] value = super.getBlob(column);
+			// Copied, the row is shared
+			return value == null ? null : value.clone();
+		}
+	}
+}
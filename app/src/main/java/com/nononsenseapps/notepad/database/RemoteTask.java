@@ -93,6 +93,26 @@ public class RemoteTask extends DAO {
 			// Cant delete on cascade because we must sync before!
 			")";
 
+	/**
+	 * Sync looks up remote items by their local item, and all items of a
+	 * remote list. The triggers below do the same.
+	 */
+	public static final String INDEX_DBID = "remotetask_dbid_idx";
+	public static final String CREATE_INDEX_DBID = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_DBID + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.DBID, Columns.SERVICE, Columns.ACCOUNT) + ")";
+
+	public static final String INDEX_LISTDBID = "remotetask_listdbid_idx";
+	public static final String CREATE_INDEX_LISTDBID = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_LISTDBID + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.LISTDBID, Columns.ACCOUNT, Columns.SERVICE) + ")";
+
+	// Finding the local task of a remote one, see getTaskWithRemoteClause
+	public static final String INDEX_REMOTEID = "remotetask_remoteid_idx";
+	public static final String CREATE_INDEX_REMOTEID = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_REMOTEID + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.REMOTEID, Columns.ACCOUNT) + ")";
+
 	/*
 	 * Trigger to delete items when their list is deleted
 	 */
@@ -94,6 +94,14 @@ public class RemoteTaskList extends DAO {
 			// Cant delete on cascade, since then we cant remember to sync it!
 			")";
 
+	/**
+	 * Sync looks up remote lists by their local list
+	 */
+	public static final String INDEX_DBID = "remotetasklist_dbid_idx";
+	public static final String CREATE_INDEX_DBID = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_DBID + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.DBID, Columns.SERVICE, Columns.ACCOUNT) + ")";
+
 	// milliseconds since 1970-01-01 UTC
 	public Long updated = null;
 
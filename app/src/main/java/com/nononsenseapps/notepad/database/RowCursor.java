@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * A cursor on rows copied out of another one, see {@link #copyRow(Cursor)}.
+ * Values are kept as Long, Double, String, byte[] or null, like SQLite
+ * returned them. Subclasses say where the row at the current position is.
+ */
+public abstract class RowCursor extends AbstractCursor {
+
+	/**
+	 * @return the value in the column of the current row
+	 */
+	protected abstract Object value(final int column);
+
+	/**
+	 * @return the values of the current row of the cursor
+	 */
+	public static Object[] copyRow(final Cursor c) {
+		return copyRow(c, c.getColumnCount());
+	}
+
+	/**
+	 * @return the values of the first columns of the current row
+	 */
+	public static Object[] copyRow(final Cursor c, final int columns) {
+		final Object[] row = new Object[columns];
+		for (int i = 0; i < columns; i++) {
+			switch (c.getType(i)) {
+				case Cursor.FIELD_TYPE_INTEGER:
+					row[i] = c.getLong(i);
+					break;
+				case Cursor.FIELD_TYPE_FLOAT:
+					row[i] = c.getDouble(i);
+					break;
+				case Cursor.FIELD_TYPE_STRING:
+					row[i] = c.getString(i);
+					break;
+				case Cursor.FIELD_TYPE_BLOB:
+					row[i] = c.getBlob(i);
+					break;
+				case Cursor.FIELD_TYPE_NULL:
+				default:
+					row[i] = null;
+			}
+		}
+		return row;
+	}
+
+	@Override
+	public int getType(final int column) {
+		final Object value = value(column);
+		if (value == null) {
+			return FIELD_TYPE_NULL;
+		} else if (value instanceof Long) {
+			return FIELD_TYPE_INTEGER;
+		} else if (value instanceof Double) {
+			return FIELD_TYPE_FLOAT;
+		} else if (value instanceof byte[]) {
+			return FIELD_TYPE_BLOB;
+		}
+		return FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public String getString(final int column) {
+		final Object value = value(column);
+		return value == null ? null : value.toString();
+	}
+
+	@Override
+	public byte[] getBlob(final int column) {
+		final Object value = value(column);
+		return value instanceof byte[] ? (byte[]) value : null;
+	}
+
+	@Override
+	public short getShort(final int column) {
+		return (short) getLong(column);
+	}
+
+	@Override
+	public int getInt(final int column) {
+		return (int) getLong(column);
+	}
+
+	@Override
+	public long getLong(final int column) {
+		final Object value = value(column);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return value == null ? 0 : Long.parseLong(value.toString());
+	}
+
+	@Override
+	public float getFloat(final int column) {
+		return (float) getDouble(column);
+	}
+
+	@Override
+	public double getDouble(final int column) {
+		final Object value = value(column);
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		return value == null ? 0 : Double.parseDouble(value.toString());
+	}
+
+	@Override
+	public boolean isNull(final int column) {
+		return value(column) == null;
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Calendar;
+
+/**
+ * The tasks of a list sorted by due date, with a header row before each
+ * section: overdue, today, the next four days, later, no date and completed.
+ * Tasks are read with a single query, the headers are added here.
+ *
+ * Rows look like those of the old sectioned view. Headers have id -1, their
+ * key as title and the start of their section as due date.
+ * {@link Task#SECRET_TYPEID} is 0 for dated tasks and their headers, 1 for
+ * tasks without date and their header, 2 for the completed header and 3 for
+ * completed tasks. {@link Task#SECRET_TYPEID2} is 0 for headers and 1 for
+ * tasks.
+ */
+final class SectionedDateCursor extends AbstractCursor {
+
+	// Sections, in the order they are shown
+	private static final int OVERDUE = 0;
+	private static final int TODAY = 1;
+	private static final int PLUS1 = 2;
+	private static final int LATER = 6;
+	private static final int NODATE = 7;
+	private static final int COMPLETE = 8;
+
+	private static final String[] HEADER_KEYS = { Task.HEADER_KEY_OVERDUE,
+			Task.HEADER_KEY_TODAY, Task.HEADER_KEY_PLUS1, Task.HEADER_KEY_PLUS2,
+			Task.HEADER_KEY_PLUS3, Task.HEADER_KEY_PLUS4, Task.HEADER_KEY_LATER,
+			Task.HEADER_KEY_NODATE, Task.HEADER_KEY_COMPLETE };
+
+	// Hidden columns at the end of the query, used to find the sections
+	private static final String COL_SECTION_TYPE = "section_typeid";
+	private static final String COL_SECTION_DUE = "section_due";
+
+	/**
+	 * @param listId the list the tasks are in, set on the headers. Can be null
+	 */
+	static Cursor query(final SQLiteDatabase db, final String[] projection,
+						final String selection, final String[] selectionArgs,
+						final String listId) {
+		final String[] columns = projection != null ? projection
+				: DAO.joinArrays(Task.Columns.FIELDS,
+				new String[] { Task.SECRET_TYPEID, Task.SECRET_TYPEID2 });
+
+		final String[] sqlColumns = new String[columns.length + 2];
+		for (int i = 0; i < columns.length; i++) {
+			if (Task.SECRET_TYPEID.equals(columns[i])) {
+				sqlColumns[i] = Task.SECTIONED_DATE_TYPE + " AS " + Task.SECRET_TYPEID;
+			} else if (Task.SECRET_TYPEID2.equals(columns[i])) {
+				sqlColumns[i] = "1 AS " + Task.SECRET_TYPEID2;
+			} else {
+				sqlColumns[i] = columns[i];
+			}
+		}
+		sqlColumns[columns.length] = Task.SECTIONED_DATE_TYPE + " AS " + COL_SECTION_TYPE;
+		sqlColumns[columns.length + 1] = Task.Columns.DUE + " AS " + COL_SECTION_DUE;
+
+		final Cursor c = db.query(Task.TABLE_NAME, sqlColumns, selection,
+				selectionArgs, null, null,
+				COL_SECTION_TYPE + "," + COL_SECTION_DUE);
+		return new SectionedDateCursor(c, columns, listId, System.currentTimeMillis());
+	}
+
+	private final Cursor mCursor;
+	private final String[] mColumns;
+	// Start of each section, see header rows. Indexed by section
+	private final long[] mStarts = new long[COMPLETE + 1];
+	private final Object[][] mHeaders = new Object[COMPLETE + 1][];
+	// A row of mCursor if >= 0, else the header of section -(value + 1)
+	private int[] mRows;
+	private int mCount = 0;
+
+	private SectionedDateCursor(final Cursor cursor, final String[] columns,
+								final String listId, final long now) {
+		mCursor = cursor;
+		mColumns = columns;
+
+		// Day boundaries, computed once instead of for every row
+		final Calendar day = Calendar.getInstance();
+		day.setTimeInMillis(now);
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+		mStarts[OVERDUE] = 0;
+		mStarts[TODAY] = now;
+		for (int section = PLUS1; section <= LATER; section++) {
+			day.add(Calendar.DAY_OF_MONTH, 1);
+			mStarts[section] = day.getTimeInMillis();
+		}
+
+		Long list = null;
+		try {
+			list = listId == null ? null : Long.valueOf(listId);
+		} catch (NumberFormatException ignored) {
+		}
+		for (int section = 0; section < mHeaders.length; section++) {
+			mHeaders[section] = headerRow(section, list);
+		}
+
+		buildRows();
+	}
+
+	private Object[] headerRow(final int section, final Long listId) {
+		final Object[] row = new Object[mColumns.length];
+		for (int i = 0; i < mColumns.length; i++) {
+			final String col = mColumns[i];
+			if (Task.Columns._ID.equals(col)) {
+				row[i] = -1L;
+			} else if (Task.Columns.TITLE.equals(col)) {
+				row[i] = HEADER_KEYS[section];
+			} else if (Task.Columns.DUE.equals(col)) {
+				if (section == NODATE) {
+					row[i] = null;
+				} else if (section == COMPLETE) {
+					// Sorts before all completed tasks, whatever their due
+					row[i] = mStarts[OVERDUE];
+				} else {
+					row[i] = mStarts[section];
+				}
+			} else if (Task.Columns.COMPLETED.equals(col)) {
+				row[i] = section == COMPLETE ? 1L : null;
+			} else if (Task.Columns.DBLIST.equals(col)) {
+				row[i] = listId;
+			} else if (Task.SECRET_TYPEID.equals(col)) {
+				row[i] = section == NODATE ? 1L : (section == COMPLETE ? 2L : 0L);
+			} else if (Task.SECRET_TYPEID2.equals(col)) {
+				row[i] = 0L;
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * One pass over the tasks, adding a header where a new section starts
+	 */
+	private void buildRows() {
+		final int taskCount = mCursor.getCount();
+		mRows = new int[taskCount + mHeaders.length];
+		final int typeCol = mColumns.length;
+		final int dueCol = mColumns.length + 1;
+
+		int lastSection = -1;
+		mCursor.moveToPosition(-1);
+		while (mCursor.moveToNext()) {
+			final int section = sectionOf(mCursor.getInt(typeCol),
+					mCursor.isNull(dueCol) ? null : mCursor.getLong(dueCol));
+			if (section != lastSection) {
+				mRows[mCount++] = -(section + 1);
+				lastSection = section;
+			}
+			mRows[mCount++] = mCursor.getPosition();
+		}
+	}
+
+	private int sectionOf(final int type, final Long due) {
+		if (type == 3) {
+			return COMPLETE;
+		} else if (type == 1 || due == null) {
+			return NODATE;
+		}
+		int section = OVERDUE;
+		while (section < LATER && due >= mStarts[section + 1]) {
+			section++;
+		}
+		return section;
+	}
+
+	/**
+	 * @return the header row at the current position, or null if it is a task
+	 */
+	private Object[] header() {
+		final int row = mRows[mPos];
+		return row < 0 ? mHeaders[-row - 1] : null;
+	}
+
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		final int row = mRows[newPosition];
+		return row < 0 || mCursor.moveToPosition(row);
+	}
+
+	@Override
+	public int getCount() {
+		return mCount;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return mColumns;
+	}
+
+	@Override
+	public String getString(int column) {
+		final Object[] header = header();
+		if (header == null) {
+			return mCursor.getString(column);
+		}
+		return header[column] == null ? null : header[column].toString();
+	}
+
+	@Override
+	public short getShort(int column) {
+		return (short) getLong(column);
+	}
+
+	@Override
+	public int getInt(int column) {
+		return (int) getLong(column);
+	}
+
+	@Override
+	public long getLong(int column) {
+		final Object[] header = header();
+		if (header == null) {
+			return mCursor.getLong(column);
+		} else if (header[column] instanceof Long) {
+			return (Long) header[column];
+		}
+		return 0;
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return getLong(column);
+	}
+
+	@Override
+	public double getDouble(int column) {
+		return getLong(column);
+	}
+
+	@Override
+	public byte[] getBlob(int column) {
+		final Object[] header = header();
+		return header == null ? mCursor.getBlob(column) : null;
+	}
+
+	@Override
+	public int getType(int column) {
+		final Object[] header = header();
+		if (header == null) {
+			return mCursor.getType(column);
+		} else if (header[column] == null) {
+			return FIELD_TYPE_NULL;
+		} else if (header[column] instanceof Long) {
+			return FIELD_TYPE_INTEGER;
+		}
+		return FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		final Object[] header = header();
+		return header == null ? mCursor.isNull(column) : header[column] == null;
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		mCursor.close();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Compiled insert, update and delete statements of the DAO classes, so
+ * writing many rows, like sync and restore do, doesn't build and compile
+ * the same SQL for every row.
+ *
+ * Statements are kept per thread, like the database keeps a connection per
+ * thread in a transaction. A statement holds its arguments until it runs,
+ * so sharing them would need a lock, and a thread waiting for that lock
+ * could hold up the transaction of the thread holding it.
+ *
+ * Statements are found by their table, then by their column array, which
+ * must be a constant.
+ */
+final class StatementCache {
+
+	private static final ThreadLocal<StatementCache> sCaches = new ThreadLocal<>();
+
+	private final SQLiteDatabase mDb;
+	// By table, then by column array
+	private final Map<String, Map<String[], SQLiteStatement>> mInserts = new HashMap<>();
+	private final Map<String, Map<String[], SQLiteStatement>> mUpdates = new HashMap<>();
+	private final Map<String, SQLiteStatement> mDeletes = new HashMap<>();
+
+	private StatementCache(final SQLiteDatabase db) {
+		mDb = db;
+	}
+
+	/**
+	 * @return the statements of this thread for the database
+	 */
+	static StatementCache get(final SQLiteDatabase db) {
+		StatementCache cache = sCaches.get();
+		if (cache == null || cache.mDb != db) {
+			// The database was reopened, or this is another one
+			if (cache != null) {
+				cache.close();
+			}
+			cache = new StatementCache(db);
+			sCaches.set(cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * INSERT INTO table (columns) VALUES (?, ...)
+	 */
+	SQLiteStatement insert(final String table, final String[] columns) {
+		final Map<String[], SQLiteStatement> inserts = ofTable(mInserts, table);
+		SQLiteStatement statement = inserts.get(columns);
+		if (statement == null) {
+			final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+					.append(" (").append(DAO.arrayToCommaString(columns)).append(") VALUES (");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i == 0 ? "?" : ",?");
+			}
+			statement = mDb.compileStatement(sql.append(")").toString());
+			inserts.put(columns, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * UPDATE table SET column = ?, ... WHERE _id IS ?, the id bound last
+	 */
+	SQLiteStatement update(final String table, final String[] columns) {
+		final Map<String[], SQLiteStatement> updates = ofTable(mUpdates, table);
+		SQLiteStatement statement = updates.get(columns);
+		if (statement == null) {
+			final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i == 0 ? "" : ",").append(columns[i]).append(" = ?");
+			}
+			sql.append(" WHERE ").append(BaseColumns._ID).append(" IS ?");
+			statement = mDb.compileStatement(sql.toString());
+			updates.put(columns, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * DELETE FROM table WHERE _id IS ?
+	 */
+	SQLiteStatement delete(final String table) {
+		SQLiteStatement statement = mDeletes.get(table);
+		if (statement == null) {
+			statement = mDb.compileStatement("DELETE FROM " + table + " WHERE "
+					+ BaseColumns._ID + " IS ?");
+			mDeletes.put(table, statement);
+		}
+		return statement;
+	}
+
+	private static Map<String[], SQLiteStatement> ofTable(
+			final Map<String, Map<String[], SQLiteStatement>> statements, final String table) {
+		Map<String[], SQLiteStatement> result = statements.get(table);
+		if (result == null) {
+			result = new IdentityHashMap<>();
+			statements.put(table, result);
+		}
+		return result;
+	}
+
+	private void close() {
+		for (Map<String[], SQLiteStatement> inserts : mInserts.values()) {
+			for (SQLiteStatement statement : inserts.values()) {
+				statement.close();
+			}
+		}
+		for (Map<String[], SQLiteStatement> updates : mUpdates.values()) {
+			for (SQLiteStatement statement : updates.values()) {
+				statement.close();
+			}
+		}
+		for (SQLiteStatement statement : mDeletes.values()) {
+			statement.close();
+		}
+	}
+}
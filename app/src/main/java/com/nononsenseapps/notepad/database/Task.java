@@ -23,8 +23,12 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.CancellationSignal;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
@@ -32,8 +36,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * An object that represents the task information contained in the database.
@@ -49,15 +58,12 @@ public class Task extends DAO {
 	// SQL convention says Table name should be "singular"
 	public static final String TABLE_NAME = "task";
 	public static final String DELETE_TABLE_NAME = "deleted_task";
-	public static final String FTS3_DELETE_TABLE_NAME = "fts3_deleted_task";
+	public static final String FTS_DELETE_TABLE_NAME = "fts4_deleted_task";
 	public static final String HISTORY_TABLE_NAME = "history";
 	private static final String SECTIONED_DATE_VIEW = "sectioned_date_view";
-	public static final String FTS3_TABLE_NAME = "fts3_task";
-
-	public static String getSECTION_DATE_VIEW_NAME(final String listId) {
-		// listId CAN be null. Hence the string concat hack
-		return SECTIONED_DATE_VIEW + "_" + listId;
-	}
+	public static final String FTS_TABLE_NAME = "fts4_task";
+	// Path of the search URI, named after the first search table
+	private static final String SEARCH = "fts3_task";
 
 	// Used in sectioned view date
 	static final String FAR_FUTURE = "strftime('%s','3999-01-01') * 1000";
@@ -91,6 +97,22 @@ public class Task extends DAO {
 		return Uri.withAppendedPath(URI, Long.toString(id));
 	}
 
+	// Query parameter of URI, the length of the note previews. See getPagedUri
+	public static final String PAGED = "paged";
+
+	/**
+	 * For lists of tasks read a page at a time as they are shown, with only
+	 * the start of every note. Lists sorted on more than one column are read
+	 * in one go.
+	 *
+	 * @param previewLength characters of the notes to read
+	 */
+	public static Uri getPagedUri(final int previewLength) {
+		return URI.buildUpon()
+				.appendQueryParameter(PAGED, Integer.toString(previewLength))
+				.build();
+	}
+
 	public static final int BASEURICODE = 201;
 	public static final int BASEITEMCODE = 202;
 	public static final int DELETEDQUERYCODE = 209;
@@ -100,6 +122,8 @@ public class Task extends DAO {
 	public static final int HISTORYQUERYCODE = 213;
 	public static final int MOVEITEMLEFTCODE = 214;
 	public static final int MOVEITEMRIGHTCODE = 215;
+	public static final int MOVETASKSCODE = 216;
+	public static final int COMPLETETASKSCODE = 217;
 	// Legacy support, these also need to use legacy projections
 	public static final int LEGACYBASEURICODE = 221;
 	public static final int LEGACYBASEITEMCODE = 222;
@@ -119,6 +143,10 @@ public class Task extends DAO {
 				+ MOVEITEMLEFT + "/#", MOVEITEMLEFTCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ MOVEITEMRIGHT + "/#", MOVEITEMRIGHTCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ MOVETASKS, MOVETASKSCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ COMPLETETASKS, COMPLETETASKSCODE);
 
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ DELETEDQUERY, DELETEDQUERYCODE);
@@ -146,7 +174,7 @@ public class Task extends DAO {
 				LEGACYVISIBLEITEMCODE);
 
 		// Search URI
-		sURIMatcher.addURI(MyContentProvider.AUTHORITY, FTS3_TABLE_NAME,
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, SEARCH,
 				SEARCHCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY,
 				SearchManager.SUGGEST_URI_PATH_QUERY, SEARCHSUGGESTIONSCODE);
@@ -157,8 +185,13 @@ public class Task extends DAO {
 	}
 
 	public static final String TARGETPOS = "targetpos";
+	// Values of a multi-task move, see moveTasks
+	public static final String TARGETID = "targetid";
+	public static final String TARGETAFTER = "targetafter";
 	private static final String MOVEITEMLEFT = "moveitemleft";
 	private static final String MOVEITEMRIGHT = "moveitemright";
+	private static final String MOVETASKS = "movetasks";
+	private static final String COMPLETETASKS = "completetasks";
 	private static final String DELETEDQUERY = "deletedquery";
 
 	// Special URI to look at backup table
@@ -173,11 +206,15 @@ public class Task extends DAO {
 	// Search URI
 	public static final Uri URI_SEARCH = Uri.withAppendedPath(
 			Uri.parse(MyContentProvider.SCHEME + MyContentProvider.AUTHORITY),
-			FTS3_TABLE_NAME);
+			SEARCH);
 
 	// Special URI to use when a move is requested
 	private static final Uri URI_WRITE_MOVEITEMLEFT = Uri.withAppendedPath(URI, MOVEITEMLEFT);
 	private static final Uri URI_WRITE_MOVEITEMRIGHT = Uri.withAppendedPath(URI, MOVEITEMRIGHT);
+	// Moves all tasks matching the selection in one go
+	public static final Uri URI_WRITE_MOVETASKS = Uri.withAppendedPath(URI, MOVETASKS);
+	// Completes the tasks given as selection args, see setCompletedSynced
+	public static final Uri URI_WRITE_COMPLETETASKS = Uri.withAppendedPath(URI, COMPLETETASKS);
 
 	private Uri getMoveItemLeftUri() {
 		if (_id < 1) {
@@ -204,18 +241,25 @@ public class Task extends DAO {
 		public static final String DUE = "due";
 		public static final String UPDATED = "updated";
 		public static final String LOCKED = "locked";
+		// Start of the note, kept by triggers. See PREVIEW_LENGTH
+		public static final String PREVIEW = "preview";
 
 		public static final String LEFT = "lft";
 		public static final String RIGHT = "rgt";
 
 		public static final String[] FIELDS = { _ID, TITLE, NOTE, COMPLETED,
 				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
+		// For lists of tasks: like FIELDS, with the preview in place of the note
+		public static final String[] PREVIEWFIELDS = { _ID, TITLE, PREVIEW, COMPLETED,
+				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
 		public static final String[] FIELDS_NO_ID = { TITLE, NOTE, COMPLETED,
 				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
-		public static final String[] SHALLOWFIELDS = { _ID, TITLE, NOTE,
+		public static final String[] SHALLOWFIELDS = { _ID, TITLE, PREVIEW,
 				DBLIST, COMPLETED, DUE, UPDATED, LOCKED };
 		public static final String TRIG_DELETED = "deletedtime";
 		public static final String HIST_TASK_ID = "taskid";
+		// Older versions are stored as a delta, see TaskHistory
+		public static final String HIST_DELTA = "delta";
 		// Used to read the table. Deleted field set by database
 		public static final String[] DELETEFIELDS = { _ID, TITLE, NOTE,
 				COMPLETED, DUE, DBLIST, TRIG_DELETED };
@@ -244,6 +288,9 @@ public class Task extends DAO {
 			Columns.LEFT + " INTEGER NOT NULL DEFAULT 1," + Columns.RIGHT +
 			" INTEGER NOT NULL DEFAULT 2," + Columns.DBLIST + " INTEGER NOT NULL," +
 
+			// Last, where upgrades add it
+			Columns.PREVIEW + " TEXT NOT NULL DEFAULT ''," +
+
 			// Positions must be positive and ordered!
 			" CHECK(" + Columns.LEFT + " > 0), " + " CHECK(" + Columns.RIGHT + " > 1), " +
 
@@ -256,6 +303,55 @@ public class Task extends DAO {
 			"FOREIGN KEY(" + Columns.DBLIST + ") REFERENCES " + TaskList.TABLE_NAME + "(" +
 			TaskList.Columns._ID + ") ON DELETE CASCADE" + ")";
 
+	/*
+	 * Indexes. Every list load filters on the list and orders by position or
+	 * due date, and the position triggers below look up rows in the same list.
+	 */
+	public static final String INDEX_LIST_LEFT = "task_dblist_lft_idx";
+	public static final String CREATE_INDEX_LIST_LEFT = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_LIST_LEFT + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.DBLIST, Columns.LEFT) + ")";
+
+	public static final String INDEX_LIST_RIGHT = "task_dblist_rgt_idx";
+	public static final String CREATE_INDEX_LIST_RIGHT = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_LIST_RIGHT + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.DBLIST, Columns.RIGHT) + ")";
+
+	public static final String INDEX_LIST_DUE = "task_dblist_completed_due_idx";
+	public static final String CREATE_INDEX_LIST_DUE = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_LIST_DUE + " ON " + TABLE_NAME + "(" +
+			arrayToCommaString(Columns.DBLIST, Columns.COMPLETED, Columns.DUE) + ")";
+
+	// Foreign key of the history table, used by the history query and on cascade deletes
+	public static final String INDEX_HISTORY_TASK = "history_taskid_idx";
+	public static final String CREATE_INDEX_HISTORY_TASK = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_HISTORY_TASK + " ON " + HISTORY_TABLE_NAME + "(" +
+			arrayToCommaString(Columns.HIST_TASK_ID, Columns.UPDATED) + ")";
+
+	// Characters of the note in the preview. Lists, widgets and reminders
+	// show a few lines, so they read this instead of notes of any size
+	public static final int PREVIEW_LENGTH = 1000;
+
+	static final String ADD_PREVIEW_COLUMN = "ALTER TABLE " + TABLE_NAME +
+			" ADD COLUMN " + Columns.PREVIEW + " TEXT NOT NULL DEFAULT ''";
+
+	// Sets the preview of every task, the triggers add a WHERE
+	static final String FILL_PREVIEW = String.format(
+			" UPDATE %1$s SET %2$s = substr(%3$s, 1, %4$d)",
+			TABLE_NAME, Columns.PREVIEW, Columns.NOTE, PREVIEW_LENGTH);
+
+	// Only the preview is written, which no other trigger watches
+	public static final String TRIGGER_PREVIEW_INSERT = String.format(
+			"CREATE TRIGGER task_preview_insert AFTER INSERT ON %1$s BEGIN "
+					+ FILL_PREVIEW + " WHERE %2$s IS new.%2$s; END;",
+			TABLE_NAME, Columns._ID);
+
+	public static final String TRIGGER_PREVIEW_UPDATE = String.format(
+			"CREATE TRIGGER task_preview_update AFTER UPDATE OF %2$s ON %1$s"
+					+ " WHEN old.%2$s IS NOT new.%2$s BEGIN "
+					+ FILL_PREVIEW + " WHERE %3$s IS new.%3$s; END;",
+			TABLE_NAME, Columns.NOTE, Columns._ID);
+
 	// Delete table has no constraints. In fact, list values and positions
 	// should not even be thought of as valid.
 	public static final String CREATE_DELETE_TABLE = "CREATE TABLE " +
@@ -270,7 +366,27 @@ public class Task extends DAO {
 			" TIMESTAMP NOT NULL DEFAULT current_timestamp" +
 			")";
 
-	// Every change to a note gets saved here
+	// Archive order, and what the trash purge deletes first
+	public static final String INDEX_DELETED_TIME = "deleted_task_deletedtime_idx";
+	public static final String CREATE_INDEX_DELETED_TIME = "CREATE INDEX IF NOT EXISTS " +
+			INDEX_DELETED_TIME + " ON " + DELETE_TABLE_NAME + "(" + Columns.TRIG_DELETED + ")";
+
+	// Deleted tasks removed per statement by purgeDeleted
+	static final int PURGE_BATCH = 200;
+
+	// Oldest deleted tasks, deleted before a time given like '-30 days'
+	private static final String PURGE_DELETED_BEFORE = "DELETE FROM " + DELETE_TABLE_NAME +
+			" WHERE " + Columns._ID + " IN (SELECT " + Columns._ID + " FROM " +
+			DELETE_TABLE_NAME + " WHERE " + Columns.TRIG_DELETED + " < datetime('now', ?)" +
+			" ORDER BY " + Columns.TRIG_DELETED + " LIMIT " + PURGE_BATCH + ")";
+
+	// The given number of oldest deleted tasks
+	private static final String PURGE_DELETED_OLDEST = "DELETE FROM " + DELETE_TABLE_NAME +
+			" WHERE " + Columns._ID + " IN (SELECT " + Columns._ID + " FROM " +
+			DELETE_TABLE_NAME + " ORDER BY " + Columns.TRIG_DELETED + " LIMIT ?)";
+
+	// Every change to a note gets saved here. Older versions are compacted
+	// to deltas by TaskHistory
 	public static final String CREATE_HISTORY_TABLE = "CREATE TABLE " +
 			HISTORY_TABLE_NAME + "(" +
 			Columns._ID + " INTEGER PRIMARY KEY," +
@@ -279,6 +395,7 @@ public class Task extends DAO {
 			Columns.NOTE + " TEXT NOT NULL DEFAULT ''," +
 			Columns.UPDATED +
 			" TIMESTAMP NOT NULL DEFAULT current_timestamp," +
+			Columns.HIST_DELTA + " BLOB DEFAULT NULL," +
 			" FOREIGN KEY(" + Columns.HIST_TASK_ID +
 			" ) REFERENCES " + TABLE_NAME + " ( " +
 			Columns._ID + ") ON DELETE CASCADE " + " ) ";
@@ -299,335 +416,53 @@ public class Task extends DAO {
 			HISTORY_TABLE_NAME + " AFTER INSERT ON " + TABLE_NAME + " BEGIN " +
 			HISTORY_TRIGGER_BODY + " END;";
 
-	// Delete search table
-	public static final String CREATE_FTS3_DELETE_TABLE = "CREATE VIRTUAL TABLE "
-			+ FTS3_DELETE_TABLE_NAME + " USING FTS3(" + Columns._ID + ", "
-			+ Columns.TITLE + ", " + Columns.NOTE + ");";
+	// Search tables. External content, the text is only stored in the task
+	// tables. Prefix indexes for 2 and 3 letters, what type-ahead searches for
+	private static String createFtsTable(final String ftsTable, final String contentTable) {
+		return "CREATE VIRTUAL TABLE " + ftsTable + " USING FTS4(" + Columns.TITLE + ", "
+				+ Columns.NOTE + ", content=\"" + contentTable + "\", prefix=\"2,3\");";
+	}
 
-	public static final String CREATE_FTS3_DELETED_INSERT_TRIGGER =
-			"CREATE TRIGGER deletedtask_fts3_insert AFTER INSERT ON " + DELETE_TABLE_NAME +
-					" BEGIN " + " INSERT INTO " + FTS3_DELETE_TABLE_NAME + " (" +
-					arrayToCommaString(Columns._ID, Columns.TITLE, Columns.NOTE) + ") VALUES (" +
-					arrayToCommaString("new.", new String[] { Columns._ID, Columns.TITLE, Columns.NOTE }) +
-					");" + " END;";
+	// An external content index must be told what it had before the row changes
+	private static String[] createFtsTriggers(final String ftsTable, final String contentTable,
+											  final String name) {
+		final String remove = "DELETE FROM " + ftsTable + " WHERE docid = old." + Columns._ID + ";";
+		final String add = "INSERT INTO " + ftsTable + "(docid, " + Columns.TITLE + ", "
+				+ Columns.NOTE + ") VALUES (new." + Columns._ID + ", new." + Columns.TITLE
+				+ ", new." + Columns.NOTE + ");";
+		final String columns = arrayToCommaString(Columns.TITLE, Columns.NOTE);
+		return new String[] {
+				"CREATE TRIGGER " + name + "_fts_insert AFTER INSERT ON " + contentTable
+						+ " BEGIN " + add + " END;",
+				"CREATE TRIGGER " + name + "_fts_pre_update BEFORE UPDATE OF " + columns
+						+ " ON " + contentTable + " BEGIN " + remove + " END;",
+				"CREATE TRIGGER " + name + "_fts_update AFTER UPDATE OF " + columns
+						+ " ON " + contentTable + " BEGIN " + add + " END;",
+				"CREATE TRIGGER " + name + "_fts_delete BEFORE DELETE ON " + contentTable
+						+ " BEGIN " + remove + " END;" };
+	}
 
-	public static final String CREATE_FTS3_DELETED_UPDATE_TRIGGER = "CREATE TRIGGER deletedtask_fts3_update AFTER UPDATE OF " +
-			arrayToCommaString(Columns.TITLE, Columns.NOTE) +
-			" ON " +
-			DELETE_TABLE_NAME +
-			" BEGIN " +
-			" UPDATE " +
-			FTS3_DELETE_TABLE_NAME +
-			" SET " +
-			Columns.TITLE + " = new." + Columns.TITLE +
-			"," + Columns.NOTE + " = new." +
-			Columns.NOTE + " WHERE " + Columns._ID +
-			" IS new." + Columns._ID + ";" + " END;";
-	public static final String CREATE_FTS3_DELETED_DELETE_TRIGGER = "CREATE TRIGGER deletedtask_fts3_delete AFTER DELETE ON " +
-			DELETE_TABLE_NAME + " BEGIN " +
-			" DELETE FROM " + FTS3_DELETE_TABLE_NAME +
-			" WHERE " + Columns._ID + " IS old." +
-			Columns._ID + ";" + " END;";
-
-	// Search table
-	public static final String CREATE_FTS3_TABLE = "CREATE VIRTUAL TABLE "
-			+ FTS3_TABLE_NAME + " USING FTS3(" + Columns._ID + ", "
-			+ Columns.TITLE + ", " + Columns.NOTE + ");";
-
-	public static final String CREATE_FTS3_INSERT_TRIGGER = "CREATE TRIGGER task_fts3_insert AFTER INSERT ON " +
-			TABLE_NAME +
-			" BEGIN " +
-			" INSERT INTO " +
-			FTS3_TABLE_NAME +
-			" (" +
-			arrayToCommaString(Columns._ID, Columns.TITLE, Columns.NOTE) +
-			") VALUES (" +
-			arrayToCommaString("new.", new String[] { Columns._ID,
-					Columns.TITLE, Columns.NOTE }) +
-			");" +
-			" END;";
+	public static final String CREATE_FTS_TABLE = createFtsTable(FTS_TABLE_NAME, TABLE_NAME);
+	public static final String CREATE_FTS_DELETE_TABLE =
+			createFtsTable(FTS_DELETE_TABLE_NAME, DELETE_TABLE_NAME);
 
-	public static final String CREATE_FTS3_UPDATE_TRIGGER = "CREATE TRIGGER task_fts3_update AFTER UPDATE OF " +
-			arrayToCommaString(Columns.TITLE, Columns.NOTE) +
-			" ON " +
-			TABLE_NAME +
-			" BEGIN " + " UPDATE " + FTS3_TABLE_NAME +
-			" SET " + Columns.TITLE + " = new." +
-			Columns.TITLE + "," + Columns.NOTE +
-			" = new." + Columns.NOTE + " WHERE " +
-			Columns._ID + " IS new." + Columns._ID +
-			";" + " END;";
-
-	public static final String CREATE_FTS3_DELETE_TRIGGER = "CREATE TRIGGER task_fts3_delete AFTER DELETE ON " +
-			TABLE_NAME + " BEGIN " + " DELETE FROM " +
-			FTS3_TABLE_NAME + " WHERE " + Columns._ID +
-			" IS old." + Columns._ID + ";" + " END;";
+	public static final String[] CREATE_FTS_TRIGGERS =
+			createFtsTriggers(FTS_TABLE_NAME, TABLE_NAME, "task");
+	public static final String[] CREATE_FTS_DELETE_TRIGGERS =
+			createFtsTriggers(FTS_DELETE_TABLE_NAME, DELETE_TABLE_NAME, "deletedtask");
+
+	// Fills the index from the content table
+	public static String rebuildFts(final String ftsTable) {
+		return "INSERT INTO " + ftsTable + "(" + ftsTable + ") VALUES('rebuild');";
+	}
 
 	/**
-	 * This is a view which returns the tasks in the specified list with headers
-	 * suitable for dates, if any tasks would be sorted under them. Provider
-	 * hardcodes the sort order for this.
-	 *
-	 * if listId is null, will return for all lists
+	 * Sorts the tasks into the sections of the sectioned date view: 0 for
+	 * tasks with a due date, 1 for tasks without, 3 for completed tasks.
+	 * See {@link SectionedDateCursor}
 	 */
-	public static String CREATE_SECTIONED_DATE_VIEW(final String listId) {
-		final String sListId = listId == null ? " NOT NULL " : "'" + listId
-				+ "'";
-		return "CREATE TEMP VIEW IF NOT EXISTS " +
-				getSECTION_DATE_VIEW_NAME(listId) +
-				// Tasks WITH dates NOT completed, secret 0
-				" AS SELECT " +
-				arrayToCommaString(Columns.FIELDS) +
-				",0" +
-				" AS " +
-				SECRET_TYPEID +
-				",1" +
-				" AS " +
-				SECRET_TYPEID2 +
-				" FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS null " +
-				" AND " +
-				Columns.DUE +
-				" IS NOT null " +
-				" UNION ALL " +
-				// Tasks NO dates NOT completed, secret 1
-				" SELECT " +
-				arrayToCommaString(Columns.FIELDS) +
-				",1" +
-				" AS " +
-				SECRET_TYPEID +
-				",1" +
-				" AS " +
-				SECRET_TYPEID2 +
-				" FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS null " +
-				" AND " +
-				Columns.DUE +
-				" IS null " +
-				" UNION ALL " +
-				// Tasks completed, secret 2 + 1
-				" SELECT " +
-				arrayToCommaString(Columns.FIELDS) +
-				",3" +
-				" AS " +
-				SECRET_TYPEID +
-				",1" +
-				" AS " +
-				SECRET_TYPEID2 +
-				" FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NOT null " +
-				// TODAY
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_START, Columns.TITLE,
-						HEADER_KEY_TODAY, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" BETWEEN " +
-				TODAY_START +
-				" AND " +
-				TODAY_PLUS(1) +
-				") " +
-				// TOMORROW (Today + 1)
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(1), Columns.TITLE,
-						HEADER_KEY_PLUS1, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" BETWEEN " +
-				TODAY_PLUS(1) +
-				" AND " +
-				TODAY_PLUS(2) +
-				") " +
-				// Today + 2
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(2), Columns.TITLE,
-						HEADER_KEY_PLUS2, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" BETWEEN " +
-				TODAY_PLUS(2) +
-				" AND " +
-				TODAY_PLUS(3) +
-				") " +
-				// Today + 3
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(3), Columns.TITLE,
-						HEADER_KEY_PLUS3, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" BETWEEN " +
-				TODAY_PLUS(3) +
-				" AND " +
-				TODAY_PLUS(4) +
-				") " +
-				// Today + 4
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(4), Columns.TITLE,
-						HEADER_KEY_PLUS4, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" BETWEEN " +
-				TODAY_PLUS(4) +
-				" AND " +
-				TODAY_PLUS(5) +
-				") " +
-				// Overdue (0)
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, OVERDUE, Columns.TITLE,
-						HEADER_KEY_OVERDUE, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" BETWEEN " +
-				OVERDUE +
-				" AND " +
-				TODAY_START +
-				") " +
-				// Later
-				" UNION ALL " +
-				" SELECT '-1'," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, TODAY_PLUS(5), Columns.TITLE,
-						HEADER_KEY_LATER, Columns.DBLIST, listId) +
-				",0,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.COMPLETED +
-				" IS NULL " +
-				" AND " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" >= " +
-				TODAY_PLUS(5) +
-				") " +
-				// No date
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, "null", Columns.TITLE, HEADER_KEY_NODATE,
-						Columns.DBLIST, listId) +
-				",1,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " +
-				TABLE_NAME +
-				" WHERE " +
-				Columns.DBLIST +
-				" IS " +
-				sListId +
-				" AND " +
-				Columns.DUE +
-				" IS null " +
-				" AND " +
-				Columns.COMPLETED +
-				" IS null " +
-				") " +
-				// Complete, overdue to catch all
-				// Set complete time to 1
-				" UNION ALL " +
-				" SELECT -1," +
-				asEmptyCommaStringExcept(Columns.FIELDS_NO_ID,
-						Columns.DUE, OVERDUE, Columns.COMPLETED, "1",
-						Columns.TITLE, HEADER_KEY_COMPLETE, Columns.DBLIST,
-						listId) +
-				",2,0" +
-				// Only show header if there are tasks under it
-				" WHERE EXISTS(SELECT _ID FROM " + TABLE_NAME +
-				" WHERE " + Columns.DBLIST + " IS " +
-				sListId + " AND " + Columns.COMPLETED +
-				" IS NOT null " + ") " +
-				";";
-	}
+	static final String SECTIONED_DATE_TYPE = "CASE WHEN " + Columns.COMPLETED +
+			" IS NOT NULL THEN 3 WHEN " + Columns.DUE + " IS NULL THEN 1 ELSE 0 END";
 
 	public String title = null;
 	public String note = null;
@@ -803,6 +638,41 @@ public class Task extends DAO {
 		return values;
 	}
 
+	// Columns of getContent, by which of title, note and list are set
+	private static final String[][] CONTENT_COLUMNS = new String[8][];
+
+	static {
+		for (int set = 0; set < CONTENT_COLUMNS.length; set++) {
+			final ArrayList<String> columns = new ArrayList<>();
+			if ((set & 1) != 0) columns.add(Columns.TITLE);
+			if ((set & 2) != 0) columns.add(Columns.NOTE);
+			if ((set & 4) != 0) columns.add(Columns.DBLIST);
+			columns.add(Columns.UPDATED);
+			columns.add(Columns.DUE);
+			columns.add(Columns.COMPLETED);
+			columns.add(Columns.LOCKED);
+			CONTENT_COLUMNS[set] = columns.toArray(new String[0]);
+		}
+	}
+
+	@Override
+	protected String[] getContentColumns() {
+		return CONTENT_COLUMNS[(title != null ? 1 : 0) | (note != null ? 2 : 0)
+				| (dblist != null ? 4 : 0)];
+	}
+
+	@Override
+	protected void bindContent(final SQLiteStatement statement) {
+		int i = 1;
+		if (title != null) i = bind(statement, i, title);
+		if (note != null) i = bind(statement, i, note);
+		if (dblist != null) i = bind(statement, i, dblist);
+		i = bind(statement, i, updated);
+		i = bind(statement, i, due);
+		i = bind(statement, i, completed);
+		statement.bindLong(i, locked ? 1 : 0);
+	}
+
 	/**
 	 * Compares this task to another and returns true if their contents are the
 	 * same. Content is defined as: title, note, duedate, completed != null
@@ -863,45 +733,44 @@ public class Task extends DAO {
 		return save(context, Calendar.getInstance().getTimeInMillis());
 	}
 
+	// Completes tasks in the background, in the order asked for
+	private static final Executor sCompleter = Executors.newSingleThreadExecutor();
+
 	/**
-	 * Convenience method to complete tasks in list view for example. Starts an
-	 * asynctask to do the operation in the background.
+	 * Convenience method to complete tasks in list view for example. The
+	 * tasks are completed in the background, one call after the other.
 	 */
 	public static void setCompleted(final Context context,
 									final boolean completed, final Long... ids) {
 		if (ids.length > 0) {
-			final AsyncTask<Long, Void, Void> task = new AsyncTask<>() {
-				@Override
-				protected Void doInBackground(final Long... ids) {
-					setCompletedSynced(context, completed, ids);
-					return null;
-				}
-			};
-			task.execute(ids);
+			sCompleter.execute(() -> setCompletedSynced(context, completed, ids));
 		}
 	}
 
 	/**
 	 * Convenience method to complete tasks. Runs on the thread that called it.
+	 * Any number of tasks are changed in one provider call, tasks already in
+	 * the wanted state are left alone.
+	 *
+	 * @return the number of tasks changed
 	 */
-	public static void setCompletedSynced(final Context context,
-										  final boolean completed, final Long... ids) {
+	public static int setCompletedSynced(final Context context,
+										 final boolean completed, final Long... ids) {
 		if (ids.length < 1) {
-			return;
+			return 0;
 		}
 
+		final long now = Calendar.getInstance().getTimeInMillis();
 		final ContentValues values = new ContentValues();
-		values.put(Columns.COMPLETED, completed ? Calendar.getInstance().getTimeInMillis() : null);
-		values.put(Columns.UPDATED, Calendar.getInstance().getTimeInMillis());
+		values.put(Columns.COMPLETED, completed ? now : null);
+		values.put(Columns.UPDATED, now);
 
-		String idStrings = "(";
-		for (Long id : ids) {
-			idStrings += id + ",";
+		final String[] idArgs = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			idArgs[i] = Long.toString(ids[i]);
 		}
-		idStrings = idStrings.substring(0, idStrings.length() - 1);
-		idStrings += ")";
-		context.getContentResolver()
-				.update(URI, values, Columns._ID + " IN " + idStrings, null);
+		return context.getContentResolver()
+				.update(URI_WRITE_COMPLETETASKS, values, null, idArgs);
 	}
 
 	public int moveTo(final ContentResolver resolver, final Task targetTask) {
@@ -919,6 +788,36 @@ public class Task extends DAO {
 		return 0;
 	}
 
+	/**
+	 * Moves the tasks to the top of a list, keeping their order. All tasks
+	 * are moved by one provider call.
+	 *
+	 * @return the number of tasks moved
+	 */
+	public static int moveTasks(final ContentResolver resolver, final long[] taskIds,
+								final long toListId) {
+		final ContentValues values = new ContentValues();
+		values.put(Columns.DBLIST, toListId);
+		return resolver.update(URI_WRITE_MOVETASKS, values,
+				Columns._ID + " IN (" + arrayToCommaString(taskIds) + ")", null);
+	}
+
+	/**
+	 * Moves the tasks next to the target task, in its list, keeping their
+	 * order. See {@link #moveTasks(ContentResolver, long[], long)}
+	 *
+	 * @param after true to place the tasks after the target, else before
+	 */
+	public static int moveTasks(final ContentResolver resolver, final long[] taskIds,
+								final Task target, final boolean after) {
+		final ContentValues values = new ContentValues();
+		values.put(Columns.DBLIST, target.dblist);
+		values.put(TARGETID, target._id);
+		values.put(TARGETAFTER, after);
+		return resolver.update(URI_WRITE_MOVETASKS, values,
+				Columns._ID + " IN (" + arrayToCommaString(taskIds) + ")", null);
+	}
+
 	@Override
 	protected String getTableName() {
 		return TABLE_NAME;
@@ -928,57 +827,114 @@ public class Task extends DAO {
 	 * Can't use unique constraint on positions because SQLite checks
 	 * constraints after every row is updated an not after each statement like
 	 * it should. So have to do the check in a trigger instead.
+	 *
+	 * Counts how many times a position is used in the list, as either left or
+	 * right. Both are answered by an index lookup.
 	 */
-	static String countVals(final String col, final String ver) {
-		return String.format("SELECT COUNT(DISTINCT %2$s)"
-						+ " AS ColCount FROM %1$s WHERE %3$s=%4$s.%3$s", TABLE_NAME,
-				col, Columns.DBLIST, ver);
+	static String countPos(final String list, final String pos) {
+		return String.format("(SELECT COUNT(*) FROM %1$s WHERE %2$s IS %4$s AND %3$s = %5$s)",
+				TABLE_NAME, Columns.DBLIST, Columns.LEFT, list, pos)
+				+ " + "
+				+ String.format("(SELECT COUNT(*) FROM %1$s WHERE %2$s IS %4$s AND %3$s = %5$s)",
+				TABLE_NAME, Columns.DBLIST, Columns.RIGHT, list, pos);
 	}
 
-	// verify that left are unique
-	// count number of id and compare to number of left and right
-	static String posUniqueConstraint(final String ver, final String msg) {
+	/**
+	 * Verify that the positions around the row that changed are unique in its
+	 * list. Only the two positions the row had (or got) are examined, so this
+	 * is O(log n) instead of counting the entire list. The whole list can be
+	 * checked with {@link #verifyPositions(SQLiteDatabase, long)} once a bulk
+	 * operation is done.
+	 */
+	static String posUniqueConstraint(final String list, final String left,
+									  final String right, final String msg) {
 		return String.format(
-				" SELECT CASE WHEN ((%1$s) != (%2$s) OR (%1$s) != (%3$s)) THEN "
+				" SELECT CASE WHEN ((%1$s) > 1 OR (%2$s) > 1) THEN "
 						+ " RAISE (ABORT, '" + msg + "')" + " END;",
-				countVals(Columns._ID, ver), countVals(Columns.LEFT, ver),
-				countVals(Columns.RIGHT, ver));
+				countPos(list, left), countPos(list, right));
+	}
+
+	/**
+	 * Same as above for the positions the row has now, which are not those of
+	 * "new" once a trigger has placed it.
+	 */
+	static String posUniqueConstraint(final String ver, final String msg) {
+		final String stored = "(SELECT %2$s FROM %1$s WHERE %3$s IS " + ver + ".%3$s)";
+		return posUniqueConstraint(ver + "." + Columns.DBLIST,
+				String.format(stored, TABLE_NAME, Columns.LEFT, Columns._ID),
+				String.format(stored, TABLE_NAME, Columns.RIGHT, Columns._ID), msg);
+	}
+
+	/**
+	 * Checks all positions of a list in one pass. Meant to be called once at
+	 * the end of a transaction which moved or inserted many tasks, instead of
+	 * relying on the triggers only.
+	 *
+	 * @throws SQLException if a position is used more than once, or if an
+	 *                      item ends before it starts
+	 */
+	public static void verifyPositions(final SQLiteDatabase db, final long listId) {
+		final String[] args = new String[] { Long.toString(listId) };
+		try (Cursor c = db.rawQuery(String.format("SELECT pos FROM ("
+						+ "SELECT %2$s AS pos FROM %1$s WHERE %4$s IS ?1 UNION ALL "
+						+ "SELECT %3$s AS pos FROM %1$s WHERE %4$s IS ?1)"
+						+ " GROUP BY pos HAVING COUNT(*) > 1"
+						+ " UNION ALL SELECT %2$s FROM %1$s WHERE %4$s IS ?1 AND %2$s >= %3$s"
+						+ " LIMIT 1",
+				TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST), args)) {
+			if (c.moveToFirst()) {
+				throw new SQLException("Positions not unique/ordered in list " + listId
+						+ " at " + c.getLong(0));
+			}
+		}
 	}
 
-	// Makes a gap in the list where the task is being inserted
-	private static final String BUMP_TO_RIGHT = " UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %3$s >= new.%3$s AND %4$s IS new.%4$s;";
+	/*
+	 * Positions are sparse. Tasks are POS_STEP apart with right = left + 1, so
+	 * a task is placed by giving it a key between its new neighbours and no
+	 * other row is written. Deletes leave a gap behind. Only when two
+	 * neighbours have no room left between them is the list renumbered, see
+	 * renumber(SQLiteDatabase, long).
+	 */
+	static final long POS_STEP = 1L << 20;
+	// Where a renumbered list starts, leaving room for tasks added at the top
+	static final long POS_START = 1L << 40;
+	// Smallest distance between two lefts a task fits in between
+	private static final long POS_MIN_GAP = 4;
+
+	// Left of a task added at the top of its list
+	private static final String TOP_POS = String.format(
+			"COALESCE((SELECT MIN(%2$s) FROM %1$s WHERE %3$s IS new.%3$s AND %4$s IS NOT new.%4$s) - %5$d, %6$d)",
+			TABLE_NAME, Columns.LEFT, Columns.DBLIST, Columns._ID, POS_STEP, POS_START);
+
+	private static final String SET_TOP_POS = String.format(
+			" UPDATE %1$s SET %2$s = %4$s, %3$s = %4$s + 1 WHERE %5$s IS new.%5$s;",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, TOP_POS, Columns._ID);
+
+	// Once a list has been added to at the top POS_START / POS_STEP times
+	// there is no room left above it. Then the whole list is shifted by
+	// POS_START.
+	private static final String NO_ROOM_AT_TOP = String.format(
+			" (SELECT MIN(%2$s) FROM %1$s WHERE %3$s IS new.%3$s) <= %4$d ",
+			TABLE_NAME, Columns.LEFT, Columns.DBLIST, POS_STEP);
+	private static final String MAKE_ROOM_AT_TOP = String.format(
+			" UPDATE %1$s SET %2$s = %2$s + %5$d, %3$s = %3$s + %5$d WHERE %4$s IS new.%4$s;",
+			TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST, POS_START);
+
 	public static final String TRIGGER_PRE_INSERT = String.format(
-			"CREATE TRIGGER task_pre_insert BEFORE INSERT ON %s BEGIN ",
-			TABLE_NAME)
-			+ String.format(BUMP_TO_RIGHT, TABLE_NAME, Columns.RIGHT,
-			Columns.LEFT, Columns.DBLIST) + " END;";
+			"CREATE TRIGGER task_pre_insert BEFORE INSERT ON %s WHEN %s BEGIN ",
+			TABLE_NAME, NO_ROOM_AT_TOP) + MAKE_ROOM_AT_TOP + " END;";
 
+	// New tasks go to the top of their list
 	public static final String TRIGGER_POST_INSERT = String.format(
 			"CREATE TRIGGER task_post_insert AFTER INSERT ON %s BEGIN ",
 			TABLE_NAME)
+			+ SET_TOP_POS
 			// Enforce integrity
 			+ posUniqueConstraint("new", "pos not unique post insert")
 
 			+ " END;";
 
-	// Upgrades children and closes the gap made from the delete
-	private static final String BUMP_TO_LEFT = " UPDATE %1$s SET %2$s = %2$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;";
-
-	public static final String TRIGGER_POST_DELETE = String.format(
-			"CREATE TRIGGER task_post_delete AFTER DELETE ON %s BEGIN ",
-			TABLE_NAME)
-			// + String.format(UPGRADE_CHILDREN, TABLE_NAME, Columns.LEFT,
-			// Columns.RIGHT, Columns.DBLIST)
-			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.LEFT,
-			Columns.RIGHT, Columns.DBLIST)
-			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.RIGHT,
-			Columns.RIGHT, Columns.DBLIST)
-
-			// Enforce integrity
-			+ posUniqueConstraint("old", "pos not unique post delete")
-
-			+ " END;";
-
 	public static final String TRIGGER_PRE_DELETE = String.format(
 			"CREATE TRIGGER task_pre_delete BEFORE DELETE ON %1$s BEGIN "
 					+ " INSERT INTO %2$s ("
@@ -990,25 +946,58 @@ public class Task extends DAO {
 
 					+ " END;", TABLE_NAME, DELETE_TABLE_NAME);
 
-	public String getSQLMoveItemLeft(final ContentValues values) {
+	/**
+	 * Moves this task to just before the task whose left is the target
+	 * position of values, which come from getMoveValues. Only this task is
+	 * written unless its list has to be renumbered first.
+	 *
+	 * @return the number of tasks changed
+	 */
+	public int moveItemLeft(final SQLiteDatabase db, final ContentValues values) {
 		if (!values.containsKey(TARGETPOS)
 				|| values.getAsLong(TARGETPOS) >= left) {
-			return null;
+			return 0;
 		}
-		return getSQLMoveItem(Columns.LEFT, values.getAsLong(TARGETPOS));
+		return moveNextTo(db, Columns.LEFT, values.getAsLong(TARGETPOS), true);
 	}
 
-	public String getSQLMoveItemRight(final ContentValues values) {
+	/**
+	 * Moves this task to just after the task whose right is the target
+	 * position of values. See {@link #moveItemLeft(SQLiteDatabase, ContentValues)}
+	 */
+	public int moveItemRight(final SQLiteDatabase db, final ContentValues values) {
 		if (!values.containsKey(TARGETPOS)
 				|| values.getAsLong(TARGETPOS) <= right) {
-			return null;
+			return 0;
 		}
-		return getSQLMoveItem(Columns.RIGHT, values.getAsLong(TARGETPOS));
+		return moveNextTo(db, Columns.RIGHT, values.getAsLong(TARGETPOS), false);
 	}
 
 	/*
-	 * Trigger to move between lists
+	 * Trigger to move between lists. The task goes to the top of the new list,
+	 * the old list keeps a gap where it was. Not done if the same update gives
+	 * the task a position, like moveTasks does.
 	 */
+	public static final String TRIGGER_PRE_MOVE_LIST = "CREATE TRIGGER trigger_pre_move_list_" +
+			TABLE_NAME +
+			" BEFORE UPDATE OF " +
+			Columns.DBLIST +
+			" ON " +
+			Task.TABLE_NAME +
+			" WHEN old." +
+			Columns.DBLIST +
+			" IS NOT new." +
+			Columns.DBLIST +
+			" AND new." +
+			Columns.LEFT +
+			" IS old." +
+			Columns.LEFT +
+			" AND " +
+			NO_ROOM_AT_TOP +
+			" BEGIN " +
+			MAKE_ROOM_AT_TOP +
+			" END;";
+
 	public static final String TRIGGER_MOVE_LIST = "CREATE TRIGGER trigger_post_move_list_" +
 			TABLE_NAME +
 			" AFTER UPDATE OF " +
@@ -1019,92 +1008,375 @@ public class Task extends DAO {
 			Columns.DBLIST +
 			" IS NOT new." +
 			Columns.DBLIST +
+			" AND new." +
+			Columns.LEFT +
+			" IS old." +
+			Columns.LEFT +
 			" BEGIN " +
-			// Bump everything to the right, except the item itself (in same
-			// list)
-			String
-					.format("UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %4$s IS new.%4$s AND %5$s IS NOT new.%5$s;",
-							TABLE_NAME, Columns.LEFT, Columns.RIGHT,
-							Columns.DBLIST, Columns._ID) +
-
-			// Bump everything left in the old list, to the right of position
-			String
-					.format("UPDATE %1$s SET %2$s = %2$s - 2, %3$s = %3$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;",
-							TABLE_NAME, Columns.LEFT, Columns.RIGHT,
-							Columns.DBLIST) +
-
-			// Set positions to 1 and 2 for item
-			String
-					.format("UPDATE %1$s SET %2$s = 1, %3$s = 2 WHERE %4$s IS new.%4$s;",
-							TABLE_NAME, Columns.LEFT, Columns.RIGHT,
-							Columns._ID) +
+			SET_TOP_POS +
 			posUniqueConstraint("new", "Moving list, new positions not unique/ordered") +
-			posUniqueConstraint("old", "Moving list, old positions not unique/ordered") +
 			" END;";
 
 	/**
-	 * If moving left, then edgeCol is left and vice-versa. Values should come
-	 * from getMoveValues
+	 * Gives this task a left between the target task, found by edgeCol =
+	 * edgeVal, and the neighbour on the side it is moving to.
+	 */
+	private int moveNextTo(final SQLiteDatabase db, final String edgeCol, final long edgeVal,
+						   final boolean before) {
+		final long targetId;
+		try (Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID },
+				Columns.DBLIST + " IS ? AND " + edgeCol + " IS ?",
+				new String[] { Long.toString(dblist), Long.toString(edgeVal) },
+				null, null, null)) {
+			if (!c.moveToFirst()) {
+				return 0;
+			}
+			targetId = c.getLong(0);
+		}
+
+		int renumbered = 0;
+		Long pos = getPosNextTo(db, targetId, before);
+		if (pos == null) {
+			renumbered = renumber(db, dblist);
+			pos = getPosNextTo(db, targetId, before);
+		}
+
+		final ContentValues values = new ContentValues();
+		values.put(Columns.LEFT, pos);
+		values.put(Columns.RIGHT, pos + 1);
+		final int result = db.update(TABLE_NAME, values, whereIdIs(null), whereIdArg());
+		if (result > 0) {
+			left = pos;
+			right = pos + 1;
+		}
+		return Math.max(result, renumbered);
+	}
+
+	/**
+	 * @return the middle of the free space before or after the target task,
+	 * or null if there is no room there
+	 */
+	private Long getPosNextTo(final SQLiteDatabase db, final long targetId,
+							  final boolean before) {
+		final String sql = String.format("SELECT %2$s, (SELECT %5$s(%2$s) FROM %1$s"
+						+ " WHERE %3$s IS t.%3$s AND %2$s %6$s t.%2$s AND %4$s IS NOT ?)"
+						+ " FROM %1$s t WHERE %4$s IS ?",
+				TABLE_NAME, Columns.LEFT, Columns.DBLIST, Columns._ID,
+				before ? "MAX" : "MIN", before ? "<" : ">");
+		try (Cursor c = db.rawQuery(sql,
+				new String[] { Long.toString(_id), Long.toString(targetId) })) {
+			if (!c.moveToFirst()) {
+				return null;
+			}
+			final long target = c.getLong(0);
+			final long low, high;
+			if (before) {
+				low = c.isNull(1) ? 0 : c.getLong(1);
+				high = target;
+			} else {
+				low = target;
+				high = c.isNull(1) ? target + 2 * POS_STEP : c.getLong(1);
+			}
+			if (high - low < POS_MIN_GAP) {
+				return null;
+			}
+			return low + (high - low) / 2;
+		}
+	}
+
+	/**
+	 * Spreads the positions of a list out again, keeping the order. Only
+	 * needed when tasks have been moved to the same spot many times over.
 	 *
-	 * 1 = table name 2 = left 3 = right 4 = edgecol 5 = old.left 6 = old.right
-	 * 7 = target.pos (actually target.edgecol) 8 = dblist 9 = old.dblist
+	 * @return the number of tasks in the list
 	 */
-	private String getSQLMoveItem(final String edgeCol, final Long edgeVal) {
-		boolean movingLeft = Columns.LEFT.equals(edgeCol);
-		return String.format("UPDATE %1$s SET " +
-						// Left item follows Left = Left + ...
-						"%2$s = %2$s + " +
-						" CASE " +
-						// Moving item jumps to target pos
-						" WHEN %2$s IS %5$d " +
-						// ex: left = 5, target = 2, --> left = 5 + (2 - 5) == 2
-						// ex left = 5, target = 9(right), --> left = 5 + (9 - 5 - 1) = 8
-						" THEN " +
-						" (%7$d - %5$d" +
-						(movingLeft ? ") " : " -1) ") +
-						// Sub items take one step opposite
-						// Careful if moving inside subtree, which can only
-						// happen when moving right.
-						// Then only left position changes
-						" WHEN %2$s BETWEEN (%5$d + 1) AND (%6$d - 1) " +
-						" THEN " +
-						(movingLeft ? " 1 " : " -1 ") +
-						// Items in between from and to positions take two steps opposite
-						" WHEN %2$s BETWEEN " +
-						(movingLeft ? "%7$d" : "%6$d") +
-						" AND " +
-						(movingLeft ? "%5$d" : "%7$d") +
-						" THEN " +
-						(movingLeft ? " 2 " : " -2 ") +
-						// Not in target range, no change
-						" ELSE 0 END, " +
-						/*
-						 * Right item follows Right = Right + ...
-						 */
-						" %3$s = %3$s + " +
-						" CASE " +
-						// Moving item jumps to target pos
-						" WHEN %3$s IS %6$d " +
-						// ex: right = 7, target = 3(left), --> right = 7 + (3 - 7 + 1) == 4
-						// ex right = 2, target = 9(right), --> right = 2 + (9 -  2) = 9
-						" THEN " +
-						" (%7$d - %6$d" +
-						(movingLeft ? " +1) " : ") ") +
-						// Sub items take one step opposite
-						" WHEN %3$s BETWEEN (%5$d + 1) AND (%6$d - 1) " +
-						" THEN " +
-						(movingLeft ? " 1 " : " -1 ") +
-						// Items in between from and to positions take two steps opposite
-						" WHEN %3$s BETWEEN " +
-						(movingLeft ? "%7$d" : "%6$d") + " AND " +
-						(movingLeft ? "%5$d" : "%7$d") + " THEN " +
-						(movingLeft ? " 2 " : " -2 ") +
-						// Not in target range, no change
-						" ELSE 0 END " +
-						// And limit to the list in question
-						" WHERE %8$s IS %9$d;", TABLE_NAME,
-				Columns.LEFT, Columns.RIGHT, edgeCol, left, right, edgeVal, Columns.DBLIST,
-				dblist);
+	public static int renumber(final SQLiteDatabase db, final long listId) {
+		final long[] ids;
+		try (Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID },
+				Columns.DBLIST + " IS ?", new String[] { Long.toString(listId) },
+				null, null, Columns.LEFT)) {
+			ids = new long[c.getCount()];
+			while (c.moveToNext()) {
+				ids[c.getPosition()] = c.getLong(0);
+			}
+		}
+
+		final SQLiteStatement stmt = db.compileStatement(String.format(
+				"UPDATE %1$s SET %2$s = ?, %3$s = ? WHERE %4$s IS ?",
+				TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns._ID));
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				final long pos = POS_START + i * POS_STEP;
+				stmt.bindLong(1, pos);
+				stmt.bindLong(2, pos + 1);
+				stmt.bindLong(3, ids[i]);
+				stmt.executeUpdateDelete();
+			}
+		} finally {
+			stmt.close();
+		}
+		return ids.length;
+	}
+
+	/**
+	 * Moves the tasks matching the selection to the list in values, either to
+	 * the top or next to the task given by TARGETID. Positions are computed
+	 * once for all tasks, which keep their order, and each task is written
+	 * once.
+	 *
+	 * @param listIds gets the lists which were changed
+	 * @return the number of tasks moved
+	 */
+	static int moveTasks(final SQLiteDatabase db, final ContentValues values,
+						 final String selection, final String[] selectionArgs,
+						 final Collection<Long> listIds) {
+		final Long toListId = values.getAsLong(Columns.DBLIST);
+		if (toListId == null) {
+			return 0;
+		}
+		final Long targetId = values.getAsLong(TARGETID);
+		final boolean after = Boolean.TRUE.equals(values.getAsBoolean(TARGETAFTER));
+
+		// The tasks in the order they are shown
+		final long[] ids, lefts, lists;
+		try (Cursor c = db.query(TABLE_NAME,
+				new String[] { Columns._ID, Columns.LEFT, Columns.DBLIST }, selection,
+				selectionArgs, null, null, Columns.DBLIST + "," + Columns.LEFT)) {
+			ids = new long[c.getCount()];
+			lefts = new long[ids.length];
+			lists = new long[ids.length];
+			while (c.moveToNext()) {
+				ids[c.getPosition()] = c.getLong(0);
+				lefts[c.getPosition()] = c.getLong(1);
+				lists[c.getPosition()] = c.getLong(2);
+			}
+		}
+		if (ids.length == 0) {
+			return 0;
+		}
+		for (long id : ids) {
+			if (targetId != null && targetId == id) {
+				// Can't move next to itself
+				return 0;
+			}
+		}
+
+		final String notMoved = Columns._ID + " NOT IN (" + arrayToCommaString(ids) + ")";
+		long[] space = getFreeSpace(db, toListId, targetId, after, notMoved, ids.length);
+		if (space == null) {
+			return 0;
+		}
+		long step = (space[1] - space[0]) / (ids.length + 1);
+		if (step < POS_MIN_GAP) {
+			renumber(db, toListId);
+			space = getFreeSpace(db, toListId, targetId, after, notMoved, ids.length);
+			if (space == null) {
+				return 0;
+			}
+			step = (space[1] - space[0]) / (ids.length + 1);
+			if (step < POS_MIN_GAP) {
+				// More tasks than fit between two neighbours, even renumbered.
+				// Moving them anyway would give several tasks the same left
+				return 0;
+			}
+		}
+
+		final SQLiteStatement stmt = db.compileStatement(String.format(
+				"UPDATE %1$s SET %2$s = ?, %3$s = ?, %4$s = ? WHERE %5$s IS ?",
+				TABLE_NAME, Columns.DBLIST, Columns.LEFT, Columns.RIGHT, Columns._ID));
+		int result = 0;
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				long pos = space[0] + (i + 1) * step;
+				if (lists[i] != toListId && pos == lefts[i]) {
+					// An unchanged left would make the move list trigger
+					// put the task at the top. Step is at least 4
+					pos++;
+				}
+				stmt.bindLong(1, toListId);
+				stmt.bindLong(2, pos);
+				stmt.bindLong(3, pos + 1);
+				stmt.bindLong(4, ids[i]);
+				result += stmt.executeUpdateDelete();
+				listIds.add(lists[i]);
+			}
+		} finally {
+			stmt.close();
+		}
+		listIds.add(toListId);
+
+		// The triggers did not check the positions
+		verifyPositions(db, toListId);
+		return result;
+	}
+
+	// Ids bound in one statement. SQLite before 3.32 allows 999 variables
+	private static final int MAX_BOUND_IDS = 500;
+
+	/**
+	 * Sets completed and updated, as in the values, on the tasks with the
+	 * given ids. Tasks already completed, or not, are left alone. The ids are
+	 * bound a chunk at a time, so there can be any number of them. Call in a
+	 * transaction, the triggers keep the open counts of the lists.
+	 *
+	 * @param listIds gets the lists of the changed tasks
+	 * @return the number of tasks changed
+	 */
+	static int setCompleted(final SQLiteDatabase db, final ContentValues values,
+							final String[] ids, final Collection<Long> listIds) {
+		if (ids == null || ids.length == 0 || !values.containsKey(Columns.COMPLETED)) {
+			return 0;
+		}
+		final Long completed = values.getAsLong(Columns.COMPLETED);
+		final Long updated = values.getAsLong(Columns.UPDATED);
+		final String changing = Columns.COMPLETED + (completed == null ? " IS NOT NULL" : " IS NULL");
+
+		int result = 0;
+		SQLiteStatement stmt = null;
+		int stmtIds = 0;
+		try {
+			for (int start = 0; start < ids.length; start += MAX_BOUND_IDS) {
+				final String[] chunk = Arrays.copyOfRange(ids, start,
+						Math.min(ids.length, start + MAX_BOUND_IDS));
+				final StringBuilder in = new StringBuilder("?");
+				for (int i = 1; i < chunk.length; i++) {
+					in.append(",?");
+				}
+				final String where = Columns._ID + " IN (" + in + ") AND " + changing;
+
+				try (Cursor c = db.query(true, TABLE_NAME, new String[] { Columns.DBLIST },
+						where, chunk, null, null, null, null)) {
+					while (c.moveToNext()) {
+						listIds.add(c.getLong(0));
+					}
+				}
+
+				// Only the last chunk can be shorter
+				if (stmt == null || stmtIds != chunk.length) {
+					if (stmt != null) {
+						stmt.close();
+					}
+					stmt = db.compileStatement("UPDATE " + TABLE_NAME + " SET "
+							+ Columns.COMPLETED + " = ?, " + Columns.UPDATED + " = ? WHERE "
+							+ where);
+					stmtIds = chunk.length;
+				}
+				int index = bind(stmt, bind(stmt, 1, completed), updated);
+				for (String id : chunk) {
+					stmt.bindString(index++, id);
+				}
+				result += stmt.executeUpdateDelete();
+			}
+		} finally {
+			if (stmt != null) {
+				stmt.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the free range of lefts, exclusive, where count tasks go.
+	 * Null if the target task is not in the list
+	 */
+	private static long[] getFreeSpace(final SQLiteDatabase db, final long listId,
+									   final Long targetId, final boolean after,
+									   final String notMoved, final int count) {
+		final String[] listArg = new String[] { Long.toString(listId) };
+		final String inList = Columns.DBLIST + " IS ? AND " + notMoved;
+		final long low, high;
+		if (targetId == null) {
+			// At the top
+			high = queryLong(db, "SELECT MIN(" + Columns.LEFT + ") FROM " + TABLE_NAME
+					+ " WHERE " + inList, listArg, POS_START);
+			low = Math.max(0, high - (count + 1) * POS_STEP);
+		} else {
+			final long target = queryLong(db, "SELECT " + Columns.LEFT + " FROM "
+					+ TABLE_NAME + " WHERE " + Columns._ID + " IS ? AND "
+					+ Columns.DBLIST + " IS ?",
+					new String[] { Long.toString(targetId), Long.toString(listId) }, -1);
+			if (target < 0) {
+				return null;
+			}
+			final String[] args = new String[] { Long.toString(listId), Long.toString(target) };
+			if (after) {
+				low = target;
+				high = queryLong(db, "SELECT MIN(" + Columns.LEFT + ") FROM " + TABLE_NAME
+								+ " WHERE " + inList + " AND " + Columns.LEFT + " > ?", args,
+						target + (count + 1) * POS_STEP);
+			} else {
+				high = target;
+				low = queryLong(db, "SELECT MAX(" + Columns.LEFT + ") FROM " + TABLE_NAME
+								+ " WHERE " + inList + " AND " + Columns.LEFT + " < ?", args,
+						Math.max(0, target - (count + 1) * POS_STEP));
+			}
+		}
+		return new long[] { low, high };
+	}
+
+	private static long queryLong(final SQLiteDatabase db, final String sql,
+								  final String[] args, final long ifNull) {
+		try (Cursor c = db.rawQuery(sql, args)) {
+			return c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : ifNull;
+		}
+	}
+
+	/**
+	 * Empties the archive down to the retention policy, oldest first. Each
+	 * statement removes at most PURGE_BATCH tasks and commits on its own, so
+	 * other writers get in between.
+	 *
+	 * @param maxAgeDays deleted tasks older than this go, 0 for no limit
+	 * @param maxRows    most deleted tasks kept, 0 for no limit
+	 * @param signal     stops after the current batch, may be null
+	 * @return the number of deleted tasks removed
+	 */
+	public static int purgeDeleted(final SQLiteDatabase db, final int maxAgeDays,
+								   final int maxRows, final CancellationSignal signal) {
+		int removed = 0;
+		if (maxAgeDays > 0) {
+			try (SQLiteStatement stmt = db.compileStatement(PURGE_DELETED_BEFORE)) {
+				stmt.bindString(1, "-" + maxAgeDays + " days");
+				int count;
+				do {
+					if (signal != null && signal.isCanceled()) {
+						return removed;
+					}
+					count = stmt.executeUpdateDelete();
+					removed += count;
+				} while (count == PURGE_BATCH);
+			}
+		}
+		if (maxRows > 0) {
+			long excess = DatabaseUtils.queryNumEntries(db, DELETE_TABLE_NAME) - maxRows;
+			try (SQLiteStatement stmt = db.compileStatement(PURGE_DELETED_OLDEST)) {
+				while (excess > 0) {
+					if (signal != null && signal.isCanceled()) {
+						return removed;
+					}
+					stmt.bindLong(1, Math.min(excess, PURGE_BATCH));
+					final int count = stmt.executeUpdateDelete();
+					if (count == 0) {
+						break;
+					}
+					removed += count;
+					excess -= count;
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Renumbers every list, used when upgrading from contiguous positions.
+	 */
+	static void renumberAll(final SQLiteDatabase db) {
+		try (Cursor c = db.query(TaskList.TABLE_NAME, new String[] { TaskList.Columns._ID },
+				null, null, null, null, null)) {
+			while (c.moveToNext()) {
+				renumber(db, c.getLong(0));
+			}
+		}
 	}
 
 	/*
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import com.nononsenseapps.helpers.NnnLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The history table as it is shown, and its compaction.
+ *
+ * The history triggers store every version of a task in full. Compaction
+ * replaces older versions with a delta to the version after them, so a
+ * version is rebuilt by starting from the newest one and walking backwards.
+ * Every chain of deltas ends at a full version within SNAPSHOT_INTERVAL
+ * steps, and the newest version is always kept in full.
+ */
+public final class TaskHistory {
+
+	// Longest chain of deltas before a full version
+	static final int SNAPSHOT_INTERVAL = 16;
+	// Deltas larger than this many bytes are deflated
+	private static final int COMPRESS_ABOVE = 128;
+	private static final int FORMAT_PLAIN = 0;
+	private static final int FORMAT_DEFLATED = 1;
+
+	private static final String[] DEFAULT_PROJECTION = { Task.Columns._ID,
+			Task.Columns.HIST_TASK_ID, Task.Columns.TITLE, Task.Columns.NOTE,
+			Task.Columns.UPDATED };
+
+	// Columns read from the table, in this order
+	private static final String[] COLUMNS = { Task.Columns._ID, Task.Columns.HIST_TASK_ID,
+			Task.Columns.TITLE, Task.Columns.NOTE, Task.Columns.HIST_DELTA,
+			Task.Columns.UPDATED };
+
+	private TaskHistory() {}
+
+	/**
+	 * The versions matching the selection, rebuilt where they are stored as
+	 * deltas. Oldest first within each task.
+	 */
+	public static Cursor query(final SQLiteDatabase db, final String[] projection,
+							   final String selection, final String[] selectionArgs) {
+		final String[] columns = projection != null ? projection : DEFAULT_PROJECTION;
+		final MatrixCursor result = new MatrixCursor(columns);
+
+		// Rebuilding needs the newer versions too, so whole tasks are read and
+		// the selection only decides which rows are returned
+		final String sql;
+		final String[] args;
+		if (selection == null || selection.isEmpty()) {
+			sql = String.format("SELECT %1$s, 1 FROM %2$s ORDER BY %3$s, %4$s DESC",
+					DAO.arrayToCommaString(COLUMNS), Task.HISTORY_TABLE_NAME,
+					Task.Columns.HIST_TASK_ID, Task.Columns._ID);
+			args = null;
+		} else {
+			sql = String.format("SELECT %1$s, (%5$s) FROM %2$s WHERE %3$s IN "
+							+ "(SELECT %3$s FROM %2$s WHERE %5$s) ORDER BY %3$s, %4$s DESC",
+					DAO.arrayToCommaString(COLUMNS), Task.HISTORY_TABLE_NAME,
+					Task.Columns.HIST_TASK_ID, Task.Columns._ID, selection);
+			args = selectionArgs == null ? null : DAO.joinArrays(selectionArgs, selectionArgs);
+		}
+
+		final List<Object[]> taskRows = new ArrayList<>();
+		try (Cursor c = db.rawQuery(sql, args)) {
+			long taskId = -1;
+			String title = null, note = null;
+			// Set by an unreadable delta, until the next full version
+			boolean broken = false;
+			while (c.moveToNext()) {
+				if (c.getLong(1) != taskId) {
+					addReversed(result, taskRows);
+					taskId = c.getLong(1);
+					broken = false;
+				}
+				if (c.isNull(4)) {
+					title = c.getString(2);
+					note = c.getString(3);
+					broken = false;
+				} else if (broken) {
+					continue;
+				} else {
+					final String[] older = decode(c.getBlob(4), title, note);
+					if (older == null) {
+						// Older deltas build on this one, so stop at the
+						// last good version
+						broken = true;
+						continue;
+					}
+					title = older[0];
+					note = older[1];
+				}
+				if (c.getInt(6) != 0) {
+					taskRows.add(row(columns, c.getLong(0), taskId, title, note,
+							c.getString(5)));
+				}
+			}
+			addReversed(result, taskRows);
+		}
+		return result;
+	}
+
+	private static Object[] row(final String[] columns, final long id, final long taskId,
+								final String title, final String note, final String updated) {
+		final Object[] row = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			switch (columns[i]) {
+				case Task.Columns._ID:
+					row[i] = id;
+					break;
+				case Task.Columns.HIST_TASK_ID:
+					row[i] = taskId;
+					break;
+				case Task.Columns.TITLE:
+					row[i] = title;
+					break;
+				case Task.Columns.NOTE:
+					row[i] = note;
+					break;
+				case Task.Columns.UPDATED:
+					row[i] = updated;
+					break;
+			}
+		}
+		return row;
+	}
+
+	private static void addReversed(final MatrixCursor cursor, final List<Object[]> rows) {
+		for (int i = rows.size() - 1; i >= 0; i--) {
+			cursor.addRow(rows.get(i));
+		}
+		rows.clear();
+	}
+
+	/**
+	 * Applies the retention and stores older versions as deltas. Each task
+	 * is done in its own transaction, so the database is not locked for long.
+	 *
+	 * @param maxAgeDays  versions older than this are removed, 0 for no limit
+	 * @param maxVersions versions beyond this many are removed, 0 for no limit
+	 * @param signal      checked between tasks, can be null
+	 * @return the number of versions removed
+	 */
+	public static int compact(final SQLiteDatabase db, final int maxAgeDays,
+							  final int maxVersions, final CancellationSignal signal) {
+		// Tasks with something to do
+		final String cutoff = "datetime('now', '-" + maxAgeDays + " days')";
+		final StringBuilder having = new StringBuilder("SUM(")
+				.append(Task.Columns.HIST_DELTA).append(" IS NULL) > 1");
+		if (maxVersions > 0) {
+			having.append(" OR COUNT(*) > ").append(maxVersions);
+		}
+		if (maxAgeDays > 0) {
+			having.append(" OR (COUNT(*) > 1 AND MIN(").append(Task.Columns.UPDATED)
+					.append(") < ").append(cutoff).append(")");
+		}
+		final long[] taskIds;
+		try (Cursor c = db.query(Task.HISTORY_TABLE_NAME,
+				new String[] { Task.Columns.HIST_TASK_ID }, null, null,
+				Task.Columns.HIST_TASK_ID, having.toString(), null)) {
+			taskIds = new long[c.getCount()];
+			while (c.moveToNext()) {
+				taskIds[c.getPosition()] = c.getLong(0);
+			}
+		}
+
+		int removed = 0;
+		for (long taskId : taskIds) {
+			if (signal != null && signal.isCanceled()) {
+				break;
+			}
+			db.beginTransaction();
+			try {
+				removed += compactTask(db, taskId, maxAgeDays > 0 ? cutoff : null, maxVersions);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+		return removed;
+	}
+
+	private static int compactTask(final SQLiteDatabase db, final long taskId,
+								   final String cutoff, final int maxVersions) {
+		final String[] taskArg = new String[] { Long.toString(taskId) };
+		final String[] columns = cutoff == null ? COLUMNS
+				: DAO.joinArrays(COLUMNS, new String[] { Task.Columns.UPDATED + " < " + cutoff });
+
+		// Newest first, rebuilt
+		final List<Long> ids = new ArrayList<>();
+		final List<String[]> texts = new ArrayList<>();
+		final List<Boolean> isDelta = new ArrayList<>();
+		int keep = -1;
+		try (Cursor c = db.query(Task.HISTORY_TABLE_NAME, columns,
+				Task.Columns.HIST_TASK_ID + " IS ?", taskArg, null, null,
+				Task.Columns._ID + " DESC")) {
+			String title = null, note = null;
+			while (c.moveToNext()) {
+				if (c.isNull(4)) {
+					title = c.getString(2);
+					note = c.getString(3);
+				} else {
+					final String[] older = decode(c.getBlob(4), title, note);
+					if (older == null) {
+						// Leave this version and the older ones as they are
+						break;
+					}
+					title = older[0];
+					note = older[1];
+				}
+				ids.add(c.getLong(0));
+				texts.add(new String[] { title, note });
+				isDelta.add(!c.isNull(4));
+
+				// The newest version always stays
+				final int pos = c.getPosition();
+				if (keep < 0 && pos > 0 && ((maxVersions > 0 && pos >= maxVersions)
+						|| (cutoff != null && c.getInt(6) != 0))) {
+					keep = pos;
+				}
+			}
+		}
+
+		int removed = 0;
+		if (keep > 0) {
+			// Older versions are deltas of newer ones, never the other way
+			// around, so removing the oldest leaves the rest readable
+			removed = db.delete(Task.HISTORY_TABLE_NAME, Task.Columns.HIST_TASK_ID
+							+ " IS ? AND " + Task.Columns._ID + " <= ?",
+					new String[] { Long.toString(taskId), Long.toString(ids.get(keep)) });
+		} else {
+			keep = ids.size();
+		}
+
+		// How many deltas directly follow each version, going back in time
+		final int[] deltasAfter = new int[keep + 1];
+		for (int i = keep - 1; i >= 0; i--) {
+			deltasAfter[i] = i + 1 < keep && isDelta.get(i + 1) ? deltasAfter[i + 1] + 1 : 0;
+		}
+
+		int chain = 0;
+		for (int i = 1; i < keep; i++) {
+			if (isDelta.get(i)) {
+				chain++;
+			} else if (chain + 1 + deltasAfter[i] < SNAPSHOT_INTERVAL) {
+				final ContentValues values = new ContentValues();
+				values.put(Task.Columns.TITLE, "");
+				values.put(Task.Columns.NOTE, "");
+				values.put(Task.Columns.HIST_DELTA, encode(texts.get(i - 1), texts.get(i)));
+				db.update(Task.HISTORY_TABLE_NAME, values, Task.Columns._ID + " IS ?",
+						new String[] { Long.toString(ids.get(i)) });
+				chain++;
+			} else {
+				chain = 0;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * @return the delta which turns newer into older, both title and note
+	 */
+	static byte[] encode(final String[] newer, final String[] older) {
+		try {
+			final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(plain);
+			writeDelta(out, newer[0], older[0]);
+			writeDelta(out, newer[1], older[1]);
+			out.flush();
+
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			if (plain.size() > COMPRESS_ABOVE) {
+				result.write(FORMAT_DEFLATED);
+				try (OutputStream deflater = new DeflaterOutputStream(result)) {
+					plain.writeTo(deflater);
+				}
+			} else {
+				result.write(FORMAT_PLAIN);
+				plain.writeTo(result);
+			}
+			return result.toByteArray();
+		} catch (IOException e) {
+			// Only memory streams here
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return title and note of the older version, or null if the delta
+	 * does not apply to the newer one
+	 */
+	static String[] decode(final byte[] delta, final String newerTitle,
+						   final String newerNote) {
+		if (delta == null || delta.length == 0 || newerTitle == null || newerNote == null) {
+			return null;
+		}
+		try {
+			InputStream in = new ByteArrayInputStream(delta, 1, delta.length - 1);
+			if (delta[0] == FORMAT_DEFLATED) {
+				in = new InflaterInputStream(in);
+			}
+			final DataInputStream data = new DataInputStream(in);
+			return new String[] { readDelta(data, newerTitle), readDelta(data, newerNote) };
+		} catch (IOException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			NnnLogger.exception(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stored as the length of the common start and end, and what goes in
+	 * between. Enough for the typical edit, which changes one place.
+	 */
+	private static void writeDelta(final DataOutputStream out, final String base,
+								   final String target) throws IOException {
+		final int max = Math.min(base.length(), target.length());
+		int prefix = 0;
+		while (prefix < max && base.charAt(prefix) == target.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < max - prefix && base.charAt(base.length() - 1 - suffix)
+				== target.charAt(target.length() - 1 - suffix)) {
+			suffix++;
+		}
+		// Don't split surrogate pairs
+		if (prefix > 0 && Character.isHighSurrogate(target.charAt(prefix - 1))) {
+			prefix--;
+		}
+		if (suffix > 0 && Character.isLowSurrogate(target.charAt(target.length() - suffix))) {
+			suffix--;
+		}
+
+		final byte[] middle = target.substring(prefix, target.length() - suffix)
+				.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(prefix);
+		out.writeInt(suffix);
+		out.writeInt(middle.length);
+		out.write(middle);
+	}
+
+	private static String readDelta(final DataInputStream in, final String base)
+			throws IOException {
+		final int prefix = in.readInt();
+		final int suffix = in.readInt();
+		final byte[] middle = new byte[in.readInt()];
+		in.readFully(middle);
+		return base.substring(0, prefix) + new String(middle, StandardCharsets.UTF_8)
+				+ base.substring(base.length() - suffix);
+	}
+}
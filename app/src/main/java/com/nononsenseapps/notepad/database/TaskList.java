@@ -21,6 +21,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -87,6 +88,8 @@ public class TaskList extends DAO {
 		public static final String SORTING = "sorting";
 
 		public static final String VIEW_COUNT = "count";
+		// Uncompleted tasks in the list, maintained by triggers
+		public static final String OPEN_COUNT = "opencount";
 
 		public static final String[] FIELDS = { _ID, TITLE, UPDATED, LISTTYPE, SORTING };
 		// GTASKACCOUNT, GTASKID };
@@ -99,25 +102,78 @@ public class TaskList extends DAO {
 			" TEXT NOT NULL DEFAULT ''," + Columns.UPDATED +
 			" INTEGER," + Columns.LISTTYPE +
 			" TEXT DEFAULT NULL," + Columns.SORTING +
-			" TEXT DEFAULT NULL" + ")";
-
-	public static final String CREATE_COUNT_VIEW = "CREATE TEMP VIEW IF NOT EXISTS " +
-			VIEWCOUNT_NAME +
-			" AS SELECT " +
-			arrayToCommaString(Columns.FIELDS) +
-			"," +
-			Columns.VIEW_COUNT +
-			" FROM " +
-			TABLE_NAME +
-			" LEFT JOIN " +
-			// Select count statement
-			" (SELECT COUNT(1) AS " + Columns.VIEW_COUNT +
-			"," + Task.Columns.DBLIST + " FROM " +
-			Task.TABLE_NAME + " WHERE " +
-			Task.Columns.COMPLETED + " IS NULL " +
-			" GROUP BY " + Task.Columns.DBLIST + ") " +
-			" ON " + TABLE_NAME + "." + Columns._ID +
-			" = " + Task.Columns.DBLIST + ";";
+			" TEXT DEFAULT NULL," + Columns.OPEN_COUNT +
+			" INTEGER NOT NULL DEFAULT 0" + ")";
+
+	/**
+	 * The number of uncompleted tasks, as shown in {@link #URI_WITH_COUNT}.
+	 * Null for empty lists
+	 */
+	static final String COUNT_COLUMN = "NULLIF(" + Columns.OPEN_COUNT + ",0) AS " +
+			Columns.VIEW_COUNT;
+
+	/*
+	 * Keep the open task counts up to date as tasks are added, removed,
+	 * completed or moved to another list
+	 */
+	public static final String TRIGGER_COUNT_INSERT = "CREATE TRIGGER task_count_insert AFTER INSERT ON " +
+			Task.TABLE_NAME + " WHEN new." + Task.Columns.COMPLETED + " IS NULL" +
+			" BEGIN UPDATE " + TABLE_NAME + " SET " + Columns.OPEN_COUNT + " = " +
+			Columns.OPEN_COUNT + " + 1 WHERE " + Columns._ID + " IS new." +
+			Task.Columns.DBLIST + "; END;";
+
+	public static final String TRIGGER_COUNT_DELETE = "CREATE TRIGGER task_count_delete AFTER DELETE ON " +
+			Task.TABLE_NAME + " WHEN old." + Task.Columns.COMPLETED + " IS NULL" +
+			" BEGIN UPDATE " + TABLE_NAME + " SET " + Columns.OPEN_COUNT + " = " +
+			Columns.OPEN_COUNT + " - 1 WHERE " + Columns._ID + " IS old." +
+			Task.Columns.DBLIST + "; END;";
+
+	public static final String TRIGGER_COUNT_UPDATE = "CREATE TRIGGER task_count_update AFTER UPDATE OF " +
+			Task.Columns.COMPLETED + "," + Task.Columns.DBLIST + " ON " + Task.TABLE_NAME +
+			" WHEN (old." + Task.Columns.COMPLETED + " IS NULL) IS NOT (new." +
+			Task.Columns.COMPLETED + " IS NULL) OR old." + Task.Columns.DBLIST +
+			" IS NOT new." + Task.Columns.DBLIST +
+			" BEGIN UPDATE " + TABLE_NAME + " SET " + Columns.OPEN_COUNT + " = " +
+			Columns.OPEN_COUNT + " - 1 WHERE " + Columns._ID + " IS old." +
+			Task.Columns.DBLIST + " AND old." + Task.Columns.COMPLETED + " IS NULL;" +
+			" UPDATE " + TABLE_NAME + " SET " + Columns.OPEN_COUNT + " = " +
+			Columns.OPEN_COUNT + " + 1 WHERE " + Columns._ID + " IS new." +
+			Task.Columns.DBLIST + " AND new." + Task.Columns.COMPLETED + " IS NULL;" +
+			" END;";
+
+	/**
+	 * Recomputes all open task counts from the task table
+	 */
+	public static final String RECOUNT = "UPDATE " + TABLE_NAME + " SET " +
+			Columns.OPEN_COUNT + " = (SELECT COUNT(1) FROM " + Task.TABLE_NAME +
+			" WHERE " + Task.TABLE_NAME + "." + Task.Columns.DBLIST + " = " +
+			TABLE_NAME + "." + Columns._ID + " AND " + Task.TABLE_NAME + "." +
+			Task.Columns.COMPLETED + " IS NULL)";
+
+	/**
+	 * The projection to use on the table for {@link #URI_WITH_COUNT}. The
+	 * count column is computed from the maintained counter.
+	 */
+	static String[] withCountProjection(final String[] projection) {
+		final String[] result = projection != null ? projection.clone()
+				: joinArrays(Columns.FIELDS, new String[] { Columns.VIEW_COUNT });
+		for (int i = 0; i < result.length; i++) {
+			if (Columns.VIEW_COUNT.equals(result[i])) {
+				result[i] = COUNT_COLUMN;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Recompute the open task counts of all lists. The triggers keep them
+	 * right, this is for repairing them by hand if they ever drift.
+	 */
+	public static void recountOpenTasks(final Context context) {
+		DatabaseHandler.getInstance(context).getWritableDatabase().execSQL(RECOUNT);
+		QueryCache.getInstance().changed(TABLE_NAME);
+		notifyProviderOnChange(context, URI_WITH_COUNT);
+	}
 
 	public String title = "";
 
@@ -175,6 +231,23 @@ public class TaskList extends DAO {
 		return values;
 	}
 
+	// Columns of getContent
+	private static final String[] CONTENT_COLUMNS = { Columns.TITLE, Columns.UPDATED,
+			Columns.LISTTYPE, Columns.SORTING };
+
+	@Override
+	protected String[] getContentColumns() {
+		return CONTENT_COLUMNS;
+	}
+
+	@Override
+	protected void bindContent(final SQLiteStatement statement) {
+		bind(statement, 1, title);
+		bind(statement, 2, updated);
+		bind(statement, 3, listtype);
+		bind(statement, 4, sorting);
+	}
+
 	@Override
 	protected String getTableName() {
 		return TABLE_NAME;
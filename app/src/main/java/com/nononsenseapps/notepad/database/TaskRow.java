@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * Reads the task at the current position of a cursor, without making a
+ * {@link Task} of every row. The columns are looked up once, the getters
+ * return primitives, so loops which only look at a few columns of many rows
+ * allocate nothing per row. Columns not in the projection read as null, or
+ * as 0 and false.
+ */
+public final class TaskRow {
+
+	// Enough to compare a task with another version of it
+	public static final String[] TIMESTAMP_FIELDS = { Task.Columns._ID,
+			Task.Columns.UPDATED };
+	// Enough to list a task
+	public static final String[] SUMMARY_FIELDS = { Task.Columns._ID, Task.Columns.TITLE,
+			Task.Columns.PREVIEW, Task.Columns.DBLIST, Task.Columns.DUE,
+			Task.Columns.COMPLETED };
+
+	private final Cursor mCursor;
+	private final int mId;
+	private final int mTitle;
+	private final int mNote;
+	private final int mPreview;
+	private final int mDblist;
+	private final int mDue;
+	private final int mCompleted;
+	private final int mUpdated;
+
+	public TaskRow(final Cursor cursor) {
+		mCursor = cursor;
+		mId = cursor.getColumnIndex(Task.Columns._ID);
+		mTitle = cursor.getColumnIndex(Task.Columns.TITLE);
+		mNote = cursor.getColumnIndex(Task.Columns.NOTE);
+		mPreview = cursor.getColumnIndex(Task.Columns.PREVIEW);
+		mDblist = cursor.getColumnIndex(Task.Columns.DBLIST);
+		mDue = cursor.getColumnIndex(Task.Columns.DUE);
+		mCompleted = cursor.getColumnIndex(Task.Columns.COMPLETED);
+		mUpdated = cursor.getColumnIndex(Task.Columns.UPDATED);
+	}
+
+	public boolean moveToNext() {
+		return mCursor.moveToNext();
+	}
+
+	public long id() {
+		return getLong(mId);
+	}
+
+	public String title() {
+		return getString(mTitle);
+	}
+
+	/**
+	 * The note, or the preview if the note is not in the projection
+	 */
+	public String note() {
+		return getString(mNote >= 0 ? mNote : mPreview);
+	}
+
+	public long dblist() {
+		return getLong(mDblist);
+	}
+
+	public boolean hasDue() {
+		return !isNull(mDue);
+	}
+
+	public long due() {
+		return getLong(mDue);
+	}
+
+	public boolean isCompleted() {
+		return !isNull(mCompleted);
+	}
+
+	public long completed() {
+		return getLong(mCompleted);
+	}
+
+	public boolean hasUpdated() {
+		return !isNull(mUpdated);
+	}
+
+	public long updated() {
+		return getLong(mUpdated);
+	}
+
+	/**
+	 * A task with the columns of this row, for when one is needed after all
+	 */
+	public Task toTask() {
+		final Task task = new Task();
+		task._id = id();
+		task.title = title();
+		task.note = note();
+		if (mDblist >= 0) task.dblist = dblist();
+		if (hasDue()) task.due = due();
+		if (isCompleted()) task.completed = completed();
+		if (hasUpdated()) task.updated = updated();
+		return task;
+	}
+
+	private boolean isNull(final int column) {
+		return column < 0 || mCursor.isNull(column);
+	}
+
+	private long getLong(final int column) {
+		return column < 0 ? 0 : mCursor.getLong(column);
+	}
+
+	private String getString(final int column) {
+		return column < 0 ? null : mCursor.getString(column);
+	}
+
+	/**
+	 * When the tasks were last updated, by id. Two arrays, no object per
+	 * task.
+	 */
+	public static final class Timestamps {
+
+		private long[] mIds = new long[64];
+		private long[] mUpdated = new long[64];
+		private int mSize = 0;
+
+		/**
+		 * Reads all rows of a cursor with TIMESTAMP_FIELDS, sorted by id.
+		 * Tasks never updated are left out.
+		 */
+		public static Timestamps read(final Cursor cursor) {
+			final Timestamps result = new Timestamps();
+			final TaskRow row = new TaskRow(cursor);
+			while (row.moveToNext()) {
+				if (row.hasUpdated()) {
+					result.add(row.id(), row.updated());
+				}
+			}
+			return result;
+		}
+
+		private void add(final long id, final long updated) {
+			if (mSize == mIds.length) {
+				mIds = Arrays.copyOf(mIds, mSize * 2);
+				mUpdated = Arrays.copyOf(mUpdated, mSize * 2);
+			}
+			if (mSize > 0 && id <= mIds[mSize - 1]) {
+				throw new IllegalArgumentException("Tasks must be sorted by id");
+			}
+			mIds[mSize] = id;
+			mUpdated[mSize] = updated;
+			mSize++;
+		}
+
+		public int size() {
+			return mSize;
+		}
+
+		/**
+		 * @return true if the task was read and last updated at this time
+		 */
+		public boolean isUpdatedAt(final long id, final long updated) {
+			final int i = Arrays.binarySearch(mIds, 0, mSize, id);
+			return i >= 0 && mUpdated[i] == updated;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.util.LongSparseArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Full text searches ordered by relevance.
+ *
+ * FTS4 has no ranking function of its own and one can't be registered with
+ * the platform database, so the matchinfo of every hit is read and scored
+ * here with Okapi BM25, the same ranking FTS5 uses. Hits in the title count
+ * more than hits in the note. Only the best rows are then read in full, so
+ * snippets are made for those alone.
+ */
+public final class TaskSearch {
+
+	// The usual BM25 parameters
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+	// Weights of the columns of the search tables: title, note
+	private static final double[] WEIGHTS = { 2.0, 1.0 };
+
+	private static final String MATCHINFO = "search_matchinfo";
+
+	/**
+	 * Excerpt of the note around the matches, with every match between
+	 * HIGHLIGHT_START and HIGHLIGHT_END. Used in place of the note, so the
+	 * whole note is never read
+	 */
+	public static final String SNIPPET = "snippet";
+	// The same excerpt without marks, for text that can't be styled
+	public static final String PLAIN_SNIPPET = "plain_snippet";
+	public static final char HIGHLIGHT_START = '\u0002';
+	public static final char HIGHLIGHT_END = '\u0003';
+	// Most words in an excerpt, at most 64
+	private static final int SNIPPET_TOKENS = 32;
+
+	// Search results as shown in lists, in the order of the task fields
+	public static final String[] FIELDS = { Task.Columns._ID, Task.Columns.TITLE, SNIPPET,
+			Task.Columns.COMPLETED, Task.Columns.DUE, Task.Columns.UPDATED, Task.Columns.LEFT,
+			Task.Columns.RIGHT, Task.Columns.DBLIST, Task.Columns.LOCKED };
+	public static final String[] DELETEFIELDS = { Task.Columns._ID, Task.Columns.TITLE,
+			SNIPPET, Task.Columns.COMPLETED, Task.Columns.DUE, Task.Columns.DBLIST,
+			Task.Columns.TRIG_DELETED };
+
+	private static final Pattern SNIPPET_COLUMN = Pattern.compile("\\b" + SNIPPET + "\\b");
+	private static final Pattern PLAIN_SNIPPET_COLUMN =
+			Pattern.compile("\\b" + PLAIN_SNIPPET + "\\b");
+
+	private TaskSearch() {}
+
+	/**
+	 * @param ftsTable     search table to match in
+	 * @param contentTable table the search table indexes
+	 * @param projection   columns of the content table, and snippets
+	 * @param match        full text query
+	 * @param sortOrder    order of the rows, null for the most relevant first
+	 * @param limit        max number of rows, or null for all
+	 * @param signal       cancels the search, may be null
+	 * @return the matching rows
+	 */
+	public static Cursor query(final SQLiteDatabase db, final String ftsTable,
+							   final String contentTable, final String[] projection,
+							   final String match, final String sortOrder,
+							   final String limit, final CancellationSignal signal) {
+		return query(db, ftsTable, contentTable, projection, match, null, sortOrder, limit,
+				signal);
+	}
+
+	/**
+	 * Like {@link #query(SQLiteDatabase, String, String, String[], String, String,
+	 * String, CancellationSignal)}, among the rows of the content table which
+	 * match a selection. Rows are scored against the whole table all the
+	 * same, so they keep the order a search of all rows gives them.
+	 *
+	 * @param selection condition on the columns of the content table, without
+	 *                  arguments. Null for all rows
+	 */
+	public static Cursor query(final SQLiteDatabase db, final String ftsTable,
+							   final String contentTable, final String[] projection,
+							   final String match, final String selection,
+							   final String sortOrder, final String limit,
+							   final CancellationSignal signal) {
+		final String columns = DAO.arrayToCommaString(projection);
+		final String where = selection == null ? "" : " WHERE " + selection;
+		if (sortOrder != null) {
+			return db.rawQuery(rowsQuery(ftsTable, contentTable, columns, null) + where
+					+ " ORDER BY " + sortOrder + (limit == null ? "" : " LIMIT " + limit),
+					new String[] { match }, signal);
+		}
+
+		// Scores first, from the ids and matchinfo alone
+		final List<Long> ids = new ArrayList<>();
+		final List<Double> scores = new ArrayList<>();
+		try (Cursor c = db.rawQuery(String.format("SELECT m.docid, m.%1$s FROM %2$s JOIN "
+						+ "(SELECT docid, matchinfo(%3$s, 'pcnalx') AS %1$s FROM %3$s "
+						+ "WHERE %3$s MATCH ?) AS m ON %2$s.%4$s = m.docid%5$s",
+				MATCHINFO, contentTable, ftsTable, Task.Columns._ID, where),
+				new String[] { match }, signal)) {
+			while (c.moveToNext()) {
+				if (signal != null) {
+					signal.throwIfCanceled();
+				}
+				ids.add(c.getLong(0));
+				scores.add(score(c.getBlob(1)));
+			}
+		}
+
+		final Integer[] order = new Integer[ids.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// Stable, equal scores keep the order of the table
+		Arrays.sort(order, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+		final int count = limit == null ? order.length
+				: Math.min(order.length, Integer.parseInt(limit));
+		final long[] top = new long[count];
+		for (int i = 0; i < count; i++) {
+			top[i] = ids.get(order[i]);
+		}
+
+		// Then the columns and snippets of the rows which are shown
+		final LongSparseArray<Object[]> rows = new LongSparseArray<>(count);
+		final String[] names;
+		try (Cursor c = db.rawQuery(rowsQuery(ftsTable, contentTable, columns, top),
+				new String[] { match }, signal)) {
+			final int docid = c.getColumnCount() - 1;
+			names = Arrays.copyOf(c.getColumnNames(), docid);
+			while (c.moveToNext()) {
+				rows.put(c.getLong(docid), RowCursor.copyRow(c, docid));
+			}
+		}
+
+		final MatrixCursor result = new MatrixCursor(names, count);
+		for (long id : top) {
+			final Object[] row = rows.get(id);
+			// Unless deleted in between
+			if (row != null) {
+				result.addRow(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param ids only these rows, in no particular order, with their docid as
+	 *            the last column. Null for all matches
+	 * @return the columns of the matching rows, with snippets
+	 */
+	private static String rowsQuery(final String ftsTable, final String contentTable,
+									final String columns, final long[] ids) {
+		final StringBuilder searched = new StringBuilder("docid");
+		// Excerpts of the note, the second column of the search table
+		if (SNIPPET_COLUMN.matcher(columns).find()) {
+			searched.append(String.format(", snippet(%1$s, '%2$s', '%3$s', '...', 1, %4$d) AS %5$s",
+					ftsTable, HIGHLIGHT_START, HIGHLIGHT_END, SNIPPET_TOKENS, SNIPPET));
+		}
+		if (PLAIN_SNIPPET_COLUMN.matcher(columns).find()) {
+			searched.append(String.format(", snippet(%1$s, '', '', '...', 1, %2$d) AS %3$s",
+					ftsTable, SNIPPET_TOKENS, PLAIN_SNIPPET));
+		}
+
+		// The subquery keeps the columns of the search table out of the projection
+		return String.format("SELECT %1$s%2$s FROM %3$s JOIN "
+						+ "(SELECT %4$s FROM %5$s WHERE %5$s MATCH ?%7$s) AS m "
+						+ "ON %3$s.%6$s = m.docid",
+				columns, ids == null ? "" : ", m.docid", contentTable, searched, ftsTable,
+				Task.Columns._ID,
+				ids == null ? "" : " AND docid IN (" + DAO.arrayToCommaString(ids) + ")");
+	}
+
+	/**
+	 * For reading the content table without a query to match: snippets
+	 * become the start of the note.
+	 */
+	public static String[] withoutMatch(final String[] projection) {
+		final String[] result = projection.clone();
+		for (int i = 0; i < result.length; i++) {
+			if (SNIPPET.equals(result[i]) || PLAIN_SNIPPET.equals(result[i])) {
+				result[i] = String.format("substr(%1$s, 1, %2$d) AS %3$s", Task.Columns.NOTE,
+						8 * SNIPPET_TOKENS, result[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the marks from an excerpt
+	 *
+	 * @param highlights gets the start and end of every match, may be null
+	 */
+	public static String unmark(final String snippet, final List<int[]> highlights) {
+		if (snippet.indexOf(HIGHLIGHT_START) < 0) {
+			return snippet;
+		}
+		final StringBuilder text = new StringBuilder(snippet.length());
+		int start = -1;
+		for (int i = 0; i < snippet.length(); i++) {
+			final char c = snippet.charAt(i);
+			if (c == HIGHLIGHT_START) {
+				start = text.length();
+			} else if (c == HIGHLIGHT_END) {
+				if (start >= 0 && highlights != null) {
+					highlights.add(new int[] { start, text.length() });
+				}
+				start = -1;
+			} else {
+				text.append(c);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * BM25 of one row, from matchinfo 'pcnalx': phrase and column count, row
+	 * count, average tokens per column, tokens per column of this row, and
+	 * for each phrase and column the hits in this row, in all rows, and the
+	 * number of rows with a hit.
+	 */
+	static double score(final byte[] matchinfo) {
+		final int[] mi = new int[matchinfo.length / 4];
+		ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer().get(mi);
+
+		final int phrases = mi[0];
+		final int cols = mi[1];
+		final int rows = mi[2];
+		final int avgAt = 3;
+		final int lenAt = avgAt + cols;
+		final int hitsAt = lenAt + cols;
+
+		double score = 0;
+		for (int p = 0; p < phrases; p++) {
+			for (int col = 0; col < cols; col++) {
+				final int x = hitsAt + 3 * (p * cols + col);
+				final int hits = mi[x];
+				if (hits == 0) {
+					continue;
+				}
+				final int rowsWithHits = mi[x + 2];
+				// Terms in most rows would get a negative weight, like in FTS5
+				final double idf = Math.max(1e-6, Math.log(
+						(rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5)));
+				final double avg = Math.max(1, mi[avgAt + col]);
+				final double tf = hits * (K1 + 1)
+						/ (hits + K1 * (1 - B + B * mi[lenAt + col] / avg));
+				score += (col < WEIGHTS.length ? WEIGHTS[col] : 1.0) * idf * tf;
+			}
+		}
+		return score;
+	}
+}
@@ -17,7 +17,6 @@
 
 package com.nononsenseapps.notepad.fragments;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.widget.AdapterView;
@@ -34,7 +33,6 @@ import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 
 import com.nononsenseapps.notepad.R;
-import com.nononsenseapps.notepad.database.DAO;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 
@@ -140,14 +138,8 @@ public class DialogMoveToList extends DialogFragment {
 
 	@Background
 	void moveItems(final long toListId, final long[] taskIds) {
-
-		final ContentValues val = new ContentValues();
-		val.put(Task.Columns.DBLIST, toListId);
-
-		// where _ID in (1, 2, 3)
-		final String whereId = Task.Columns._ID + " IN (" + DAO.arrayToCommaString(taskIds) + ")";
-
-		getActivity().getContentResolver().update(Task.URI, val, whereId, null);
+		// All tasks in one call, keeping their order
+		Task.moveTasks(getActivity().getContentResolver(), taskIds, toListId);
 	}
 
 	@Click(resName = "dialog_no")
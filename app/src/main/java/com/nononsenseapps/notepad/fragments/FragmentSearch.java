@@ -23,6 +23,8 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.View;
@@ -37,12 +39,12 @@ import androidx.cursoradapter.widget.SimpleCursorAdapter.ViewBinder;
 import androidx.fragment.app.Fragment;
 import androidx.loader.app.LoaderManager;
 import androidx.loader.app.LoaderManager.LoaderCallbacks;
-import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 import androidx.preference.PreferenceManager;
 
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskSearch;
 import com.nononsenseapps.ui.TitleNoteTextView;
 
 import org.androidannotations.annotations.AfterViews;
@@ -58,6 +60,9 @@ public class FragmentSearch extends Fragment {
 
 	public final static String QUERY = "query";
 
+	// Wait this long after the last keystroke before searching
+	private static final long SEARCH_DELAY_MS = 250;
+
 	@SystemService
 	protected
 	SearchManager searchManager;
@@ -74,6 +79,10 @@ public class FragmentSearch extends Fragment {
 
 	protected SearchView mSearchView;
 
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private final Runnable mSearch = () -> doSearch(mQuery);
+
 	public static FragmentSearch_ getInstance(final String initialQuery) {
 		FragmentSearch_ f = new FragmentSearch_();
 		Bundle args = new Bundle();
@@ -124,7 +133,10 @@ public class FragmentSearch extends Fragment {
 
 			@Override
 			public boolean onQueryTextChange(final String query) {
-				doSearch(query);
+				// Typing fast only searches for the last query
+				mQuery = query == null ? "" : query;
+				mHandler.removeCallbacks(mSearch);
+				mHandler.postDelayed(mSearch, SEARCH_DELAY_MS);
 				return true;
 			}
 		});
@@ -147,8 +159,8 @@ public class FragmentSearch extends Fragment {
 			@NonNull
 			@Override
 			public Loader<Cursor> onCreateLoader(int id, Bundle arg1) {
-				return new CursorLoader(getActivity(), getSearchUri(), getFields(),
-						null, new String[] { mQuery }, getSortOrder());
+				return new SearchLoader(getActivity(), getSearchUri(), getFields(),
+						getSortOrder(), mQuery);
 			}
 
 			@Override
@@ -166,11 +178,21 @@ public class FragmentSearch extends Fragment {
 	}
 
 	protected void doSearch(final String query) {
+		mHandler.removeCallbacks(mSearch);
 		mQuery = query == null ? "" : query;
 
 		// If not loaded yet, let it load
-		if (mCallback != null)
-			LoaderManager.getInstance(this).restartLoader(0, null, mCallback);
+		// The same loader for every query, it cancels the search in progress
+		if (mCallback != null) {
+			((SearchLoader) LoaderManager.getInstance(this).initLoader(0, null, mCallback))
+					.setQuery(mQuery);
+		}
+	}
+
+	@Override
+	public void onDestroyView() {
+		mHandler.removeCallbacks(mSearch);
+		super.onDestroyView();
 	}
 
 	/**
@@ -184,14 +206,15 @@ public class FragmentSearch extends Fragment {
 	 * Override to give different search behaviour
 	 */
 	protected String[] getFields() {
-		return Task.Columns.FIELDS;
+		return TaskSearch.FIELDS;
 	}
 
 	/**
-	 * Override to give different search behaviour
+	 * Override to give different search behaviour. Null gives the most
+	 * relevant results first.
 	 */
 	protected String getSortOrder() {
-		return Task.Columns.TITLE;
+		return null;
 	}
 
 	/**
@@ -202,7 +225,7 @@ public class FragmentSearch extends Fragment {
 				getActivity(),
 				R.layout.tasklist_item_rich,
 				null,
-				new String[] { Task.Columns.TITLE, Task.Columns.NOTE, Task.Columns.DUE,
+				new String[] { Task.Columns.TITLE, TaskSearch.SNIPPET, Task.Columns.DUE,
 						Task.Columns.COMPLETED, Task.Columns.LEFT, Task.Columns.RIGHT },
 				new int[] { android.R.id.text1, android.R.id.text1, R.id.date, R.id.checkbox,
 						R.id.drag_handle, R.id.dragpadding },
@@ -249,7 +272,7 @@ public class FragmentSearch extends Fragment {
 					((TitleNoteTextView) view).setTextTitle(sTemp);
 					return true;
 				case 2:
-					// Note
+					// Excerpt of the note
 					// Only if task it not locked
 					if (c.getInt(9) != 1) {
 						((TitleNoteTextView) view).setTextRest(c
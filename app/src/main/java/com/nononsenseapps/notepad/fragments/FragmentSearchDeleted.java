@@ -38,6 +38,7 @@ import androidx.preference.PreferenceManager;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.DAO;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskSearch;
 import com.nononsenseapps.ui.TitleNoteTextView;
 
 import org.androidannotations.annotations.AfterViews;
@@ -102,11 +103,11 @@ public class FragmentSearchDeleted extends FragmentSearch {
 					if (pos > -1) {
 						final Cursor c = (Cursor) list.getItemAtPosition(pos);
 
-						// restore task
+						// restore task. The list only has an excerpt of the note
 						final Task t = new Task();
 						t.dblist = listId;
 						t.title = c.getString(1);
-						t.note = c.getString(2);
+						t.note = getNote(id);
 						t.completed = c.isNull(3) ? null : c.getLong(3);
 						t.due = c.isNull(4) ? null : c.getLong(4);
 						t.save(getActivity());
@@ -116,6 +117,14 @@ public class FragmentSearchDeleted extends FragmentSearch {
 				deleteSelected(mode);
 			}
 
+			String getNote(final long id) {
+				try (Cursor c = getActivity().getContentResolver().query(
+						Uri.withAppendedPath(Task.URI_DELETED_QUERY, Long.toString(id)),
+						new String[] { Task.Columns.NOTE }, null, null, null)) {
+					return c != null && c.moveToFirst() ? c.getString(0) : "";
+				}
+			}
+
 			int getPosOfId(final long id) {
 				int length = list.getCount();
 				int position;
@@ -183,7 +192,7 @@ public class FragmentSearchDeleted extends FragmentSearch {
 
 	@Override
 	protected String[] getFields() {
-		return Task.Columns.DELETEFIELDS;
+		return TaskSearch.DELETEFIELDS;
 	}
 
 	@Override
@@ -201,7 +210,7 @@ public class FragmentSearchDeleted extends FragmentSearch {
 		return new SimpleCursorAdapter(getActivity(),
 				R.layout.tasklist_item_rich,
 				null,
-				new String[] { Task.Columns.TITLE, Task.Columns.NOTE, Task.Columns.DUE,
+				new String[] { Task.Columns.TITLE, TaskSearch.SNIPPET, Task.Columns.DUE,
 						Task.Columns.COMPLETED, Task.Columns.TRIG_DELETED,
 						Task.Columns.TRIG_DELETED },
 				new int[] { android.R.id.text1, android.R.id.text1, R.id.date, R.id.checkbox,
@@ -223,7 +232,7 @@ public class FragmentSearchDeleted extends FragmentSearch {
 				// the code here decides how the notes on the archive look like.
 				// Each number in the "case" instruction matches the order in Task.Columns.Fields,
 				// in fact c.getColumnNames() returns the fields of the note in the database:
-				// ["_id", "title", "note", "completed", "due", "dblist", "deletedtime" ]
+				// ["_id", "title", "snippet", "completed", "due", "dblist", "deletedtime" ]
 				case 1:
 					// Title, in column "title"
 					String noteTitle = c.getString(colIndex);
@@ -246,8 +255,8 @@ public class FragmentSearchDeleted extends FragmentSearch {
 					((TitleNoteTextView) view).setTextTitle(noteTitle);
 					return true;
 				case 2:
-					// Note content, in column "note". Let's show it even in the "Archive" view,
-					// so that the user can distinguish 2 deleted notes with the same title
+					// Excerpt of the note, in column "snippet". Let's show it even in the "Archive"
+					// view, so that the user can distinguish 2 deleted notes with the same title
 					String noteContent = c.getString(colIndex);
 					((TitleNoteTextView) view).setTextRest(noteContent);
 					return true;
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2015 Jonas Kalderstam.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nononsenseapps.notepad.fragments;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContentResolverCompat;
+import androidx.core.os.CancellationSignal;
+import androidx.core.os.OperationCanceledException;
+import androidx.loader.content.AsyncTaskLoader;
+
+import com.nononsenseapps.notepad.database.DAO;
+import com.nononsenseapps.notepad.database.RowCursor;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskSearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads search results for a query that changes while the user types.
+ *
+ * One loader lives as long as the search screen, {@link #setQuery(String)}
+ * replaces the query. A search still running for an older query is canceled
+ * through its CancellationSignal. When the new query only adds to the end of
+ * the previous one, only the previous results can match it. With whole notes
+ * and an order which does not depend on the query, they are filtered in
+ * memory. Otherwise, for results by relevance or with excerpts in place of
+ * the notes, the database only searches among the ids of the previous
+ * results, which are scored like in a search of all rows.
+ */
+public class SearchLoader extends AsyncTaskLoader<Cursor> {
+
+	// Words with a meaning in FTS queries. Those can't be narrowed in memory
+	private static final List<String> OPERATORS = Arrays.asList("AND", "OR", "NOT", "NEAR");
+	// Most previous results to search among, more are searched again
+	private static final int MAX_NARROWED_IDS = 2000;
+
+	private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+	private final Uri mUri;
+	private final String[] mProjection;
+	private final String mSortOrder;
+
+	private volatile String mQuery;
+	private Cursor mCursor;
+	private CancellationSignal mCancellationSignal;
+
+	// Rows of the last database search, used to narrow the next query. Only
+	// touched by the load thread; loads never run at the same time
+	private String mCachedQuery;
+	private String[] mCachedColumns;
+	private List<Object[]> mCachedRows;
+	private Uri mCachedNotificationUri;
+	// Where the id, title and note are in the cached rows, -1 if not there
+	private int mCachedId = -1;
+	private int mCachedTitle = -1;
+	private int mCachedNote = -1;
+	// If the note column only has an excerpt of the note
+	private boolean mCachedExcerpt = false;
+	// Bumped when the data changes, makes the cached rows useless
+	private volatile int mGeneration = 0;
+	private int mCachedGeneration = -1;
+
+	public SearchLoader(@NonNull final Context context, final Uri uri,
+						final String[] projection, final String sortOrder,
+						final String query) {
+		super(context);
+		mUri = uri;
+		mProjection = projection;
+		mSortOrder = sortOrder;
+		mQuery = query == null ? "" : query;
+	}
+
+	/**
+	 * Searches for a new query, canceling the search in progress, if any
+	 */
+	public void setQuery(final String query) {
+		final String newQuery = query == null ? "" : query;
+		if (newQuery.equals(mQuery)) {
+			return;
+		}
+		mQuery = newQuery;
+		// Not onContentChanged(), the cached rows are still valid
+		super.onContentChanged();
+	}
+
+	@Override
+	public void onContentChanged() {
+		mGeneration++;
+		super.onContentChanged();
+	}
+
+	@Override
+	public Cursor loadInBackground() {
+		final String query = mQuery;
+		final int generation = mGeneration;
+
+		String selection = null;
+		if (mCachedRows != null && mCachedGeneration == generation
+				&& canNarrow(mCachedQuery, query)) {
+			// In memory only if that gives the same rows in the same order:
+			// excerpts may not show the new word, and relevance changes with
+			// the query. Else the database searches among the cached rows
+			if (mCachedRows.isEmpty() || mSortOrder != null && !mCachedExcerpt
+					&& mCachedTitle >= 0 && mCachedNote >= 0) {
+				return narrow(query);
+			}
+			if (mCachedId >= 0 && mCachedRows.size() <= MAX_NARROWED_IDS) {
+				selection = cachedIds();
+			}
+		}
+
+		synchronized (this) {
+			if (isLoadInBackgroundCanceled()) {
+				throw new OperationCanceledException();
+			}
+			mCancellationSignal = new CancellationSignal();
+		}
+		try {
+			final Cursor c = ContentResolverCompat.query(getContext().getContentResolver(),
+					mUri, mProjection, selection, new String[] { query }, mSortOrder,
+					mCancellationSignal);
+			if (c == null) {
+				mCachedRows = null;
+				return null;
+			}
+			try {
+				cache(c, query, generation);
+			} finally {
+				c.close();
+			}
+			return toCursor(mCachedRows);
+		} finally {
+			synchronized (this) {
+				mCancellationSignal = null;
+			}
+		}
+	}
+
+	@Override
+	public void cancelLoadInBackground() {
+		super.cancelLoadInBackground();
+		synchronized (this) {
+			if (mCancellationSignal != null) {
+				mCancellationSignal.cancel();
+			}
+		}
+	}
+
+	private void cache(final Cursor c, final String query, final int generation) {
+		final String[] columns = c.getColumnNames();
+		final List<Object[]> rows = new ArrayList<>(c.getCount());
+		while (c.moveToNext()) {
+			if (isLoadInBackgroundCanceled()) {
+				throw new OperationCanceledException();
+			}
+			rows.add(RowCursor.copyRow(c));
+		}
+		mCachedColumns = columns;
+		mCachedRows = rows;
+		mCachedQuery = query;
+		mCachedGeneration = generation;
+		mCachedNotificationUri = c.getNotificationUri();
+		mCachedId = c.getColumnIndex(Task.Columns._ID);
+		mCachedTitle = c.getColumnIndex(Task.Columns.TITLE);
+		mCachedNote = c.getColumnIndex(Task.Columns.NOTE);
+		mCachedExcerpt = mCachedNote < 0;
+		if (mCachedExcerpt) {
+			mCachedNote = c.getColumnIndex(TaskSearch.SNIPPET);
+		}
+	}
+
+	private Cursor toCursor(final List<Object[]> rows) {
+		final MatrixCursor result = new MatrixCursor(mCachedColumns, rows.size());
+		for (Object[] row : rows) {
+			result.addRow(row);
+		}
+		if (mCachedNotificationUri != null) {
+			result.setNotificationUri(getContext().getContentResolver(), mCachedNotificationUri);
+		}
+		return result;
+	}
+
+	/**
+	 * The cached rows which also match the longer query. The cache keeps the
+	 * rows of the last database search, so a shorter query can still narrow
+	 * from it later.
+	 */
+	private Cursor narrow(final String query) {
+		final List<String> words = tokenize(query);
+
+		final List<Object[]> rows = new ArrayList<>();
+		for (Object[] row : mCachedRows) {
+			if (isLoadInBackgroundCanceled()) {
+				throw new OperationCanceledException();
+			}
+			final List<String> tokens = tokenize(row[mCachedTitle] + " " + row[mCachedNote]);
+			if (matches(tokens, words)) {
+				rows.add(row);
+			}
+		}
+		return toCursor(rows);
+	}
+
+	/**
+	 * @return a selection of the rows with the ids of the cached rows
+	 */
+	private String cachedIds() {
+		final long[] ids = new long[mCachedRows.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = ((Number) mCachedRows.get(i)[mCachedId]).longValue();
+		}
+		return Task.Columns._ID + " IN (" + DAO.arrayToCommaString(ids) + ")";
+	}
+
+	/**
+	 * True if every match of the new query also matches the old one, and
+	 * the match can be checked here. The provider looks for every word, the
+	 * last one as a prefix.
+	 */
+	public static boolean canNarrow(final String oldQuery, final String newQuery) {
+		return oldQuery != null && !oldQuery.trim().isEmpty() && newQuery.startsWith(oldQuery)
+				&& isPlain(oldQuery) && isPlain(newQuery);
+	}
+
+	/**
+	 * Only words and spaces, no operators or quotes. The search tables take
+	 * all non-ASCII characters as part of a word, so only ASCII spaces
+	 * separate words, and other non-ASCII characters are left to them.
+	 */
+	private static boolean isPlain(final String query) {
+		for (int i = 0; i < query.length(); i++) {
+			final char c = query.charAt(i);
+			if (c < 0x80 ? !Character.isLetterOrDigit(c) && !Character.isWhitespace(c)
+					: !Character.isLetterOrDigit(c)) {
+				return false;
+			}
+		}
+		for (String word : query.trim().split("\\s+")) {
+			if (OPERATORS.contains(word)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Every word must be a token, the last may be the start of one
+	 */
+	public static boolean matches(final List<String> tokens, final List<String> words) {
+		for (int w = 0; w < words.size(); w++) {
+			final String word = words.get(w);
+			boolean found = false;
+			for (String token : tokens) {
+				if (w == words.size() - 1 ? token.startsWith(word) : token.equals(word)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Splits like the simple tokenizer of the search tables: ASCII letters
+	 * and digits and all non-ASCII characters make up words, and only ASCII
+	 * is folded to lower case.
+	 */
+	public static List<String> tokenize(final String text) {
+		final List<String> tokens = new ArrayList<>();
+		final StringBuilder token = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c >= 0x80 || Character.isLetterOrDigit(c)) {
+				token.append(c < 0x80 ? Character.toLowerCase(c) : c);
+			} else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		if (token.length() > 0) {
+			tokens.add(token.toString());
+		}
+		return tokens;
+	}
+
+	@Override
+	public void deliverResult(final Cursor cursor) {
+		if (isReset()) {
+			if (cursor != null) {
+				cursor.close();
+			}
+			return;
+		}
+		final Cursor oldCursor = mCursor;
+		mCursor = cursor;
+		if (cursor != null) {
+			cursor.registerContentObserver(mObserver);
+		}
+
+		if (isStarted()) {
+			super.deliverResult(cursor);
+		}
+
+		if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+			oldCursor.close();
+		}
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (mCursor != null) {
+			deliverResult(mCursor);
+		}
+		if (takeContentChanged() || mCursor == null) {
+			forceLoad();
+		}
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	public void onCanceled(final Cursor cursor) {
+		if (cursor != null && !cursor.isClosed()) {
+			cursor.close();
+		}
+	}
+
+	@Override
+	protected void onReset() {
+		super.onReset();
+		onStopLoading();
+		if (mCursor != null && !mCursor.isClosed()) {
+			mCursor.close();
+		}
+		mCursor = null;
+	}
+}
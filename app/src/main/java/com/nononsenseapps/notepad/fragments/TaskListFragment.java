@@ -95,6 +95,9 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 
 	public static final String LIST_ID = "list_id";
 
+	// Characters of a note to read for every line a row shows
+	private static final int PREVIEW_CHARS_PER_LINE = 200;
+
 	/**
 	 * {@link android.R.id#list }
 	 */
@@ -143,7 +146,7 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 				R.layout.tasklist_item_rich,
 				R.layout.tasklist_header,
 				null,
-				new String[] { Task.Columns.TITLE, Task.Columns.NOTE,
+				new String[] { Task.Columns.TITLE, Task.Columns.PREVIEW,
 						Task.Columns.DUE, Task.Columns.COMPLETED,
 						Task.Columns.LEFT, Task.Columns.RIGHT },
 				new int[] { android.R.id.text1, android.R.id.text1, R.id.date,
@@ -386,8 +389,14 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 					}
 				}
 
+				if (Task.URI.equals(targetUri)) {
+					// Read in pages, with only as much of the notes as fits in a row
+					targetUri = Task.getPagedUri(
+							PREVIEW_CHARS_PER_LINE * Math.max(1, mRowCount));
+				}
+
 				return new CursorLoader(getActivity(), targetUri,
-						Task.Columns.FIELDS, where, whereArgs, sortSpec);
+						Task.Columns.PREVIEWFIELDS, where, whereArgs, sortSpec);
 			}
 
 			@Override
@@ -607,6 +616,18 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 						// Protect against faulty translations
 					}
 					finish = true;
+				} else if (itemId == R.id.menu_complete) {
+					// Complete them all, unless they all are already
+					boolean allCompleted = true;
+					for (final Task t : tasks.values()) {
+						if (t.completed == null) {
+							allCompleted = false;
+							break;
+						}
+					}
+					Task.setCompleted(getActivity().getApplicationContext(), !allCompleted,
+							tasks.keySet().toArray(new Long[0]));
+					finish = true;
 				} else if (itemId == R.id.menu_delete) {
 					boolean locked = false;
 					for (final Task t : tasks.values()) {
@@ -676,12 +697,25 @@ public class TaskListFragment extends Fragment implements OnSharedPreferenceChan
 					if (t.locked) {
 						sb.append(t.title);
 					} else {
-						sb.append(t.getText());
+						sb.append(getFullTask(t).getText());
 					}
 				}
 				return sb.toString();
 			}
 
+			/**
+			 * The list only has previews of the notes
+			 */
+			Task getFullTask(final Task t) {
+				try (Cursor c = getActivity().getContentResolver().query(Task.getUri(t._id),
+						Task.Columns.FIELDS, null, null, null)) {
+					if (c != null && c.moveToFirst()) {
+						return new Task(c);
+					}
+				}
+				return t;
+			}
+
 			String getShareSubject() {
 				String result = "";
 				for (Task t : tasks.values()) {
@@ -20,28 +20,28 @@ package com.nononsenseapps.notepad.legacy;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.provider.BaseColumns;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.preference.PreferenceManager;
 
-import com.nononsenseapps.helpers.NnnLogger;
+import com.nononsenseapps.helpers.ChangeDispatcher;
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.LegacyMigrator;
 import com.nononsenseapps.notepad.database.MyContentProvider;
+import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
-import com.nononsenseapps.notepad.sync.googleapi.GoogleTask;
-import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
-import com.nononsenseapps.helpers.RFC3339Date;
 
 import org.androidannotations.annotations.EService;
 import org.androidannotations.annotations.UiThread;
 
-import java.util.HashMap;
-
 @EService
 public class DonateMigrator extends IntentService {
 
@@ -49,28 +49,6 @@ public class DonateMigrator extends IntentService {
 	static final String DONATE_AUTHORITY = "com.nononsenseapps.donate.NotePad";
 	static final Uri BASEURI = Uri.parse(MyContentProvider.SCHEME
 			+ DONATE_AUTHORITY);
-	static final String PATH_NOTES = "notes";
-	static final String PATH_LISTS = "lists";
-	static final String PATH_GTASKS = "gtasks";
-	static final String PATH_GTASKLISTS = "gtasklists";
-
-	static final String[] NOTEPROJECTION = new String[] { NotePad.Notes._ID,
-			NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE,
-			NotePad.Notes.COLUMN_NAME_DUE_DATE,
-			NotePad.Notes.COLUMN_NAME_GTASKS_STATUS,
-			NotePad.Notes.COLUMN_NAME_LIST,
-			NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE };
-	static final String[] GTASKPROJECTION = new String[] { NotePad.GTasks._ID,
-			NotePad.GTasks.COLUMN_NAME_GTASKS_ID,
-			NotePad.GTasks.COLUMN_NAME_GOOGLE_ACCOUNT,
-			NotePad.GTasks.COLUMN_NAME_DB_ID };
-
-	static final String[] LISTPROJECTION = new String[] { NotePad.Lists._ID,
-			NotePad.Lists.COLUMN_NAME_TITLE };
-	static final String[] GTASKLISTPROJECTION = new String[] {
-			NotePad.GTaskLists._ID, NotePad.GTaskLists.COLUMN_NAME_GTASKS_ID,
-			NotePad.GTaskLists.COLUMN_NAME_GOOGLE_ACCOUNT,
-			NotePad.GTaskLists.COLUMN_NAME_DB_ID };
 
 	int mNotesImportedCount = 0;
 	int mListsImportedCount = 0;
@@ -106,108 +84,50 @@ public class DonateMigrator extends IntentService {
 
 	/**
 	 * Copies data from the donate app's database to this app's database. Result
-	 * is updated in fields.
+	 * is updated in fields. An import which was interrupted continues where
+	 * it stopped.
 	 */
 	void importNotes() {
-		final HashMap<Long, Long> listIDMap = new HashMap<>();
-		//final HashMap<Long, Long> taskIDMap = new HashMap<>();
+		final LegacyMigrator.Source source = (table, columns, selection, afterId) -> {
+			if (NotePad.Notifications.TABLE_NAME.equals(table)) {
+				// Not shared by the donate app
+				return null;
+			}
+			// Tables have the same names as their paths. Read by id, for the
+			// checkpoint. The notes are put in possubsort order when converted
+			final String where = BaseColumns._ID + " > ?";
+			return getContentResolver().query(Uri.withAppendedPath(BASEURI, table), columns,
+					selection == null ? where : "(" + selection + ") AND " + where,
+					new String[] { Long.toString(afterId) }, BaseColumns._ID);
+		};
 
-		// Work through, list by list
-		try (Cursor listCursor = getContentResolver().query(
-				Uri.withAppendedPath(BASEURI, PATH_LISTS), LISTPROJECTION,
-				NotePad.Lists.COLUMN_NAME_DELETED + " IS NOT 1", null,
-				NotePad.Lists.COLUMN_NAME_TITLE)) {
-			while (listCursor.moveToNext()) {
-				TaskList tl = new TaskList();
-				tl.title = listCursor.getString(1);
-				if (tl.save(this) > 0) {
-					listIDMap.put(listCursor.getLong(0), tl._id);
-					mListsImportedCount += 1;
-				}
-				// Gtasklist
-				try (Cursor gtasklistCursor = getContentResolver().query(
-						Uri.withAppendedPath(BASEURI, PATH_GTASKLISTS),
-						GTASKLISTPROJECTION,
-						NotePad.GTaskLists.COLUMN_NAME_DB_ID + " IS ?",
-						new String[] { Long.toString(listCursor.getLong(0)) },
-						null)) {
-					if (gtasklistCursor.moveToFirst()) {
-						GoogleTaskList gl = new GoogleTaskList(tl,
-								gtasklistCursor.getString(2));
-						gl.remoteId = gtasklistCursor.getString(1);
-						gl.updated = tl.updated;
-						gl.save(this);
+		try {
+			final SQLiteDatabase db = DatabaseHandler.getInstance(this).getWritableDatabase();
+			final long lists = DatabaseUtils.queryNumEntries(db, TaskList.TABLE_NAME);
+			mNotesImportedCount = LegacyMigrator.migrate(db, source, new LegacyMigrator.Progress() {
+				int mReported = 0;
+
+				@Override
+				public void onProgress(final int done, final int total) {
+					// Every quarter
+					final int percent = total > 0 ? 100 * done / total : 100;
+					if (percent / 25 > mReported / 25) {
+						mReported = percent;
+						reportProgress(percent);
 					}
-				} catch (Exception e) {
-					mError = e.getLocalizedMessage();
-					return;
 				}
-			}
+			});
+			mListsImportedCount = (int) (DatabaseUtils.queryNumEntries(db, TaskList.TABLE_NAME)
+					- lists);
 		} catch (Exception e) {
 			mError = e.getLocalizedMessage();
 			return;
 		}
 
-		try (Cursor noteCursor = getContentResolver().query(
-				Uri.withAppendedPath(BASEURI, PATH_NOTES),
-				NOTEPROJECTION,
-				NotePad.Notes.COLUMN_NAME_DELETED + " IS NOT 1 AND "
-						+ NotePad.Notes.COLUMN_NAME_HIDDEN + " IS NOT 1", null,
-				NotePad.Notes.COLUMN_NAME_POSSUBSORT)) {
-			while (noteCursor.moveToNext()) {
-				Task t = new Task();
-				t.title = noteCursor.getString(1);
-				t.note = noteCursor.getString(2);
-
-				if (t.note.contains("[locked]")) {
-					t.locked = true;
-					t.note = t.note.replace("[locked]", "");
-				}
-
-				try {
-					t.due = RFC3339Date
-							.parseRFC3339Date(noteCursor.getString(3))
-							.getTime();
-				} catch (Exception e) {
-					NnnLogger.warning(DonateMigrator.class, "date error");
-				}
-
-				// completed must be converted
-				if (noteCursor.getString(4) != null
-						&& "completed".equals(noteCursor.getString(4))) {
-					t.setAsCompleted();
-				}
-				t.dblist = listIDMap.get(noteCursor.getLong(5));
-
-				t.updated = noteCursor.getLong(6);
-
-				if (t.dblist != null) {
-					t.save(this, t.updated);
-					//taskIDMap.put(noteCursor.getLong(0), t._id);
-					mNotesImportedCount += 1;
-				}
-				// Gtask
-				try (Cursor gtaskCursor = getContentResolver().query(
-						Uri.withAppendedPath(BASEURI, PATH_GTASKS),
-						GTASKPROJECTION,
-						NotePad.GTasks.COLUMN_NAME_DB_ID + " IS ?",
-						new String[] { Long.toString(noteCursor.getLong(0)) },
-						null)) {
-					if (gtaskCursor.moveToFirst()) {
-						GoogleTask gt = new GoogleTask(t,
-								gtaskCursor.getString(2));
-						gt.remoteId = gtaskCursor.getString(1);
-						gt.updated = t.updated;
-						gt.save(this);
-					}
-				} catch (Exception e) {
-					mError = e.getLocalizedMessage();
-					return;
-				}
-			}
-		} catch (Exception e) {
-			mError = e.getLocalizedMessage();
-		}
+		final ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(this);
+		dispatcher.post(TaskList.URI);
+		dispatcher.post(Task.URI);
+		dispatcher.post(Notification.URI);
 	}
 
 	/**
@@ -237,6 +157,16 @@ public class DonateMigrator extends IntentService {
 		}
 	}
 
+	@UiThread
+	void reportProgress(final int percent) {
+		try {
+			Toast.makeText(this, getString(R.string.import_progress, percent),
+					Toast.LENGTH_SHORT).show();
+		} catch (Exception e) {
+			// In case of bad translations
+		}
+	}
+
 	@UiThread
 	void reportStarting() {
 		try {
@@ -17,12 +17,16 @@
 
 package com.nononsenseapps.notepad.sync.files;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.os.RemoteException;
 import android.util.Log;
 
 import com.nononsenseapps.helpers.NotificationHelper;
+import com.nononsenseapps.notepad.database.MyContentProvider;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.RemoteTaskList;
@@ -40,6 +44,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
 
 public class JSONBackup {
@@ -258,45 +263,54 @@ public class JSONBackup {
 
 	/**
 	 * Clears the database and restores the backup. Throws exceptions on
-	 * failure.
+	 * failure. Everything happens in one batch, so the database is left as it
+	 * was if the restore fails.
 	 */
 	public void restoreBackup() throws SecurityException, JSONException, IOException {
 		final JSONObject backup = readBackup();
 		// Only if backup exists will we clear the database
-		clearDatabase();
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+		clearDatabase(ops);
 
 		final JSONArray listsarray = backup.getJSONArray(KEY_LISTS);
 		for (int i = 0; i < listsarray.length(); i++) {
 			final JSONObject jsonlist = listsarray.getJSONObject(i);
 			final TaskList tasklist = new TaskList(jsonlist);
-			if (tasklist.updated != null)
-				tasklist.save(context, tasklist.updated);
-			else
-				tasklist.save(context);
+			if (tasklist.updated == null)
+				tasklist.updated = Calendar.getInstance().getTimeInMillis();
+
+			final int listIndex = ops.size();
+			ops.add(ContentProviderOperation.newInsert(TaskList.URI)
+					.withValues(tasklist.getContent())
+					.build());
 
 			if (!jsonlist.isNull(KEY_REMOTES)) {
-				restoreRemotes(tasklist, jsonlist.getJSONArray(KEY_REMOTES));
+				restoreRemotes(ops, listIndex, jsonlist.getJSONArray(KEY_REMOTES));
 			} else {
 				Log.d("JONAS", "Remotes was null");
 			}
 			if (!jsonlist.isNull(KEY_TASKS)) {
-				restoreTasks(tasklist, jsonlist.getJSONArray(KEY_TASKS));
+				restoreTasks(ops, listIndex, jsonlist.getJSONArray(KEY_TASKS));
 			}
 		}
 
+		try {
+			context.getContentResolver().applyBatch(MyContentProvider.AUTHORITY, ops);
+		} catch (RemoteException | OperationApplicationException e) {
+			throw new IOException("Could not restore backup", e);
+		}
 		// Schedule notifications
 		NotificationHelper.schedule(context);
 	}
 
-	private void clearDatabase() {
-		context.getContentResolver().delete(RemoteTask.URI, null, null);
-		context.getContentResolver().delete(RemoteTaskList.URI, null, null);
+	private void clearDatabase(final ArrayList<ContentProviderOperation> ops) {
+		ops.add(ContentProviderOperation.newDelete(RemoteTask.URI).build());
+		ops.add(ContentProviderOperation.newDelete(RemoteTaskList.URI).build());
 
-		context.getContentResolver().delete(TaskList.URI, null, null);
-
-		context.getContentResolver().delete(Task.URI, null, null);
-		context.getContentResolver().delete(Notification.URI, null, null);
+		ops.add(ContentProviderOperation.newDelete(TaskList.URI).build());
 
+		ops.add(ContentProviderOperation.newDelete(Task.URI).build());
+		ops.add(ContentProviderOperation.newDelete(Notification.URI).build());
 	}
 
 	private JSONObject readBackup() throws JSONException, IOException, SecurityException {
@@ -316,57 +330,68 @@ public class JSONBackup {
 		return new JSONObject(sb.toString());
 	}
 
-	private void restoreRemotes(final TaskList tasklist,
-								final JSONArray jsonArray) throws JSONException {
+	private void restoreRemotes(final ArrayList<ContentProviderOperation> ops,
+								final int listIndex, final JSONArray jsonArray)
+			throws JSONException {
 		Log.d("JONAS", "Remote length: " + jsonArray.length());
 		for (int i = 0; i < jsonArray.length(); i++) {
 			final JSONObject json = jsonArray.getJSONObject(i);
 			final RemoteTaskList remote = new RemoteTaskList(json);
-			remote.dbid = tasklist._id;
-			remote.save(context);
-			Log.d("JONAS", "RemoteL restored: " + remote._id);
+			ops.add(ContentProviderOperation.newInsert(RemoteTaskList.URI)
+					.withValues(remote.getContent())
+					.withValueBackReference(RemoteTaskList.Columns.DBID, listIndex)
+					.build());
 		}
 	}
 
-	private void restoreTasks(final TaskList list, final JSONArray tasksarray)
+	private void restoreTasks(final ArrayList<ContentProviderOperation> ops,
+							  final int listIndex, final JSONArray tasksarray)
 			throws JSONException {
 		for (int i = 0; i < tasksarray.length(); i++) {
 			final JSONObject jsontask = tasksarray.getJSONObject(i);
 			final Task task = new Task(jsontask);
-			task.dblist = list._id;
-			if (task.updated != null)
-				task.save(context, task.updated);
-			else
-				task.save(context);
+			if (task.updated == null)
+				task.updated = Calendar.getInstance().getTimeInMillis();
+
+			final int taskIndex = ops.size();
+			ops.add(ContentProviderOperation.newInsert(Task.URI)
+					.withValues(task.getContent())
+					.withValueBackReference(Task.Columns.DBLIST, listIndex)
+					.build());
 
 			if (!jsontask.isNull(KEY_REMOTES)) {
-				restoreRemotes(task, jsontask.getJSONArray(KEY_REMOTES));
+				restoreRemotes(ops, listIndex, taskIndex, jsontask.getJSONArray(KEY_REMOTES));
 			}
 			if (!jsontask.isNull(KEY_REMINDERS)) {
-				restoreReminders(task, jsontask.getJSONArray(KEY_REMINDERS));
+				restoreReminders(ops, taskIndex, jsontask.getJSONArray(KEY_REMINDERS));
 			}
 		}
 	}
 
-	private void restoreRemotes(final Task task, final JSONArray jsonArray)
-			throws JSONException {
+	private void restoreRemotes(final ArrayList<ContentProviderOperation> ops,
+								final int listIndex, final int taskIndex,
+								final JSONArray jsonArray) throws JSONException {
 		for (int i = 0; i < jsonArray.length(); i++) {
 			final JSONObject json = jsonArray.getJSONObject(i);
 			final RemoteTask remote = new RemoteTask(json);
-			remote.dbid = task._id;
-			remote.listdbid = task.dblist;
-			remote.save(context);
-			Log.d("JONAS", "RemoteT restored: " + remote._id);
+			ops.add(ContentProviderOperation.newInsert(RemoteTask.URI)
+					.withValues(remote.getContent())
+					.withValueBackReference(RemoteTask.Columns.DBID, taskIndex)
+					.withValueBackReference(RemoteTask.Columns.LISTDBID, listIndex)
+					.build());
 		}
 	}
 
-	private void restoreReminders(final Task task, final JSONArray jsonArray)
+	private void restoreReminders(final ArrayList<ContentProviderOperation> ops,
+								  final int taskIndex, final JSONArray jsonArray)
 			throws JSONException {
 		for (int i = 0; i < jsonArray.length(); i++) {
 			final JSONObject json = jsonArray.getJSONObject(i);
 			final Notification not = new Notification(json);
-			not.taskID = task._id;
-			not.save(context);
+			ops.add(ContentProviderOperation.newInsert(Notification.URI)
+					.withValues(not.getContent())
+					.withValueBackReference(Notification.Columns.TASKID, taskIndex)
+					.build());
 		}
 	}
 }
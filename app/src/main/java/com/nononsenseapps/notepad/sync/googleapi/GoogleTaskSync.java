@@ -33,6 +33,7 @@ import com.nononsenseapps.build.Config;
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskRow;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
 import com.nononsenseapps.helpers.PermissionsHelper;
 import com.nononsenseapps.helpers.SyncGtaskHelper;
@@ -527,14 +528,33 @@ public class GoogleTaskSync {
 		return t;
 	}
 
+	/**
+	 * When the tasks of the list were last updated, without loading them
+	 */
+	static TaskRow.Timestamps loadTimestampsFromDB(final Context context, final long listdbid) {
+		try (Cursor c = context.getContentResolver().query(Task.URI,
+				TaskRow.TIMESTAMP_FIELDS, Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(listdbid) }, Task.Columns._ID)) {
+			return c == null ? new TaskRow.Timestamps() : TaskRow.Timestamps.read(c);
+		}
+	}
+
 	public static List<Pair<Task, GoogleTask>> synchronizeTasksLocally(
 			final Context context, final List<GoogleTask> remoteTasks,
 			final Pair<TaskList, GoogleTaskList> listPair) {
 		final SharedPreferences settings = PreferenceManager
 				.getDefaultSharedPreferences(context);
 		final ArrayList<Pair<Task, GoogleTask>> taskPairs = new ArrayList<>();
+		// Most tasks are the same on both sides. Those need not be loaded
+		final TaskRow.Timestamps localTimes = loadTimestampsFromDB(context, listPair.first._id);
 		// For every list
 		for (final GoogleTask remoteTask : remoteTasks) {
+			if (!remoteTask.remotelydeleted && remoteTask.dbid != null
+					&& remoteTask.updated != null
+					&& localTimes.isUpdatedAt(remoteTask.dbid, remoteTask.updated)) {
+				// Nothing to do, we are already updated
+				continue;
+			}
 			// Compare with local
 			Task localTask = loadRemoteTaskFromDB(context, remoteTask);
 
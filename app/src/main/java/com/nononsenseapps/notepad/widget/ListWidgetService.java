@@ -122,7 +122,7 @@ public class ListWidgetService extends RemoteViewsService {
 			RemoteViews rv = null;
 			if (mCursor.moveToPosition(position)) {
 				// column names:
-				// "_id" "title" "note" "completed" "due" "updated" "lft" "rgt" "dblist" "locked"
+				// "_id" "title" "preview" "completed" "due" "updated" "lft" "rgt" "dblist" "locked"
 				if (mCursor.getLong(0) < 1) {
 					// TODO this branch NEVER gets called ??
 					NnnLogger.warning(ListWidgetService.class, "The code branch was ACTUALLY called!");
@@ -324,7 +324,7 @@ public class ListWidgetService extends RemoteViewsService {
 
 			mCursor = mContext
 					.getContentResolver()
-					.query(targetUri, Task.Columns.FIELDS, listWhere, listArg, sortSpec);
+					.query(targetUri, Task.Columns.PREVIEWFIELDS, listWhere, listArg, sortSpec);
 
 			// Restore the identity - not sure if it's needed since we're going
 			// to return right here, but it just *seems* cleaner
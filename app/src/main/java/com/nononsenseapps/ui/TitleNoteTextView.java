@@ -28,6 +28,7 @@ import android.text.Selection;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
 import android.text.style.ClickableSpan;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.StyleSpan;
@@ -42,6 +43,10 @@ import androidx.appcompat.widget.AppCompatTextView;
 
 import com.nononsenseapps.helpers.NnnLogger;
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.TaskSearch;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A TextView that highlights the first line and makes links clickable. The text
@@ -260,9 +265,18 @@ public class TitleNoteTextView extends AppCompatTextView {
 		return mStyledText;
 	}
 
+	private void highlight(final Spannable text, final List<int[]> highlights) {
+		for (int[] range : highlights) {
+			text.setSpan(new BackgroundColorSpan(getHighlightColor()), range[0], range[1],
+					Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		}
+	}
+
 	public void setStyledText(final String styledText) {
 		if (styledText != null) {
-			this.mStyledText = styledText;
+			// Excerpts of search results mark the matches
+			final List<int[]> highlights = new ArrayList<>();
+			this.mStyledText = TaskSearch.unmark(styledText, highlights);
 
 			try {
 				int titleEnd = mStyledText.indexOf("\n");
@@ -284,6 +298,7 @@ public class TitleNoteTextView extends AppCompatTextView {
 						text.setSpan(bodyFamilySpan, titleEnd, mStyledText.length(),
 								Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
 					}
+					highlight(text, highlights);
 
 					setText(text, BufferType.SPANNABLE);
 
@@ -296,7 +311,9 @@ public class TitleNoteTextView extends AppCompatTextView {
 					}
 				} else {
 					// Emtpy string
-					setText(new SpannableString(mStyledText), BufferType.SPANNABLE);
+					SpannableString text = new SpannableString(mStyledText);
+					highlight(text, highlights);
+					setText(text, BufferType.SPANNABLE);
 				}
 			} catch (NullPointerException miuibug) {
 				/*
@@ -0,0 +1,602 @@
+package com.nononsenseapps.notepad.test;
+
+import android.app.SearchManager;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.PagedTaskCursor;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskHistory;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskSearch;
+import com.nononsenseapps.notepad.fragments.TaskListFragment;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies that the queries {@link com.nononsenseapps.notepad.database.MyContentProvider}
+ * runs are answered by an index instead of a full table scan.
+ *
+ * Besides the checks of single indexes, the plans of the statements behind
+ * every provider URI, of all trigger bodies and of the foreign key lookups
+ * are checked. They may not scan a large table or sort in a temp b-tree,
+ * unless that is listed as expected. Where the SQL is built by a public
+ * helper, it is recorded while the helper runs, else its shape is copied.
+ */
+public class DBQueryPlanTest extends TestCase {
+
+	static final String PREFIX = "queryplan_test_";
+	static final int LISTS = 5;
+	static final int TASKS_PER_LIST = 400;
+	static final String ACCOUNT = "fake@account.com";
+	static final String SERVICE = "googletasks";
+
+	// Tables which grow with the number of tasks. "t" is what the task table
+	// is called in the joined notification view
+	static final List<String> LARGE_TABLES = Arrays.asList(Task.TABLE_NAME,
+			Task.HISTORY_TABLE_NAME, Task.DELETE_TABLE_NAME, Notification.TABLE_NAME,
+			RemoteTask.TABLE_NAME, "t");
+	// "SCAN task" in newer versions of SQLite, "SCAN TABLE task" in older
+	static final Pattern SCAN = Pattern.compile("\\bSCAN (?:TABLE )?(\\w+)");
+	static final String SORT = "USE TEMP B-TREE";
+	static final String AUTOMATIC_INDEX = "AUTOMATIC";
+
+	static final Pattern TRIGGER = Pattern.compile(
+			"CREATE\\s+TRIGGER\\s.*?(?:\\sWHEN\\s(.*?))?\\sBEGIN\\s(.*)\\sEND\\s*;?\\s*",
+			Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+	static final Pattern ROW_REFERENCE = Pattern.compile("\\b(?:new|old)\\.\\w+",
+			Pattern.CASE_INSENSITIVE);
+	// Can only be explained inside a trigger
+	static final Pattern RAISE = Pattern.compile("RAISE\\s*\\([^)]*\\)",
+			Pattern.CASE_INSENSITIVE);
+
+	private Context context;
+	private SQLiteDatabase db;
+	private long listId;
+	private long taskId;
+
+	// A second connection, which remembers the SQL of every query
+	private SQLiteDatabase recorder;
+	private final List<String> recorded = Collections.synchronizedList(new ArrayList<>());
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		db = Helper.openFreshDatabase(context, PREFIX).getWritableDatabase();
+
+		// Some lists with enough tasks to be read in pages. The triggers fill
+		// the history and the search index. Every task is synced, every
+		// fifth has a reminder
+		final ContentValues values = new ContentValues();
+		db.beginTransaction();
+		try {
+			for (int l = 0; l < LISTS; l++) {
+				values.clear();
+				values.put(TaskList.Columns.TITLE, "list" + l);
+				listId = db.insert(TaskList.TABLE_NAME, null, values);
+				for (int t = 0; t < TASKS_PER_LIST; t++) {
+					values.clear();
+					values.put(Task.Columns.TITLE, "task" + t);
+					values.put(Task.Columns.NOTE, "a note about task " + t);
+					values.put(Task.Columns.DBLIST, listId);
+					values.put(Task.Columns.DUE, t % 3 == 0 ? null : 1000L * t);
+					values.put(Task.Columns.COMPLETED, t % 4 == 0 ? 1000L * t : null);
+					values.put(Task.Columns.UPDATED, 1000L * t);
+					taskId = db.insert(Task.TABLE_NAME, null, values);
+
+					if (t % 5 == 0) {
+						values.clear();
+						values.put(Notification.Columns.TASKID, taskId);
+						values.put(Notification.Columns.TIME, 1000L * t);
+						db.insert(Notification.TABLE_NAME, null, values);
+					}
+
+					values.clear();
+					values.put(RemoteTask.Columns.DBID, taskId);
+					values.put(RemoteTask.Columns.LISTDBID, listId);
+					values.put(RemoteTask.Columns.REMOTEID, "remote" + taskId);
+					values.put(RemoteTask.Columns.UPDATED, 1000L * t);
+					values.put(RemoteTask.Columns.ACCOUNT, ACCOUNT);
+					values.put(RemoteTask.Columns.SERVICE, SERVICE);
+					db.insert(RemoteTask.TABLE_NAME, null, values);
+				}
+			}
+			// Some deleted tasks, so the archive is not empty
+			db.delete(Task.TABLE_NAME, Task.Columns.DBLIST + " IS NOT ? AND "
+					+ Task.Columns._ID + " % 10 = 0", new String[] { Long.toString(listId) });
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		recorder = SQLiteDatabase.openDatabase(
+				context.getDatabasePath(PREFIX + DatabaseHandler.DATABASE_NAME).getPath(),
+				(database, driver, editTable, query) -> {
+					recorded.add(query.toString().replaceFirst("^SQLiteQuery: ", ""));
+					return new SQLiteCursor(driver, editTable, query);
+				},
+				SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		recorder.close();
+		db.close();
+		Helper.deleteDatabases(context, PREFIX);
+		super.tearDown();
+	}
+
+	/**
+	 * @return all "detail" lines of EXPLAIN QUERY PLAN, joined by newlines
+	 */
+	private String explain(final String sql, final String... args) {
+		final StringBuilder plan = new StringBuilder();
+		// On the connection which ran ANALYZE, statements which write are
+		// explained in a transaction which is never committed
+		db.beginTransaction();
+		try (Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+			final int detail = c.getColumnIndexOrThrow("detail");
+			while (c.moveToNext()) {
+				plan.append(c.getString(detail)).append("\n");
+			}
+		} finally {
+			db.endTransaction();
+		}
+		return plan.toString();
+	}
+
+	private String queryPlan(final String table, final String[] columns,
+							 final String where, final String orderBy, final String... args) {
+		return explain(query(table, columns, where, orderBy), args);
+	}
+
+	private static String query(final String table, final String[] columns,
+								final String where, final String orderBy) {
+		return SQLiteQueryBuilder.buildQueryString(false, table, columns, where,
+				null, null, orderBy, null);
+	}
+
+	private void assertUsesIndex(final String plan, final String index) {
+		assertTrue("Expected index " + index + " in plan:\n" + plan, plan.contains(index));
+	}
+
+	/**
+	 * Fails if the statement scans a large table not in scansAllowed, builds
+	 * an automatic index, or sorts in a temp b-tree unless sortAllowed
+	 */
+	private void assertPlan(final String what, final String sql, final boolean sortAllowed,
+							final String... scansAllowed) {
+		final String plan = explain(sql);
+		final String message = what + ":\n" + sql + "\n" + plan;
+		assertFalse("Unexpected sort in " + message, !sortAllowed && plan.contains(SORT));
+		assertFalse("Automatic index in " + message, plan.contains(AUTOMATIC_INDEX));
+		final List<String> allowed = Arrays.asList(scansAllowed);
+		final Matcher m = SCAN.matcher(plan);
+		while (m.find()) {
+			assertFalse("Unexpected scan of " + m.group(1) + " in " + message,
+					LARGE_TABLES.contains(m.group(1)) && !allowed.contains(m.group(1)));
+		}
+	}
+
+	/**
+	 * Checks all statements recorded since the last call
+	 */
+	private void assertRecordedPlans(final String what, final boolean sortAllowed,
+									 final String... scansAllowed) {
+		final List<String> statements;
+		synchronized (recorded) {
+			statements = new ArrayList<>(recorded);
+			recorded.clear();
+		}
+		assertFalse("Nothing recorded for " + what, statements.isEmpty());
+		for (String sql : statements) {
+			assertPlan(what, sql, sortAllowed, scansAllowed);
+		}
+	}
+
+	/**
+	 * A task list read in pages: the first page, a page after the one
+	 * before it and a page reached by an offset
+	 */
+	private void assertPagedPlans(final String what, final String selection,
+								  final String[] args, final String sortOrder,
+								  final boolean sortAllowed, final String... scansAllowed) {
+		try (Cursor c = PagedTaskCursor.query(recorder, Task.Columns.PREVIEWFIELDS,
+				selection, args, sortOrder, 40)) {
+			assertNotNull(c);
+			c.moveToPosition(PagedTaskCursor.PAGE_SIZE + PagedTaskCursor.PAGE_SIZE / 2);
+			c.moveToPosition(4 * PagedTaskCursor.PAGE_SIZE + PagedTaskCursor.PAGE_SIZE / 2);
+		}
+		assertRecordedPlans(what, sortAllowed, scansAllowed);
+		// Counted without a cursor
+		assertPlan(what + " count", "SELECT COUNT(*) FROM " + Task.TABLE_NAME
+				+ (selection == null ? "" : " WHERE " + selection), false, scansAllowed);
+	}
+
+	private void analyze() {
+		db.execSQL("ANALYZE");
+	}
+
+	/**
+	 * The reads of MyContentProvider.query, by URI
+	 */
+	private void checkQueries() {
+		final String inList = Task.Columns.DBLIST + " IS ?";
+		final String[] listArg = new String[] { Long.toString(listId) };
+
+		// TaskList.BASEURICODE, VIEWCOUNTCODE and the legacy list URIs. Few rows
+		assertPlan("lists", query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS, null,
+				TaskList.Columns.TITLE), true);
+		assertPlan("list", query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS,
+				TaskList.whereIdIs(null), null), false);
+
+		// Task.BASEITEMCODE
+		assertPlan("task", query(Task.TABLE_NAME, Task.Columns.FIELDS,
+				Task.whereIdIs(null), null), false);
+
+		// Task.BASEURICODE in pages, as TaskListFragment reads a list. Only
+		// the manual order has an index
+		assertPagedPlans("manual order", inList, listArg, Task.Columns.LEFT, false);
+		assertPagedPlans("alphabetic order", inList, listArg,
+				Task.Columns.TITLE + " COLLATE NOCASE", true);
+		assertPagedPlans("modified order", inList, listArg,
+				Task.Columns.UPDATED + " DESC", true);
+		// The lists across all lists. No index has the due date first, with
+		// statistics SQLite may skip-scan the list index instead
+		final String open = Task.Columns.COMPLETED + " IS NULL";
+		assertPagedPlans("overdue", open + TaskListFragment.andWhereOverdue(), null,
+				Task.Columns.DUE, true, Task.TABLE_NAME);
+		assertPagedPlans("today", open + TaskListFragment.andWhereToday(), null,
+				Task.Columns.DUE, true, Task.TABLE_NAME);
+		assertPagedPlans("next week", open + TaskListFragment.andWhereWeek(), null,
+				Task.Columns.DUE, true, Task.TABLE_NAME);
+		assertPagedPlans("all tasks", null, null, Task.Columns.DUE, true, Task.TABLE_NAME);
+
+		// Task.SECTIONEDDATEQUERYCODE, as SectionedDateCursor sorts its rows
+		assertPlan("sectioned by date", query(Task.TABLE_NAME, Task.Columns.FIELDS, inList,
+				"CASE WHEN " + Task.Columns.COMPLETED + " IS NOT NULL THEN 3 WHEN "
+						+ Task.Columns.DUE + " IS NULL THEN 1 ELSE 0 END,"
+						+ Task.Columns.DUE), true);
+
+		// Task.HISTORYQUERYCODE. Sorting the versions of one task is fine
+		TaskHistory.query(recorder, null, Task.Columns.HIST_TASK_ID + " IS ?",
+				new String[] { Long.toString(taskId) }).close();
+		assertRecordedPlans("history", true);
+
+		// Task.SEARCHCODE and SEARCHSUGGESTIONSCODE, most relevant first
+		TaskSearch.query(recorder, Task.FTS_TABLE_NAME, Task.TABLE_NAME, TaskSearch.FIELDS,
+				"task*", null, null, null).close();
+		assertRecordedPlans("search", false);
+		TaskSearch.query(recorder, Task.FTS_TABLE_NAME, Task.TABLE_NAME, new String[] {
+						Task.Columns._ID,
+						Task.Columns._ID + " AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID,
+						Task.Columns.TITLE + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_1,
+						TaskSearch.PLAIN_SNIPPET + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 },
+				"task*", null, "10", null).close();
+		assertRecordedPlans("search suggestions", false);
+
+		// Task.DELETEDQUERYCODE, all deleted tasks or a search, newest first
+		assertPlan("deleted tasks", query(Task.DELETE_TABLE_NAME,
+				TaskSearch.withoutMatch(Task.Columns.DELETEFIELDS), null,
+				Task.Columns.TRIG_DELETED + " DESC"), false, Task.DELETE_TABLE_NAME);
+		TaskSearch.query(recorder, Task.FTS_DELETE_TABLE_NAME, Task.DELETE_TABLE_NAME,
+				TaskSearch.DELETEFIELDS, "task*", Task.Columns.TRIG_DELETED + " DESC",
+				null, null).close();
+		assertRecordedPlans("deleted search", true);
+		// Task.DELETEDITEMCODE
+		assertPlan("deleted task", query(Task.DELETE_TABLE_NAME, Task.Columns.DELETEFIELDS,
+				Task.whereIdIs(null), null), false);
+
+		// Task.LEGACYBASEURICODE, every task
+		assertPlan("legacy tasks", query(Task.TABLE_NAME, Task.Columns.FIELDS, null,
+				Task.Columns.DUE), true, Task.TABLE_NAME);
+
+		// Notification.BASEITEMCODE and WITHTASKQUERYITEMCODE
+		assertPlan("reminder", query(Notification.TABLE_NAME, Notification.Columns.FIELDS,
+				Notification.whereIdIs(null), null), false);
+		assertPlan("reminder with task", query(Notification.JOINED_VIEW, null,
+				Notification.whereIdIs(null), null), false);
+		// Notification.WITHTASKQUERYCODE, Notification.getNotificationsWithTime
+		for (String comparison : new String[] { " <= ?", " > ?" }) {
+			assertPlan("reminders by time", query(Notification.JOINED_VIEW, null,
+					Notification.Columns.TIME + comparison + " AND "
+							+ Notification.Columns.RADIUS + " IS NULL",
+					Notification.Columns.TIME), false);
+		}
+		assertPlan("reminders with task of task", query(Notification.JOINED_VIEW, null,
+				Notification.Columns.TASKID + " IS ?", Notification.Columns.TIME), true);
+		// Notification.BASEURICODE, the reminders of a task
+		assertPlan("reminders of task", query(Notification.TABLE_NAME,
+				Notification.Columns.FIELDS, Notification.Columns.TASKID + " IS ?",
+				Notification.Columns.TIME), true);
+
+		// RemoteTask.BASEURICODE and Task.BASEURICODE as sync uses them
+		assertPlan("remote tasks of list", query(RemoteTask.TABLE_NAME,
+				RemoteTask.Columns.FIELDS, RemoteTask.Columns.SERVICE + " IS ? AND "
+						+ RemoteTask.Columns.ACCOUNT + " IS ? AND "
+						+ RemoteTask.Columns.LISTDBID + " IS ?", null), false);
+		assertPlan("remote task of task", query(RemoteTask.TABLE_NAME,
+				RemoteTask.Columns.FIELDS, RemoteTask.Columns.DBID + " IS ? AND "
+						+ RemoteTask.Columns.SERVICE + " IS ? AND "
+						+ RemoteTask.Columns.ACCOUNT + " IS ?", null), false);
+		assertPlan("task of remote task", query(Task.TABLE_NAME, Task.Columns.FIELDS,
+				new RemoteTask(taskId, listId, "remote" + taskId, 0L, ACCOUNT)
+						.getTaskWithRemoteClause(), null), false);
+		// Looks at every remote task of the account
+		assertPlan("tasks without remote task", query(Task.TABLE_NAME, Task.Columns.FIELDS,
+				RemoteTask.getTaskWithoutRemoteClause(), null), false, RemoteTask.TABLE_NAME);
+		assertPlan("sync timestamps", query(Task.TABLE_NAME, new String[] {
+				Task.Columns._ID, Task.Columns.UPDATED }, inList, Task.Columns._ID), true);
+	}
+
+	/**
+	 * The writes of MyContentProvider.insert, update and delete, by URI
+	 */
+	private void checkWrites() {
+		final String inList = Task.Columns.DBLIST + " IS ?";
+		final String someIds = " IN (1,2,3,4,5)";
+
+		// Task.BASEITEMCODE, through the cached statements, and the lists to notify
+		assertPlan("update task", "UPDATE " + Task.TABLE_NAME + " SET "
+				+ Task.Columns.TITLE + " = ?," + Task.Columns.NOTE + " = ? WHERE "
+				+ Task.Columns._ID + " IS ?", false);
+		assertPlan("lists of task", query(Task.TABLE_NAME, new String[] {
+				Task.Columns.DBLIST }, Task.whereIdIs(null), null), false);
+		assertPlan("delete task", "DELETE FROM " + Task.TABLE_NAME + " WHERE "
+				+ Task.whereIdIs(null), false);
+
+		// Task.MOVEITEMLEFTCODE and MOVEITEMRIGHTCODE, see Task.getPosNextTo
+		for (String[] neighbour : new String[][] { { "MAX", "<" }, { "MIN", ">" } }) {
+			assertPlan("position next to task", String.format("SELECT %2$s, (SELECT "
+							+ "%5$s(%2$s) FROM %1$s WHERE %3$s IS t.%3$s AND %2$s %6$s t.%2$s"
+							+ " AND %4$s IS NOT ?) FROM %1$s t WHERE %4$s IS ?",
+					Task.TABLE_NAME, Task.Columns.LEFT, Task.Columns.DBLIST, Task.Columns._ID,
+					neighbour[0], neighbour[1]), false);
+		}
+		// Task.renumber
+		assertPlan("renumber", query(Task.TABLE_NAME, new String[] { Task.Columns._ID },
+				inList, Task.Columns.LEFT), false);
+		Task.verifyPositions(recorder, listId);
+		assertRecordedPlans("verify positions", true);
+
+		// Task.MOVETASKSCODE, see Task.moveTasks. The moved tasks are sorted
+		assertPlan("tasks to move", query(Task.TABLE_NAME, new String[] { Task.Columns._ID,
+						Task.Columns.LEFT, Task.Columns.DBLIST }, Task.Columns._ID + someIds,
+				Task.Columns.DBLIST + "," + Task.Columns.LEFT), true);
+		final String notMoved = inList + " AND " + Task.Columns._ID + " NOT" + someIds;
+		assertPlan("top of list", "SELECT MIN(" + Task.Columns.LEFT + ") FROM "
+				+ Task.TABLE_NAME + " WHERE " + notMoved, false);
+		assertPlan("after task", "SELECT MIN(" + Task.Columns.LEFT + ") FROM "
+				+ Task.TABLE_NAME + " WHERE " + notMoved + " AND " + Task.Columns.LEFT
+				+ " > ?", false);
+		assertPlan("before task", "SELECT MAX(" + Task.Columns.LEFT + ") FROM "
+				+ Task.TABLE_NAME + " WHERE " + notMoved + " AND " + Task.Columns.LEFT
+				+ " < ?", false);
+		assertPlan("move task", "UPDATE " + Task.TABLE_NAME + " SET " + Task.Columns.DBLIST
+				+ " = ?," + Task.Columns.LEFT + " = ?," + Task.Columns.RIGHT + " = ? WHERE "
+				+ Task.Columns._ID + " IS ?", false);
+
+		// Task.COMPLETETASKSCODE, see Task.setCompleted. Distinct lists of a chunk
+		final String notCompleted = Task.Columns._ID + someIds + " AND "
+				+ Task.Columns.COMPLETED + " IS NULL";
+		assertPlan("lists of completed tasks", "SELECT DISTINCT " + Task.Columns.DBLIST
+				+ " FROM " + Task.TABLE_NAME + " WHERE " + notCompleted, true);
+		assertPlan("complete tasks", "UPDATE " + Task.TABLE_NAME + " SET "
+				+ Task.Columns.COMPLETED + " = ?," + Task.Columns.UPDATED + " = ? WHERE "
+				+ notCompleted, false);
+
+		// Task.BASEURICODE, DialogDeleteCompletedTasks. All lists look at every task
+		final String completed = Task.Columns.COMPLETED + " IS NOT NULL";
+		assertPlan("clear completed of list", "DELETE FROM " + Task.TABLE_NAME + " WHERE "
+				+ completed + " AND " + inList, false);
+		assertPlan("clear completed", "DELETE FROM " + Task.TABLE_NAME + " WHERE "
+				+ completed, false, Task.TABLE_NAME);
+
+		// TaskList.BASEITEMCODE
+		assertPlan("delete list", "DELETE FROM " + TaskList.TABLE_NAME + " WHERE "
+				+ TaskList.whereIdIs(null), false);
+		assertPlan("recount", TaskList.RECOUNT, false);
+
+		// Task.DELETEDQUERYCODE and DELETEDITEMCODE
+		assertPlan("delete deleted tasks", "DELETE FROM " + Task.DELETE_TABLE_NAME
+				+ " WHERE " + Task.Columns._ID + someIds, false);
+
+		// Notification URIs, Notification.setTime and setTimeForListAndBefore
+		assertPlan("snooze", "UPDATE " + Notification.TABLE_NAME + " SET "
+				+ Notification.Columns.TIME + " = ? WHERE " + Notification.whereIdIs(null),
+				false);
+		assertPlan("snooze list", "UPDATE " + Notification.TABLE_NAME + " SET "
+				+ Notification.Columns.TIME + " = ? WHERE " + Notification.Columns.TIME
+				+ " <= 1000 AND " + Notification.Columns.TASKID + someIds, false);
+		assertPlan("delete reminders of tasks", "DELETE FROM " + Notification.TABLE_NAME
+				+ " WHERE " + Notification.Columns.TASKID + someIds, false);
+
+		// RemoteTask.BASEITEMCODE
+		assertPlan("update remote task", "UPDATE " + RemoteTask.TABLE_NAME + " SET "
+				+ RemoteTask.Columns.UPDATED + " = ? WHERE " + RemoteTask.whereIdIs(null),
+				false);
+	}
+
+	/**
+	 * Every statement of every trigger, with the row values as arguments
+	 */
+	private void checkTriggers() {
+		final List<String[]> triggers = new ArrayList<>();
+		try (Cursor c = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = ?",
+				new String[] { "trigger" })) {
+			while (c.moveToNext()) {
+				triggers.add(new String[] { c.getString(0), c.getString(1) });
+			}
+		}
+		assertFalse("No triggers", triggers.isEmpty());
+
+		for (String[] trigger : triggers) {
+			final Matcher m = TRIGGER.matcher(trigger[1]);
+			assertTrue("Could not read trigger " + trigger[0], m.matches());
+			if (m.group(1) != null) {
+				assertPlan(trigger[0] + " when", "SELECT (" + rowValues(m.group(1)) + ")",
+						false);
+			}
+			for (String statement : m.group(2).split(";")) {
+				if (!statement.trim().isEmpty()) {
+					assertPlan(trigger[0], rowValues(statement), false);
+				}
+			}
+		}
+	}
+
+	private static String rowValues(final String sql) {
+		return RAISE.matcher(ROW_REFERENCE.matcher(sql).replaceAll("?")).replaceAll("NULL");
+	}
+
+	/**
+	 * Deleting or updating a parent row looks up its children, which needs
+	 * an index on the child column
+	 */
+	private void checkForeignKeys() {
+		final List<String> tables = new ArrayList<>();
+		try (Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = ?",
+				new String[] { "table" })) {
+			while (c.moveToNext()) {
+				tables.add(c.getString(0));
+			}
+		}
+
+		int keys = 0;
+		for (String table : tables) {
+			final List<String> columns = new ArrayList<>();
+			try (Cursor c = db.rawQuery("PRAGMA foreign_key_list(" + table + ")", null)) {
+				final int from = c.getColumnIndexOrThrow("from");
+				while (c.moveToNext()) {
+					columns.add(c.getString(from));
+				}
+			}
+			for (String column : columns) {
+				assertPlan("foreign key " + table + "." + column, "SELECT 1 FROM " + table
+						+ " WHERE " + column + " = ?", false);
+				keys++;
+			}
+		}
+		assertTrue("No foreign keys", keys > 0);
+	}
+
+	@LargeTest
+	public void testProviderQueries() {
+		checkQueries();
+		// Statistics may change the plans
+		analyze();
+		checkQueries();
+	}
+
+	@LargeTest
+	public void testProviderWrites() {
+		checkWrites();
+		analyze();
+		checkWrites();
+	}
+
+	@LargeTest
+	public void testTriggers() {
+		checkTriggers();
+		analyze();
+		checkTriggers();
+	}
+
+	@LargeTest
+	public void testForeignKeys() {
+		checkForeignKeys();
+		analyze();
+		checkForeignKeys();
+	}
+
+	@MediumTest
+	public void testTaskListManualOrder() {
+		// TaskListFragment, manual sorting
+		final String plan = queryPlan(Task.TABLE_NAME, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " IS ?", Task.Columns.LEFT, Long.toString(listId));
+		assertUsesIndex(plan, Task.INDEX_LIST_LEFT);
+		assertFalse("Manual order should not need a sort:\n" + plan,
+				plan.contains("TEMP B-TREE"));
+	}
+
+	@MediumTest
+	public void testTaskListOpenByDue() {
+		// Open tasks of a list by due date, as in the sectioned view
+		final String plan = queryPlan(Task.TABLE_NAME, Task.Columns.FIELDS,
+				Task.Columns.DBLIST + " IS ? AND " + Task.Columns.COMPLETED + " IS NULL",
+				Task.Columns.DUE, Long.toString(listId));
+		assertUsesIndex(plan, Task.INDEX_LIST_DUE);
+	}
+
+	@MediumTest
+	public void testHistoryOfTask() {
+		final String plan = queryPlan(Task.HISTORY_TABLE_NAME, Task.Columns.HISTORY_COLUMNS,
+				Task.Columns.HIST_TASK_ID + " IS ?", Task.Columns.UPDATED + " ASC", "1");
+		assertUsesIndex(plan, Task.INDEX_HISTORY_TASK);
+	}
+
+	@MediumTest
+	public void testNotificationsWithTime() {
+		// Notification.getNotificationsWithTime
+		final String plan = queryPlan(Notification.TABLE_NAME, Notification.Columns.FIELDS,
+				Notification.Columns.TIME + " > ? AND " + Notification.Columns.RADIUS
+						+ " IS NULL", Notification.Columns.TIME, "25000");
+		assertUsesIndex(plan, Notification.INDEX_TIME);
+	}
+
+	@MediumTest
+	public void testNotificationsOfTask() {
+		final String plan = queryPlan(Notification.TABLE_NAME, Notification.Columns.FIELDS,
+				Notification.Columns.TASKID + " IS ?", Notification.Columns.TIME, "1");
+		assertUsesIndex(plan, Notification.INDEX_TASK);
+	}
+
+	@MediumTest
+	public void testRemoteTaskOfTask() {
+		// JSONBackup and sync, looking up the remote version of a task
+		final String plan = queryPlan(RemoteTask.TABLE_NAME, RemoteTask.Columns.FIELDS,
+				RemoteTask.Columns.DBID + " IS ? AND " + RemoteTask.Columns.SERVICE
+						+ " IS ? AND " + RemoteTask.Columns.ACCOUNT + " IS ?", null,
+				"1", SERVICE, ACCOUNT);
+		assertUsesIndex(plan, RemoteTask.INDEX_DBID);
+	}
+
+	@MediumTest
+	public void testRemoteTasksOfList() {
+		// DBSyncBase, all remote items of a list
+		final String plan = queryPlan(RemoteTask.TABLE_NAME, RemoteTask.Columns.FIELDS,
+				RemoteTask.Columns.SERVICE + " IS ? AND " + RemoteTask.Columns.ACCOUNT
+						+ " IS ? AND " + RemoteTask.Columns.LISTDBID + " IS ?", null,
+				"sdcard", "account", "1");
+		assertUsesIndex(plan, RemoteTask.INDEX_LISTDBID);
+	}
+
+	@MediumTest
+	public void testTaskOfRemoteTask() {
+		// GoogleTaskSync, finding the local version of a remote task
+		final String plan = queryPlan(Task.TABLE_NAME, Task.Columns.FIELDS,
+				new RemoteTask(taskId, listId, "remote" + taskId, 0L, ACCOUNT)
+						.getTaskWithRemoteClause(), null,
+				Long.toString(listId), "remote" + taskId, ACCOUNT);
+		assertUsesIndex(plan, RemoteTask.INDEX_REMOTEID);
+	}
+}
@@ -3,6 +3,8 @@ package com.nononsenseapps.notepad.test;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 
@@ -36,6 +38,24 @@ public class Helper {
 		return result;
 	}
 
+	/**
+	 * Deletes the databases of the tests using the prefix, legacy one included
+	 */
+	public static void deleteDatabases(final Context context, final String prefix) {
+		context.deleteDatabase(prefix + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(prefix + DatabaseHandler.DATABASE_NAME);
+	}
+
+	/**
+	 * Deletes what an earlier test left, see {@link #deleteDatabases}
+	 *
+	 * @return a handler of a new database for the tests using the prefix
+	 */
+	public static DatabaseHandler openFreshDatabase(final Context context, final String prefix) {
+		deleteDatabases(context, prefix);
+		return new DatabaseHandler(context, prefix);
+	}
+
 	/**
 	 * Takes a screenshots and saves it as
 	 * /storage/emulated/0/Android/data/com.nononsenseapps.notepad/files/screenshots/fileName.png
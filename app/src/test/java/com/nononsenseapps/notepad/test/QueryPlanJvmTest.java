@@ -0,0 +1,44 @@
+package com.nononsenseapps.notepad.test;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.util.Enumeration;
+
+import junit.framework.TestFailure;
+import junit.framework.TestResult;
+import junit.framework.TestSuite;
+
+/**
+ * Runs the checks of {@link DBQueryPlanTest} on the JVM, so a query which
+ * stops using its index fails the build without a device. The native SQLite
+ * mode plans queries with a real SQLite, like the device does.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 32, application = Application.class)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class QueryPlanJvmTest {
+
+	@Test
+	public void testQueryPlans() {
+		final TestResult result = new TestResult();
+		new TestSuite(DBQueryPlanTest.class).run(result);
+
+		final StringBuilder failures = new StringBuilder();
+		for (Enumeration<TestFailure> e = result.failures(); e.hasMoreElements(); ) {
+			failures.append('\n').append(e.nextElement());
+		}
+		for (Enumeration<TestFailure> e = result.errors(); e.hasMoreElements(); ) {
+			failures.append('\n').append(e.nextElement().trace());
+		}
+		assertTrue(failures.toString(), result.wasSuccessful());
+		assertTrue("No query plan checks ran", result.runCount() > 0);
+	}
+}